@@ -0,0 +1,83 @@
+package org.test.news;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates the (deterministic) data used by the benchmarks
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+final class BenchmarkData {
+
+    private static final String LETTERS = "abcdefghijklmnopqrstuvwxyzäöüß";
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Returns a dictionary with the given number of words; 12 words means the default {@link Dictionary#INSTANCE}
+     */
+    static Dictionary dictionary(int size) {
+        if (size == Dictionary.INSTANCE.allWords().size()) {
+            return Dictionary.INSTANCE;
+        }
+        Random random = new Random(size);
+        List<String> words = new ArrayList<>(size);
+        int[] weights = new int[size];
+        for (int i = 0; i < size; i++) {
+            words.add(randomWord(random));
+            weights[i] = random.nextInt(11) - 5;
+        }
+        return Dictionary.of(words, weights);
+    }
+
+    /**
+     * Returns the original {@code HashMap} used by {@link PhraseScorer}
+     */
+    static Map<String, Integer> scoreMap(Dictionary dictionary) {
+        Map<String, Integer> scoreMap = new HashMap<>(dictionary.allWords().size());
+        for (int i = 0; i < dictionary.allWords().size(); i++) {
+            scoreMap.put(dictionary.allWords().get(i), dictionary.weight(i));
+        }
+        return scoreMap;
+    }
+
+    /**
+     * Returns "headline priority" messages made of words from a dictionary, with roughly 1 in 4 words being unknown
+     */
+    static String[] messages(Dictionary dictionary, int count, int wordsPerMessage) {
+        Random random = new Random(count + wordsPerMessage);
+        List<String> words = dictionary.allWords();
+        String[] messages = new String[count];
+        for (int i = 0; i < count; i++) {
+            StringBuilder message = new StringBuilder();
+            for (int j = 0; j < wordsPerMessage; j++) {
+                message.append(random.nextInt(4) == 0 ? randomWord(random) : words.get(random.nextInt(words.size()))).append(' ');
+            }
+            messages[i] = message.append(random.nextInt(10)).toString();
+        }
+        return messages;
+    }
+
+    static byte[][] encode(String[] messages) {
+        byte[][] encoded = new byte[messages.length][];
+        for (int i = 0; i < messages.length; i++) {
+            encoded[i] = messages[i].getBytes(StandardCharsets.UTF_8);
+        }
+        return encoded;
+    }
+
+    private static String randomWord(Random random) {
+        int length = 3 + random.nextInt(8);
+        StringBuilder word = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            word.append(LETTERS.charAt(random.nextInt(LETTERS.length())));
+        }
+        return word.toString();
+    }
+}
@@ -0,0 +1,74 @@
+package org.test.news;
+
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The cost of logging every received message ("received %s") on the decoding path of the analyzer. The logging level is
+ * fixed for the whole JVM, so each benchmark runs in a fork with its own {@code -Dlog.level}; the number of log events
+ * dropped because the writer couldn't keep up is printed at the end of the logging fork.
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class LoggingBenchmark {
+
+    private static final int MESSAGES = 1000;
+
+    private byte[] data;
+    private FeedDecoder decoder;
+    private Blackhole blackhole;
+
+    @Setup
+    public void setup(Blackhole blackhole) {
+        this.blackhole = blackhole;
+        String[] messages = new String[MESSAGES];
+        MessageGenerator generator = new MessageGenerator(3, 5);
+        for (int i = 0; i < MESSAGES; i++) {
+            messages[i] = generator.generateMessage();
+        }
+        this.data = (String.join("\n", messages) + "\n").getBytes(StandardCharsets.UTF_8);
+        this.decoder = new FeedDecoder(new MessageParser("feed", PhraseScorer.INSTANCE), this::consume, 8 * 1024);
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.out.println("log events dropped: " + Logger.droppedEvents());
+    }
+
+    private void consume(NewsItem item) {
+        blackhole.consume(item);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Dlog.level=off")
+    @OperationsPerInvocation(MESSAGES)
+    public void loggingOff() throws ProtocolException {
+        decoder.decode(data, 0, data.length);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = {"-Dlog.level=debug", "-Dlog.file=target/logging-benchmark.log"})
+    @OperationsPerInvocation(MESSAGES)
+    public void loggingEveryMessage() throws ProtocolException {
+        decoder.decode(data, 0, data.length);
+    }
+}
@@ -0,0 +1,211 @@
+package org.test.news;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Measures the whole analyzer end to end over loopback sockets: an in-process {@link Analyzer} with short tumbling windows
+ * is flooded by a number of feeds sending positive messages as fast as they can, while a separate marker feed sends a
+ * uniquely numbered, highest priority message every few milliseconds.
+ * <p>
+ * The throughput is the number of items counted by the reported windows and the latency is the time from sending a marker
+ * to seeing it among the top items of a report, which covers reading, parsing, scoring, buffering and aggregation.
+ * </p>
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+public class LoopbackThroughput {
+
+    private static final String MARKER_PREFIX = "über über über m";
+    private static final long WINDOW_MILLIS = 100;
+    private static final long MARKER_INTERVAL_MILLIS = 5;
+    private static final int WRITE_BLOCK_SIZE = 64 * 1024;
+
+    private final AnalyzerConfig.IngestMode mode;
+    private final int feeds;
+    private final int seconds;
+    private final AtomicLong reportedItems;
+    private final AtomicLongArray markerSendNanos;
+    private final long[] markerLatencies;
+    private int markerLatencyCount;
+    private volatile boolean measuring;
+
+    protected LoopbackThroughput(AnalyzerConfig.IngestMode mode, int feeds, int seconds) {
+        this.mode = mode;
+        this.feeds = feeds;
+        this.seconds = seconds;
+        this.reportedItems = new AtomicLong();
+        int maxMarkers = (int) (TimeUnit.SECONDS.toMillis(seconds + 1) / MARKER_INTERVAL_MILLIS) + 1;
+        this.markerSendNanos = new AtomicLongArray(maxMarkers);
+        this.markerLatencies = new long[maxMarkers];
+    }
+
+    protected void run() throws Exception {
+        int port = freePort();
+        Properties properties = new Properties();
+        // e.g. -Djournal.dir or -Dbuffer.capacity, the settings the measurement depends on are always overridden
+        properties.putAll(System.getProperties());
+        properties.setProperty("port", String.valueOf(port));
+        properties.setProperty("mode", mode.name());
+        properties.setProperty("window.length", WINDOW_MILLIS + "ms");
+        // enough room for all the markers sent during a window
+        properties.setProperty("top.k", String.valueOf(4 * WINDOW_MILLIS / MARKER_INTERVAL_MILLIS));
+        properties.setProperty("report.console", "false");
+        Analyzer analyzer = new Analyzer(new AnalyzerConfig(properties));
+        analyzer.addReportListener(this::onReport);
+        Thread analyzerThread = new Thread(analyzer::start, "analyzer");
+        analyzerThread.setDaemon(true);
+        analyzerThread.start();
+        TimeUnit.SECONDS.sleep(1);
+
+        byte[] block = positiveMessages();
+        List<Socket> sockets = new ArrayList<>(feeds + 1);
+        try {
+            // connected first, since in pool mode the feeds beyond the core pool size wait in the queue
+            Socket markerSocket = new Socket(InetAddress.getLoopbackAddress(), port);
+            markerSocket.setTcpNoDelay(true);
+            sockets.add(markerSocket);
+            for (int i = 0; i < feeds; i++) {
+                Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+                sockets.add(socket);
+                Thread sender = new Thread(() -> flood(socket, block), "feed-" + sockets.size());
+                sender.setDaemon(true);
+                sender.start();
+            }
+
+            // warm up, then measure
+            TimeUnit.SECONDS.sleep(2);
+            measuring = true;
+            long start = System.nanoTime();
+            long end = start + TimeUnit.SECONDS.toNanos(seconds);
+            OutputStream markerOut = markerSocket.getOutputStream();
+            int seq = 0;
+            while (System.nanoTime() < end && seq < markerSendNanos.length()) {
+                byte[] marker = (MARKER_PREFIX + seq + " 9\n").getBytes(StandardCharsets.UTF_8);
+                markerSendNanos.set(seq, System.nanoTime());
+                markerOut.write(marker);
+                markerOut.flush();
+                seq++;
+                TimeUnit.MILLISECONDS.sleep(MARKER_INTERVAL_MILLIS);
+            }
+            // let the last markers be reported
+            TimeUnit.MILLISECONDS.sleep(3 * WINDOW_MILLIS);
+            measuring = false;
+            double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+            printResults(elapsedSeconds, seq);
+        } finally {
+            analyzer.stop();
+            for (Socket socket : sockets) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private void onReport(WindowSummary summary) {
+        if (!measuring) {
+            return;
+        }
+        reportedItems.addAndGet(summary.total());
+        long now = System.nanoTime();
+        for (NewsItem item : summary.topItems()) {
+            String headline = item.headline();
+            if (!headline.startsWith(MARKER_PREFIX)) {
+                // the markers have the highest priority, so there are none left
+                break;
+            }
+            int seq = Integer.parseInt(headline.substring(MARKER_PREFIX.length(), headline.length() - 2).trim());
+            long sent = markerSendNanos.get(seq);
+            if (sent != 0) {
+                synchronized (markerLatencies) {
+                    markerLatencies[markerLatencyCount++] = now - sent;
+                }
+            }
+        }
+    }
+
+    private void printResults(double elapsedSeconds, int markersSent) {
+        long[] latencies;
+        synchronized (markerLatencies) {
+            latencies = Arrays.copyOf(markerLatencies, markerLatencyCount);
+        }
+        Arrays.sort(latencies);
+        System.out.printf("%s mode, %d feeds: %,.0f msgs/sec reported %n", mode, feeds, reportedItems.get() / elapsedSeconds);
+        if (latencies.length == 0) {
+            System.out.printf("none of the %d markers was reported %n", markersSent);
+            return;
+        }
+        System.out.printf("ingest to report latency (%d of %d markers, %d ms windows): p50 %d ms, p99 %d ms, max %d ms %n",
+                          latencies.length, markersSent, WINDOW_MILLIS, millis(latencies, 0.5), millis(latencies, 0.99),
+                          TimeUnit.NANOSECONDS.toMillis(latencies[latencies.length - 1]));
+    }
+
+    private static long millis(long[] sorted, double percentile) {
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(sorted.length * percentile) - 1);
+        return TimeUnit.NANOSECONDS.toMillis(sorted[Math.max(0, index)]);
+    }
+
+    private static void flood(Socket socket, byte[] block) {
+        try {
+            OutputStream out = socket.getOutputStream();
+            while (!socket.isClosed()) {
+                out.write(block);
+            }
+        } catch (IOException e) {
+            // the analyzer or the socket was closed
+        }
+    }
+
+    /**
+     * Returns a block of positive messages with priorities below the marker priority, so that the analyzer does the full
+     * amount of work for every message
+     */
+    private static byte[] positiveMessages() {
+        MessageParser parser = new MessageParser("filter", new PhraseScorer(Dictionary.INSTANCE));
+        MessageGenerator generator = new MessageGenerator(3, 5);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        ByteArrayOutputStream block = new ByteArrayOutputStream(WRITE_BLOCK_SIZE + 128);
+        while (block.size() < WRITE_BLOCK_SIZE) {
+            String message = generator.generateMessage();
+            message = message.substring(0, message.length() - 1) + random.nextInt(9);
+            byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+            if (parser.parse(bytes, 0, bytes.length) != null) {
+                block.write(bytes, 0, bytes.length);
+                block.write('\n');
+            }
+        }
+        return block.toByteArray();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        AnalyzerConfig.IngestMode mode = AnalyzerConfig.IngestMode.parse(args.length > 0 ? args[0] : "pool");
+        int feeds = args.length > 1 ? Integer.valueOf(args[1]) : 8;
+        int seconds = args.length > 2 ? Integer.valueOf(args[2]) : 10;
+        System.out.printf("Usage: LoopbackThroughput [mode(pool|nio|virtual):%s] [feeds:%d] [seconds:%d] %n",
+                          mode.name().toLowerCase(), feeds, seconds);
+        new LoopbackThroughput(mode, feeds, seconds).run();
+        System.exit(0);
+    }
+}
@@ -0,0 +1,50 @@
+package org.test.news;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Message generation on the {@link Feed} side
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageGeneratorBenchmark {
+
+    @Param({"3", "5", "20"})
+    public int wordsPerMessage;
+
+    private MessageGenerator generator;
+    private byte[] buffer;
+
+    @Setup
+    public void setup() {
+        this.generator = new MessageGenerator(wordsPerMessage, wordsPerMessage);
+        this.buffer = new byte[generator.maxMessageLength()];
+    }
+
+    @Benchmark
+    public String generateMessage() {
+        return generator.generateMessage();
+    }
+
+    @Benchmark
+    public int generateMessageBytes() {
+        return generator.generateMessage(buffer, 0);
+    }
+}
@@ -0,0 +1,71 @@
+package org.test.news;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Construction and comparison of {@link NewsItem}s
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NewsItemBenchmark {
+
+    private static final int ITEMS = 1024;
+
+    @Param({"3", "5", "20"})
+    public int wordsPerMessage;
+
+    private String[] headlines;
+    private NewsItem[] items;
+    private int next;
+
+    @Setup
+    public void setup() {
+        String[] messages = BenchmarkData.messages(Dictionary.INSTANCE, ITEMS, wordsPerMessage);
+        this.headlines = new String[ITEMS];
+        this.items = new NewsItem[ITEMS];
+        for (int i = 0; i < ITEMS; i++) {
+            headlines[i] = messages[i].substring(0, messages[i].length() - 1);
+            // few priorities and feeds, so that the comparisons also have to look at the messages and the feeds
+            items[i] = new NewsItem((byte) (i % 2), headlines[i], "feed" + (i % 3));
+        }
+    }
+
+    @Benchmark
+    public NewsItem construct() {
+        int i = next++ & (ITEMS - 1);
+        return new NewsItem((byte) (i % 10), headlines[i], "feed");
+    }
+
+    @Benchmark
+    public int compareTo() {
+        int i = next++;
+        return items[i & (ITEMS - 1)].compareTo(items[(i * 31 + 7) & (ITEMS - 1)]);
+    }
+
+    @Benchmark
+    public String headline() {
+        return items[next++ & (ITEMS - 1)].headline();
+    }
+
+    @Benchmark
+    public int hashCodeOf() {
+        return items[next++ & (ITEMS - 1)].hashCode();
+    }
+}
@@ -0,0 +1,96 @@
+package org.test.news;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.function.IntFunction;
+
+/**
+ * Measures the heap used by a window of {@link NewsItem}s, in bytes per item, against the original representation which
+ * kept the headline and the UUID of the feed as strings in each item.
+ * <p>
+ * The items are received like they are from the feeds, i.e. each item gets its own headline and the feed id of its
+ * connection; the heap is measured after a full GC before and after creating them.
+ * </p>
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+public class NewsItemFootprint {
+
+    private static final int DISTINCT_MESSAGES = 1 << 16;
+
+    private final int items;
+    private final int feeds;
+
+    protected NewsItemFootprint(int items, int feeds) {
+        this.items = items;
+        this.feeds = feeds;
+    }
+
+    protected void run() throws Exception {
+        String[] messages = BenchmarkData.messages(Dictionary.INSTANCE, DISTINCT_MESSAGES, 4);
+        String[] feedNames = new String[feeds];
+        int[] feedIds = new int[feeds];
+        for (int i = 0; i < feeds; i++) {
+            feedNames[i] = UUID.randomUUID().toString();
+            feedIds[i] = FeedRegistry.INSTANCE.register(feedNames[i]);
+        }
+        System.out.printf("%d items from %d feeds %n", items, feeds);
+        // each received headline is a new string or array, like when it's decoded from the socket
+        measure("original", i -> new OriginalNewsItem((byte) (i % 10), headline(messages, i), feedNames[i % feeds]));
+        measure("compact", i -> new NewsItem((byte) (i % 10), headline(messages, i).getBytes(StandardCharsets.UTF_8),
+                                             feedIds[i % feeds], 0));
+    }
+
+    private void measure(String name, IntFunction<Object> factory) throws InterruptedException {
+        Object[] window = new Object[items];
+        long before = usedHeap();
+        for (int i = 0; i < items; i++) {
+            window[i] = factory.apply(i);
+        }
+        long after = usedHeap();
+        System.out.printf("%-10s %6.1f bytes/item %n", name, (double) (after - before) / items);
+        if (window[items - 1] == null) {
+            throw new IllegalStateException("the items were collected");
+        }
+    }
+
+    private static String headline(String[] messages, int i) {
+        String message = messages[i & (DISTINCT_MESSAGES - 1)];
+        return message.substring(0, message.length() - 2);
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        // a single System.gc() doesn't always collect everything
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(50);
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+
+    /**
+     * The {@link NewsItem} fields before the feeds were registered in the {@link FeedRegistry}
+     */
+    private static class OriginalNewsItem {
+        private final String message;
+        private final byte priority;
+        private final String feedId;
+        private final long receivedNanos;
+
+        private OriginalNewsItem(byte priority, String message, String feedId) {
+            this.priority = priority;
+            this.message = message;
+            this.feedId = feedId;
+            this.receivedNanos = System.nanoTime();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int items = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int feeds = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        new NewsItemFootprint(items, feeds).run();
+    }
+}
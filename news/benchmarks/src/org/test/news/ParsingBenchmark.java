@@ -0,0 +1,77 @@
+package org.test.news;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The message parsing path of the analyzer: {@link MessageParser} against the original string based
+ * {@code Analyzer.newsItemProducer}. Run with {@code -prof gc} to see the allocations per message.
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParsingBenchmark {
+
+    private static final int MESSAGES = 1024;
+
+    @Param({"12", "10000"})
+    public int dictionarySize;
+
+    @Param({"3", "5", "20"})
+    public int wordsPerMessage;
+
+    private byte[][] messages;
+    private MessageParser parser;
+    private Map<String, Integer> scoreMap;
+    private int next;
+
+    @Setup
+    public void setup() {
+        Dictionary dictionary = BenchmarkData.dictionary(dictionarySize);
+        this.messages = BenchmarkData.encode(BenchmarkData.messages(dictionary, MESSAGES, wordsPerMessage));
+        this.parser = new MessageParser("feed", new PhraseScorer(dictionary));
+        this.scoreMap = BenchmarkData.scoreMap(dictionary);
+    }
+
+    @Benchmark
+    public NewsItem byteParser() {
+        byte[] message = messages[next++ & (MESSAGES - 1)];
+        return parser.parse(message, 0, message.length);
+    }
+
+    @Benchmark
+    public NewsItem stringParser() {
+        // the original InputStreamReader decoding, Analyzer.newsItemProducer and PhraseScorer.scoreMessage
+        String line = new String(messages[next++ & (MESSAGES - 1)], StandardCharsets.UTF_8);
+        try {
+            int lastCharIdx = line.length() - 1;
+            String headline = line.substring(0, lastCharIdx);
+            Byte prio = Byte.valueOf(line.substring(lastCharIdx));
+            NewsItem item = new NewsItem(prio, headline, "feed");
+            int score = Arrays.stream(headline.split(" "))
+                              .mapToInt(word -> scoreMap.getOrDefault(word, 0))
+                              .sum();
+            return score > 0 ? item : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
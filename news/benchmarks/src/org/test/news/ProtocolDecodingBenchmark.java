@@ -0,0 +1,79 @@
+package org.test.news;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The analyzer side cost of decoding the same messages sent with each of the protocols of a {@link Feed}, per message
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProtocolDecodingBenchmark {
+
+    private static final int MESSAGES = 1000;
+
+    @Param({"text", "binary", "binary_word_ids"})
+    public String protocol;
+
+    private byte[] data;
+    private FeedDecoder decoder;
+    private Blackhole blackhole;
+
+    @Setup
+    public void setup(Blackhole blackhole) throws IOException {
+        this.blackhole = blackhole;
+        String[] messages = new String[MESSAGES];
+        MessageGenerator generator = new MessageGenerator(3, 5);
+        for (int i = 0; i < MESSAGES; i++) {
+            messages[i] = generator.generateMessage();
+        }
+        MessageParser parser = new MessageParser("feed", PhraseScorer.INSTANCE);
+        this.decoder = new FeedDecoder(parser, this::consume, 8 * 1024);
+        if ("text".equals(protocol)) {
+            this.data = (String.join("\n", messages) + "\n").getBytes(StandardCharsets.UTF_8);
+            return;
+        }
+        Dictionary wordIds = "binary_word_ids".equals(protocol) ? Dictionary.INSTANCE : null;
+        byte[] preamble = BinaryProtocol.preamble(wordIds != null ? BinaryProtocol.FLAG_WORD_IDS : 0, Dictionary.INSTANCE);
+        decoder.decode(preamble, 0, preamble.length);
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        BinaryFrameWriter writer = new BinaryFrameWriter(frames, wordIds);
+        for (String message : messages) {
+            writer.write(message);
+        }
+        writer.flush();
+        this.data = frames.toByteArray();
+    }
+
+    private void consume(NewsItem item) {
+        blackhole.consume(item);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void decode() throws ProtocolException {
+        decoder.decode(data, 0, data.length);
+    }
+}
@@ -0,0 +1,76 @@
+package org.test.news;
+
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A whole reporting window: adding all the items of the window and then computing its top K, using the
+ * {@link TopKAggregator} against the original queue drained into a {@link TreeSet} by {@code Analyzer.processHeadlines}
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReportingBenchmark {
+
+    @Param({"1000", "100000"})
+    public int itemsPerWindow;
+
+    @Param({"3", "100"})
+    public int k;
+
+    private NewsItem[] items;
+    private TopKAggregator aggregator;
+
+    @Setup
+    public void setup() {
+        String[] messages = BenchmarkData.messages(Dictionary.INSTANCE, itemsPerWindow, 4);
+        this.items = new NewsItem[itemsPerWindow];
+        for (int i = 0; i < itemsPerWindow; i++) {
+            String message = messages[i];
+            byte priority = (byte) (message.charAt(message.length() - 1) - '0');
+            items[i] = new NewsItem(priority, message.substring(0, message.length() - 1), "feed" + (i % 16));
+        }
+        this.aggregator = new TopKAggregator(k);
+    }
+
+    @Benchmark
+    public WindowSummary topKAggregator() {
+        for (NewsItem item : items) {
+            aggregator.accept(item);
+        }
+        return aggregator.drain();
+    }
+
+    @Benchmark
+    public List<NewsItem> treeSetDrain() {
+        ConcurrentLinkedQueue<NewsItem> newsItems = new ConcurrentLinkedQueue<>();
+        for (NewsItem item : items) {
+            newsItems.offer(item);
+        }
+        TreeSet<NewsItem> sortedSnapshot = new TreeSet<>();
+        NewsItem newsItem;
+        while ((newsItem = newsItems.poll()) != null) {
+            sortedSnapshot.add(newsItem);
+        }
+        return sortedSnapshot.stream().limit(k).collect(Collectors.toList());
+    }
+}
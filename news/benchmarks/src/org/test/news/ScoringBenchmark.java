@@ -0,0 +1,69 @@
+package org.test.news;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link PhraseScorer#scoreMessage(byte[], int, int)} against the original {@code split} and {@code HashMap} scoring
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScoringBenchmark {
+
+    private static final int MESSAGES = 1024;
+
+    @Param({"12", "10000", "1000000"})
+    public int dictionarySize;
+
+    @Param({"3", "5", "20"})
+    public int wordsPerMessage;
+
+    private String[] headlines;
+    private byte[][] encodedHeadlines;
+    private PhraseScorer scorer;
+    private Map<String, Integer> scoreMap;
+    private int next;
+
+    @Setup
+    public void setup() {
+        Dictionary dictionary = BenchmarkData.dictionary(dictionarySize);
+        this.headlines = BenchmarkData.messages(dictionary, MESSAGES, wordsPerMessage);
+        for (int i = 0; i < headlines.length; i++) {
+            headlines[i] = headlines[i].substring(0, headlines[i].length() - 1);
+        }
+        this.encodedHeadlines = BenchmarkData.encode(headlines);
+        this.scorer = new PhraseScorer(dictionary);
+        this.scoreMap = BenchmarkData.scoreMap(dictionary);
+    }
+
+    @Benchmark
+    public int perfectHash() {
+        byte[] headline = encodedHeadlines[next++ & (MESSAGES - 1)];
+        return scorer.scoreMessage(headline, 0, headline.length);
+    }
+
+    @Benchmark
+    public int hashMap() {
+        return Arrays.stream(headlines[next++ & (MESSAGES - 1)].split(" "))
+                     .mapToInt(word -> scoreMap.getOrDefault(word, 0))
+                     .sum();
+    }
+}
@@ -0,0 +1,197 @@
+package org.test.news;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Measures how long a freshly started {@link Analyzer} takes to get up to speed: each variant starts the analyzer in a new
+ * JVM, with short tumbling windows, and floods it over loopback with feeds which keep trying to connect from the moment the
+ * JVM is launched. The throughput of each window is read from the console report of the analyzer.
+ * <p>
+ * The time to the first report is the time from launching the JVM until the first report which counted any items and the
+ * time to steady state is the time until the first window whose throughput reaches 90% of the median throughput of the
+ * second half of the run. The variants are the analyzer without a warm-up, with the default {@link Warmup} and with the
+ * warm-up and an AppCDS archive recorded beforehand (JDK >= 13 and a jar class path required).
+ * </p>
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+public class StartupTime {
+
+    private static final Pattern REPORT = Pattern.compile("Found (\\d+) positive items.*");
+    private static final long WINDOW_MILLIS = 100;
+    private static final double STEADY_FRACTION = 0.9;
+    private static final int WRITE_BLOCK_SIZE = 64 * 1024;
+
+    private final AnalyzerConfig.IngestMode mode;
+    private final int feeds;
+    private final int seconds;
+    private final byte[] block;
+
+    protected StartupTime(AnalyzerConfig.IngestMode mode, int feeds, int seconds) {
+        this.mode = mode;
+        this.feeds = feeds;
+        this.seconds = seconds;
+        MessageGenerator generator = new MessageGenerator(3, 5);
+        byte[] buffer = new byte[WRITE_BLOCK_SIZE];
+        this.block = Arrays.copyOf(buffer, generator.generateMessages(WRITE_BLOCK_SIZE / generator.maxMessageLength(), buffer, 0));
+    }
+
+    protected void run() throws Exception {
+        measure("no warm-up", Collections.singletonList("-Dwarmup.messages=0"));
+        measure("warm-up", Collections.emptyList());
+        Path archive = Files.createTempFile("news", ".jsa");
+        try {
+            Files.delete(archive);
+            // the classes loaded by the warm-up and the startup
+            runJvm(Arrays.asList("-XX:ArchiveClassesAtExit=" + archive, "-Dwarmup.only=true"), freePort()).waitFor();
+            if (Files.exists(archive)) {
+                measure("warm-up + AppCDS", Arrays.asList("-XX:SharedArchiveFile=" + archive, "-Xshare:auto"));
+            } else {
+                System.out.println("warm-up + AppCDS: skipped, the archive could not be created (JDK >= 13 and a jar class path required)");
+            }
+        } finally {
+            Files.deleteIfExists(archive);
+        }
+    }
+
+    private void measure(String name, List<String> jvmOptions) throws Exception {
+        int port = freePort();
+        long launchNanos = System.nanoTime();
+        Process process = runJvm(jvmOptions, port);
+        List<long[]> windows = Collections.synchronizedList(new ArrayList<>());
+        Thread reader = new Thread(() -> readReports(process, launchNanos, windows), "report-reader");
+        reader.setDaemon(true);
+        reader.start();
+        List<Socket> sockets = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < feeds; i++) {
+            Thread feed = new Thread(() -> flood(port, sockets), "feed-" + i);
+            feed.setDaemon(true);
+            feed.start();
+        }
+        try {
+            TimeUnit.SECONDS.sleep(seconds);
+        } finally {
+            process.destroy();
+            process.waitFor();
+            synchronized (sockets) {
+                for (Socket socket : sockets) {
+                    try {
+                        socket.close();
+                    } catch (IOException e) {
+                        // ignore
+                    }
+                }
+            }
+        }
+        printResults(name, new ArrayList<>(windows));
+    }
+
+    private Process runJvm(List<String> jvmOptions, int port) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmOptions);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("-Dwindow.length=" + WINDOW_MILLIS + "ms");
+        command.add(Analyzer.class.getName());
+        command.add(String.valueOf(port));
+        command.add(mode.name().toLowerCase());
+        return new ProcessBuilder(command).redirectErrorStream(true).start();
+    }
+
+    /**
+     * Collects the millis since the launch and the number of items of each report which counted any items
+     */
+    private static void readReports(Process process, long launchNanos, List<long[]> windows) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Matcher matcher = REPORT.matcher(line.trim());
+                if (matcher.matches()) {
+                    windows.add(new long[] {TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - launchNanos),
+                                            Long.parseLong(matcher.group(1))});
+                }
+            }
+        } catch (IOException e) {
+            // the analyzer was stopped
+        }
+    }
+
+    /**
+     * Keeps trying to connect until the analyzer accepts feeds, then sends messages as fast as it reads them
+     */
+    private void flood(int port, List<Socket> sockets) {
+        Socket socket = null;
+        while (socket == null) {
+            try {
+                socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            } catch (IOException e) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(5);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+        sockets.add(socket);
+        try {
+            OutputStream out = socket.getOutputStream();
+            while (!socket.isClosed()) {
+                out.write(block);
+            }
+        } catch (IOException e) {
+            // the analyzer was stopped
+        }
+    }
+
+    private void printResults(String name, List<long[]> windows) {
+        if (windows.size() < 2) {
+            System.out.printf("%-17s no items were reported in %d s %n", name, seconds);
+            return;
+        }
+        long[] secondHalf = windows.subList(windows.size() / 2, windows.size()).stream().mapToLong(window -> window[1]).sorted().toArray();
+        long steadyItems = secondHalf[secondHalf.length / 2];
+        long steadyMillis = -1;
+        for (long[] window : windows) {
+            if (window[1] >= STEADY_FRACTION * steadyItems) {
+                steadyMillis = window[0];
+                break;
+            }
+        }
+        System.out.printf("%-17s first report after %5d ms, steady state after %5d ms at %,.0f positive msgs/sec %n", name,
+                          windows.get(0)[0], steadyMillis, steadyItems * 1000.0 / WINDOW_MILLIS);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        AnalyzerConfig.IngestMode mode = AnalyzerConfig.IngestMode.parse(args.length > 0 ? args[0] : "nio");
+        int feeds = args.length > 1 ? Integer.valueOf(args[1]) : 4;
+        int seconds = args.length > 2 ? Integer.valueOf(args[2]) : 10;
+        System.out.printf("Usage: StartupTime [mode(pool|nio|virtual):%s] [feeds:%d] [seconds:%d] %n",
+                          mode.name().toLowerCase(), feeds, seconds);
+        new StartupTime(mode, feeds, seconds).run();
+        System.exit(0);
+    }
+}
@@ -0,0 +1,150 @@
+package org.test.news;
+
+import java.io.FilterOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Sends the same messages at a fixed rate to an in-process {@link Analyzer}, once with each of the protocols a
+ * {@link Feed} can use, counting the writes (each one being a send syscall) and the bytes sent by the feed, as well as the
+ * items reported by the analyzer which must be the same for all the protocols.
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+public class WireProtocolComparison {
+
+    private static final long WINDOW_MILLIS = 200;
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final int rate;
+    private final List<String> messages;
+    private final AtomicLong reportedItems;
+
+    protected WireProtocolComparison(int rate, int seconds) {
+        this.rate = rate;
+        this.messages = new ArrayList<>(rate * seconds);
+        new MessageGenerator(3, 5).generateMessages(rate * seconds, messages::add);
+        this.reportedItems = new AtomicLong();
+    }
+
+    protected void run() throws Exception {
+        int port = freePort();
+        Properties properties = new Properties();
+        properties.setProperty("port", String.valueOf(port));
+        properties.setProperty("mode", "nio");
+        properties.setProperty("window.length", WINDOW_MILLIS + "ms");
+        properties.setProperty("report.console", "false");
+        Analyzer analyzer = new Analyzer(new AnalyzerConfig(properties));
+        analyzer.addReportListener(summary -> reportedItems.addAndGet(summary.total()));
+        Thread analyzerThread = new Thread(analyzer::start, "analyzer");
+        analyzerThread.setDaemon(true);
+        analyzerThread.start();
+        TimeUnit.SECONDS.sleep(1);
+        try {
+            System.out.printf("%-16s %10s %12s %10s %10s %12s %10s %n", "protocol", "writes", "writes/sec", "bytes", "bytes/msg",
+                              "msgs/sec", "reported");
+            // once to warm up, once to measure
+            for (int run = 0; run < 2; run++) {
+                send("text", port, -1, run == 1);
+                send("binary", port, 0, run == 1);
+                send("binary word ids", port, BinaryProtocol.FLAG_WORD_IDS, run == 1);
+            }
+        } finally {
+            analyzer.stop();
+        }
+    }
+
+    private void send(String protocol, int port, int binaryFlags, boolean print) throws Exception {
+        long reportedBefore = reportedItems.get();
+        CountingOutputStream out;
+        long elapsedNanos;
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            out = new CountingOutputStream(socket.getOutputStream());
+            Consumer<String> sender;
+            Flushable batch;
+            if (binaryFlags < 0) {
+                // the same as the text protocol of the feed, which flushes each message
+                PrintWriter writer = new PrintWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), true);
+                sender = writer::println;
+                batch = writer;
+            } else {
+                int acceptedFlags = BinaryFrameWriter.negotiate(socket.getInputStream(), out, binaryFlags, Dictionary.INSTANCE);
+                BinaryFrameWriter writer = new BinaryFrameWriter(out, acceptedFlags != 0 ? Dictionary.INSTANCE : null);
+                sender = writer::write;
+                batch = writer;
+            }
+            long start = System.nanoTime();
+            int sent = 0;
+            while (sent < messages.size()) {
+                long due = Math.min(messages.size(), (System.nanoTime() - start) * rate / TimeUnit.SECONDS.toNanos(1));
+                while (sent < due) {
+                    sender.accept(messages.get(sent++));
+                }
+                batch.flush();
+                LockSupport.parkNanos(TICK_NANOS);
+            }
+            elapsedNanos = System.nanoTime() - start;
+        }
+        // wait until all the windows holding the messages were reported
+        TimeUnit.MILLISECONDS.sleep(3 * WINDOW_MILLIS);
+        if (print) {
+            double seconds = elapsedNanos / 1e9;
+            System.out.printf("%-16s %10d %12.0f %10d %10.1f %12.0f %10d %n", protocol, out.writes, out.writes / seconds, out.bytes,
+                              (double) out.bytes / messages.size(), messages.size() / seconds, reportedItems.get() - reportedBefore);
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Counts the writes to a socket stream, each of them being a separate send syscall
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long writes;
+        private long bytes;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            writes++;
+            bytes++;
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            writes++;
+            bytes += len;
+            out.write(b, off, len);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rate = args.length > 0 ? Integer.valueOf(args[0]) : 100_000;
+        int seconds = args.length > 1 ? Integer.valueOf(args[1]) : 5;
+        System.out.printf("Usage: WireProtocolComparison [msgs_per_sec:%d] [seconds:%d] %n", rate, seconds);
+        new WireProtocolComparison(rate, seconds).run();
+        System.exit(0);
+    }
+}
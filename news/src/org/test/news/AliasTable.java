@@ -0,0 +1,202 @@
+package org.test.news;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Samples the indexes of a discrete distribution in constant time using Walker's alias method (with Vose's construction):
+ * each of the N columns of the table holds an index and the alias of another index, so that picking a column uniformly and
+ * then choosing between the index and its alias with the probability of the column gives each index its weight.
+ * <p>
+ * A sample only needs a single random long and two array reads regardless of the number of indexes, which makes it
+ * suitable for sampling words from a large {@link Dictionary}.
+ * </p>
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+public final class AliasTable {
+
+    // the probabilities are compared against 31 random bits
+    private static final long ONE = 1L << 31;
+
+    private final long[] thresholds;
+    private final int[] aliases;
+
+    /**
+     * Creates a table for the given weights
+     *
+     * @param weights the relative weights of each index, which don't have to add up to anything; never {@code null}
+     * @throws IllegalArgumentException if there are no weights, any weight is negative or all of them are 0
+     */
+    protected AliasTable(double[] weights) {
+        int n = weights.length;
+        if (n == 0) {
+            throw new IllegalArgumentException("there must be at least one weight");
+        }
+        double total = 0;
+        for (double weight : weights) {
+            if (weight < 0 || Double.isNaN(weight) || Double.isInfinite(weight)) {
+                throw new IllegalArgumentException("the weights must be positive numbers: " + Arrays.toString(weights));
+            }
+            total += weight;
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("at least one weight must be positive");
+        }
+        this.thresholds = new long[n];
+        this.aliases = new int[n];
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int smallCount = 0;
+        int largeCount = 0;
+        for (int i = 0; i < n; i++) {
+            scaled[i] = weights[i] * n / total;
+            if (scaled[i] < 1) {
+                small[smallCount++] = i;
+            } else {
+                large[largeCount++] = i;
+            }
+        }
+        while (smallCount > 0 && largeCount > 0) {
+            int less = small[--smallCount];
+            int more = large[--largeCount];
+            thresholds[less] = Math.round(scaled[less] * ONE);
+            aliases[less] = more;
+            // the rest of the column of the smaller index is taken from the larger one
+            scaled[more] = scaled[more] + scaled[less] - 1;
+            if (scaled[more] < 1) {
+                small[smallCount++] = more;
+            } else {
+                large[largeCount++] = more;
+            }
+        }
+        // whatever is left is 1 give or take the rounding errors
+        while (largeCount > 0) {
+            int index = large[--largeCount];
+            thresholds[index] = ONE;
+            aliases[index] = index;
+        }
+        while (smallCount > 0) {
+            int index = small[--smallCount];
+            thresholds[index] = ONE;
+            aliases[index] = index;
+        }
+    }
+
+    /**
+     * Creates a table for a Zipf distribution, where the index {@code i} has a weight of {@code 1 / (i + 1)^exponent}, i.e.
+     * the frequency of the words of a natural language ranked by how often they are used
+     *
+     * @param n the number of indexes, positive
+     * @param exponent the exponent of the distribution, usually close to 1; 0 means a uniform distribution
+     * @return a new table, never {@code null}
+     */
+    protected static AliasTable zipf(int n, double exponent) {
+        return new AliasTable(zipfWeights(n, exponent));
+    }
+
+    /**
+     * Returns the weights of a Zipf distribution
+     *
+     * @param n the number of weights, positive
+     * @param exponent the exponent of the distribution
+     * @return the weights, never {@code null}
+     * @see #zipf(int, double)
+     */
+    protected static double[] zipfWeights(int n, double exponent) {
+        double[] weights = new double[n];
+        for (int i = 0; i < n; i++) {
+            weights[i] = 1 / Math.pow(i + 1, exponent);
+        }
+        return weights;
+    }
+
+    /**
+     * Returns a random index
+     *
+     * @param random a random long, e.g. from {@code ThreadLocalRandom.current().nextLong()}
+     * @return an index between 0 and {@link #size()} (exclusive) picked according to the weights
+     */
+    protected int sample(long random) {
+        // the upper 32 bits pick the column, the lower 31 bits choose between the index and its alias
+        int column = (int) (((random >>> 32) * thresholds.length) >>> 32);
+        return (random & (ONE - 1)) < thresholds[column] ? column : aliases[column];
+    }
+
+    /**
+     * Returns the number of indexes
+     *
+     * @return the number of weights the table was created with
+     */
+    protected int size() {
+        return thresholds.length;
+    }
+
+    /**
+     * Checks with a chi-squared test that the number of times each index was sampled matches the weights
+     *
+     * @param counts the number of times each index was sampled; never {@code null}
+     * @param weights the weights the samples should follow; never {@code null}
+     * @return {@code true} if the counts are plausible at a 0.1% significance level
+     */
+    protected static boolean matches(long[] counts, double[] weights) {
+        long samples = 0;
+        double total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            samples += counts[i];
+            total += weights[i];
+        }
+        double chiSquared = 0;
+        int degrees = -1;
+        for (int i = 0; i < counts.length; i++) {
+            double expected = samples * weights[i] / total;
+            if (expected == 0) {
+                if (counts[i] != 0) {
+                    return false;
+                }
+                continue;
+            }
+            chiSquared += (counts[i] - expected) * (counts[i] - expected) / expected;
+            degrees++;
+        }
+        if (degrees <= 0) {
+            return true;
+        }
+        // the Wilson-Hilferty approximation of the 99.9% quantile of the chi-squared distribution
+        double z = 3.090;
+        double variance = 2.0 / (9 * degrees);
+        double critical = degrees * Math.pow(1 - variance + z * Math.sqrt(variance), 3);
+        return chiSquared <= critical;
+    }
+
+    public static void main(String[] args) {
+        //junit...sigh
+        SplittableRandom random = new SplittableRandom(42);
+        double[][] distributions = {{29.3, 19.3, 14.3, 10.9, 8.4, 6.5, 4.8, 3.4, 2.1, 1}, {1}, {0, 3, 0, 1}, {1, 1, 1, 1, 1},
+                                    zipfWeights(10_000, 1.07)};
+        for (double[] weights : distributions) {
+            AliasTable table = new AliasTable(weights);
+            long[] counts = new long[weights.length];
+            for (int i = 0; i < 2_000_000; i++) {
+                counts[table.sample(random.nextLong())]++;
+            }
+            if (!matches(counts, weights)) {
+                throw new IllegalStateException("incorrect distribution for " + weights.length + " weights");
+            }
+        }
+        long[] skewed = new long[10];
+        skewed[0] = 1_000_000;
+        if (matches(skewed, distributions[0])) {
+            throw new IllegalStateException("a skewed distribution was not detected");
+        }
+        for (double[] invalid : new double[][] {{}, {0, 0}, {1, -1}, {Double.NaN}}) {
+            try {
+                new AliasTable(invalid);
+                throw new IllegalStateException("invalid weights accepted: " + Arrays.toString(invalid));
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+}
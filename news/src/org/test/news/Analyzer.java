@@ -1,25 +1,36 @@
 package org.test.news;
 
-import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.file.Path;
+import java.util.List;
 import java.util.Objects;
-import java.util.Queue;
-import java.util.TreeSet;
+import java.util.Properties;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.function.Function;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 /**
  * Server which analyzes incoming messages for content and displays some headline information
@@ -30,97 +41,614 @@ public class Analyzer {
     
     private static final int POOL_CORE_COUNT = Runtime.getRuntime().availableProcessors();
     private static final int POOL_MAX_SIZE = 4 * POOL_CORE_COUNT; //arbitrary for now...
-    private static final Logger LOGGER = new Logger(false);
+    private static final int ACCEPT_BACKLOG = 1024;
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+    private static final int MAX_LINE_LENGTH = 8 * 1024;
+    // the most top items a query can ask for
+    private static final int QUERY_TOP_K = 100;
+    private static final long DRAIN_POLL_MILLIS = 10;
+    // on top of the shutdown timeout, for the final report and closing the journal
+    private static final long SHUTDOWN_GRACE_MILLIS = 5_000;
+    private static final Logger LOGGER = new Logger(Analyzer.class);
     
     private final int port;
+    private final AnalyzerConfig config;
     private final ExecutorService socketProcessingService;
     private final ScheduledExecutorService reportingService;
-    private final ConcurrentLinkedQueue<NewsItem> newsItems;
+    private final TopKAggregator aggregator;
+    private final WindowEngine windows;
+    private final NewsItemBuffer buffer;
+    private final Consumer<NewsItem> newsItemSink;
+    private final PhraseScorer phraseScorer;
+    private final AnalyzerMetrics metrics;
+    private final List<Consumer<WindowSummary>> reportListeners;
+    private final NewsJournal journal;
+    private final ShardClient shardClient;
+    private final HeadlineFilter duplicates;
+    private final ScoringPipeline pipeline;
+    private final HeadlineIndex index;
+    private final long feedIdReuseMillis;
+    private final Set<FeedProcessingTask> feedTasks;
+    private final CountDownLatch terminated;
+    private long lastDroppedCount;
+    private volatile Closeable server;
+    private volatile NioFeedServer nioServer;
+    private volatile boolean stopped;
     
     public Analyzer(int port) {
-        if (port <= 0) {
-            throw new IllegalStateException("You must provide a positive port");
+        this(configForPort(port));
+    }
+    
+    public Analyzer(AnalyzerConfig config) {
+        this.config = config;
+        this.aggregator = new TopKAggregator(config.topK());
+        this.windows = new WindowEngine(aggregator, config.windowLengthMillis(), config.windowSlideMillis(), config.topK());
+        // without a buffer, each feed reader updates the aggregator directly
+        this.buffer = config.bufferCapacity() > 0 ? new NewsItemBuffer(config.bufferCapacity(), config.overloadPolicy(),
+                                                                         config.bufferScheduling(), config.bufferWeights()) : null;
+        this.newsItemSink = buffer != null ? buffer : this::aggregate;
+        this.port = config.port();
+        this.phraseScorer = createPhraseScorer(config);
+        this.socketProcessingService = createSocketProcessingService(config);
+        if (config.journalDirectory() != null) {
+            replayJournal(config.journalDirectory());
+            this.journal = createJournal(config);
+        } else {
+            this.journal = null;
         }
-        this.newsItems = new ConcurrentLinkedQueue<>();
-        this.port = port;
-        this.socketProcessingService = new ThreadPoolExecutor(POOL_CORE_COUNT, POOL_MAX_SIZE, 30, TimeUnit.SECONDS,
-                                                              new LinkedBlockingQueue<>(),
-                                                              namedThreadFactory("news-feed-task"),
-                                                              (r, executor) -> {
-                                                                  //explain the rejection
-                                                                  System.out.printf(
-                                                                          "Cannot add any more client processing threads because the server is full running %d tasks; retry later or increase pool size %n",
-                                                                          executor.getActiveCount());
-                                                      });
+        // sliced like the window, so each slide of the window also closes a slice of the index
+        this.index = config.queryPort() > 0 ?
+                     new HeadlineIndex(phraseScorer.words(), Math.max(QUERY_TOP_K, config.topK()), windows.slideMillis(),
+                                       config.queryRetentionMillis()) : null;
+        // the items of a disconnected feed can still be buffered for a window and then reported for another one, or
+        // queried for as long as the index retains them
+        this.feedIdReuseMillis = 2 * windows.lengthMillis() + (index != null ? config.queryRetentionMillis() : 0);
+        this.shardClient = config.coordinator() != null ? new ShardClient(config.coordinator()) : null;
+        this.duplicates = config.duplicateFilterSize() > 0 ?
+                          new HeadlineFilter(config.duplicateFilterSize(), windows.sliceCount()) : null;
+        // the single sink thread of the pipeline hands over the items to the buffer or the aggregator
+        this.pipeline = config.scoringThreads() > 0 ?
+                        new ScoringPipeline(config.scoringThreads(), config.scoringQueueCapacity(), newsItemSink) : null;
+        this.metrics = new AnalyzerMetrics(socketProcessingService, buffer, journal, duplicates, pipeline);
+        this.reportListeners = new CopyOnWriteArrayList<>();
+        this.feedTasks = ConcurrentHashMap.newKeySet();
+        this.terminated = new CountDownLatch(1);
        this.reportingService = new ScheduledThreadPoolExecutor(1, namedThreadFactory("reporting-task"));
-       long timeInterval = 10;
-       TimeUnit timeUnit = TimeUnit.SECONDS;
-       this.reportingService.scheduleAtFixedRate(() -> processHeadlines(timeInterval, timeUnit), timeInterval, timeInterval, timeUnit);
+       long slideMillis = windows.slideMillis();
+       this.reportingService.scheduleAtFixedRate(this::processHeadlines, slideMillis, slideMillis, TimeUnit.MILLISECONDS);
+       long metricsIntervalMillis = config.metricsIntervalMillis();
+       if (metricsIntervalMillis > 0) {
+           this.reportingService.scheduleAtFixedRate(() -> System.out.println(metrics.snapshot()), metricsIntervalMillis,
+                                                     metricsIntervalMillis, TimeUnit.MILLISECONDS);
+       }
         
     }
     
-    private void processHeadlines(long timeInterval, TimeUnit timeUnit) {
-        if (newsItems.isEmpty()) {
-            System.out.printf("No positive new news items found during the last %d %s %n %n", timeInterval, timeUnit.toString());
+    private static AnalyzerConfig configForPort(int port) {
+        if (port <= 0) {
+            throw new IllegalStateException("You must provide a positive port");
+        }
+        Properties properties = new Properties();
+        properties.setProperty("port", String.valueOf(port));
+        return new AnalyzerConfig(properties);
+    }
+    
+    private static PhraseScorer createPhraseScorer(AnalyzerConfig config) {
+        Path dictionaryFile = config.dictionaryFile();
+        if (dictionaryFile == null) {
+            return PhraseScorer.INSTANCE;
+        }
+        try {
+            long start = System.nanoTime();
+            Dictionary dictionary = Dictionary.load(dictionaryFile);
+            PhraseScorer scorer = new PhraseScorer(dictionary);
+            System.out.printf("Loaded %d words from %s in %d ms %n", dictionary.allWords().size(), dictionaryFile,
+                              TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return scorer;
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot load dictionary from " + dictionaryFile, e);
+        }
+    }
+    
+    private static NewsJournal createJournal(AnalyzerConfig config) {
+        try {
+            return new NewsJournal(config.journalDirectory(), config.journalSegmentSize(), config.journalSyncIntervalMillis(),
+                                   config.journalRetentionMillis(), config.journalQueueCapacity());
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot open the journal in " + config.journalDirectory(), e);
+        }
+    }
+    
+    /**
+     * Rebuilds the current window from the items journaled during its length before now: the items of each past slice are
+     * aggregated separately and restored as closed slices, the most recent ones are added to the current slice.
+     */
+    private void replayJournal(Path journalDirectory) {
+        long start = System.nanoTime();
+        long now = System.currentTimeMillis();
+        long slideMillis = windows.slideMillis();
+        int sliceCount = windows.sliceCount();
+        TopKAggregator[] pastSlices = new TopKAggregator[sliceCount - 1];
+        for (int i = 0; i < pastSlices.length; i++) {
+            pastSlices[i] = new TopKAggregator(config.topK());
+        }
+        try {
+            long replayed = NewsJournal.replay(journalDirectory, now - windows.lengthMillis(), (item, millis) -> {
+                int age = (int) Math.max(0, (now - millis) / slideMillis);
+                if (age == 0) {
+                    aggregator.accept(item);
+                } else if (age < sliceCount) {
+                    pastSlices[pastSlices.length - age].accept(item);
+                }
+            });
+            for (TopKAggregator slice : pastSlices) {
+                windows.restoreSlice(slice.drain());
+            }
+            if (replayed > 0) {
+                System.out.printf("Replayed %d items from the journal in %s in %d ms %n", replayed, journalDirectory,
+                                  TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot replay the journal in " + journalDirectory, e);
+        }
+    }
+    
+    private ExecutorService createSocketProcessingService(AnalyzerConfig config) {
+        if (config.ingestMode() == AnalyzerConfig.IngestMode.NIO) {
+            // each I/O loop runs for the entire life of the server, multiplexing many feeds
+            return Executors.newFixedThreadPool(config.ioThreads(), namedThreadFactory("news-feed-io"));
+        } else if (config.ingestMode() == AnalyzerConfig.IngestMode.VIRTUAL) {
+            return virtualThreadPerTaskExecutor();
+        }
+        return new ThreadPoolExecutor(POOL_CORE_COUNT, POOL_MAX_SIZE, 30, TimeUnit.SECONDS,
+                                      new ArrayBlockingQueue<>(config.poolQueueCapacity()),
+                                      namedThreadFactory("news-feed-task"),
+                                      (r, executor) -> {
+                                          //explain the rejection
+                                          System.out.printf(
+                                                  "Cannot add any more client processing threads because the server is full running %d tasks; retry later or increase pool size %n",
+                                                  executor.getActiveCount());
+                                          throw new RejectedExecutionException("server is full");
+                              });
+    }
+    
+    private static ExecutorService virtualThreadPerTaskExecutor() {
+        // looked up reflectively so that the rest of the analyzer can still be compiled and run with JDK 8
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("Virtual threads are not supported by this JVM (" + System.getProperty("java.version") + "); JDK 21+ required");
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("Cannot create virtual thread executor", e);
+        }
+    }
+    
+    private void aggregate(NewsItem item) {
+        aggregator.accept(item);
+        if (index != null) {
+            index.accept(item);
+        }
+        if (journal != null) {
+            // only queued, the journal thread does the writing
+            journal.accept(item);
+        }
+        metrics.itemAggregated(item);
+    }
+    
+    private void processHeadlines() {
+        WindowSummary summary = windows.slide();
+        if (index != null) {
+            index.slide();
+        }
+        if (shardClient != null) {
+            // only the slice which just closed, the coordinator has the rest of the window
+            shardClient.send(windows.lastSlice());
+        }
+        metrics.windowReported(summary);
+        try {
+            report(summary);
+        } finally {
+            if (duplicates != null) {
+                // after the report, which shows how many times the top headlines were seen during the window
+                duplicates.slide();
+            }
+        }
+    }
+    
+    private void report(WindowSummary summary) {
+        for (Consumer<WindowSummary> listener : reportListeners) {
+            try {
+                listener.accept(summary);
+            } catch (RuntimeException e) {
+                // a failing listener must not cancel the reporting of the next windows
+                LOGGER.log(e);
+            }
+        }
+        if (!config.consoleReport()) {
+            return;
+        }
+        String window = WindowEngine.describe(windows.lengthMillis());
+        reportDropped();
+        if (summary.total() == 0) {
+            System.out.printf("No positive new news items found during the last %s %n %n", window);
             return;
         }
-        TreeSet<NewsItem> sortedSnapshot = new TreeSet<>(); //sorted in reverse order (highest first)
-        NewsItem newsItem;
-        while ((newsItem = newsItems.poll()) != null) {
-            sortedSnapshot.add(newsItem);
-        }
-        System.out.printf("Found %d positive items during the last %d %s %n %n", sortedSnapshot.size(), timeInterval, timeUnit.toString());
-        int numberOfTopElements = 3;
-        String headline = sortedSnapshot.stream()
-                                        .limit(numberOfTopElements)
-                                        .map(NewsItem::headline)
-                                        .collect(Collectors.joining(System.lineSeparator()));
+        System.out.printf("Found %d positive items during the last %s %n %n", summary.total(), window);
+
+        String headline = summary.topItems()
+                                 .stream()
+                                 .map(this::describe)
+                                 .collect(Collectors.joining(System.lineSeparator()));
         System.out.println(headline);
     }
     
+    private String describe(NewsItem item) {
+        byte[] message = item.messageBytes();
+        // the items merged from shards or replayed from the journal were never seen by the filter
+        long seen = duplicates != null ? duplicates.count(message, 0, message.length) : 0;
+        return seen > 0 ? String.format("%s (seen %,d times)", item.headline(), seen) : item.headline();
+    }
+    
+    private void reportDropped() {
+        if (buffer == null) {
+            return;
+        }
+        long droppedCount = buffer.droppedCount();
+        if (droppedCount > lastDroppedCount) {
+            System.out.printf("Dropped %d items because of overload (%s policy) %n", droppedCount - lastDroppedCount, buffer.policy());
+            lastDroppedCount = droppedCount;
+        }
+    }
+    
+    /**
+     * Registers a listener which is notified with the summary of each reported window, from the reporting thread
+     *
+     * @param listener the listener, never {@code null}
+     */
+    protected void addReportListener(Consumer<WindowSummary> listener) {
+        reportListeners.add(Objects.requireNonNull(listener));
+    }
+    
+    protected AnalyzerMetrics metrics() {
+        return metrics;
+    }
+    
     private ThreadFactory namedThreadFactory(String name) {
         return runnable -> new Thread(runnable, name);
     }
     
     protected void start() {
-        System.out.printf("Starting analyzer service on %d %n" , port);
-        try (ServerSocket serverSocket = new ServerSocket(port)) {
-            while (!Thread.currentThread().isInterrupted()) {
-                Socket socket = serverSocket.accept();
-                socket.setKeepAlive(true);
-                String feedId = UUID.randomUUID().toString();
-                FeedProcessingTask processingTask = new FeedProcessingTask(socket, newsItemProducer(feedId), newsItems);
-                socketProcessingService.submit(processingTask);
+        System.out.printf("Starting analyzer service on %d (%s ingest) %n" , port, config.ingestMode());
+        ExecutorService aggregationService = null;
+        if (buffer != null) {
+            aggregationService = Executors.newSingleThreadExecutor(namedThreadFactory("aggregation-task"));
+            aggregationService.submit(() -> buffer.drainTo(this::aggregate));
+        }
+        if (pipeline != null) {
+            pipeline.start();
+        }
+        ObjectName metricsName = registerMetrics();
+        ShardCoordinator coordinator = null;
+        QueryServer queryServer = null;
+        ReportPublisher publisher = null;
+        try {
+            warmUp();
+            if (config.warmupOnly()) {
+                return;
+            }
+            coordinator = startCoordinator();
+            queryServer = startQueryServer();
+            publisher = startReportPublisher();
+            if (config.ingestMode() == AnalyzerConfig.IngestMode.NIO) {
+                acceptNonBlocking();
+            } else {
+                acceptBlocking();
             }
         } catch (IOException e) {
-            System.out.printf("Cannot start socket server on port %d %n", port);
-            LOGGER.log(e);
+            if (!stopped) {
+                System.out.printf("Cannot start socket server on port %d %n", port);
+                LOGGER.log(e);
+            }
         } finally {
-            socketProcessingService.shutdownNow();
+            unregisterMetrics(metricsName);
+            // only a stop() drains the feeds, a failure to accept them disconnects them right away
+            shutdown(aggregationService, coordinator, stopped && !config.warmupOnly());
+            closeQueryServer(queryServer);
+            // after the shutdown, which publishes the last window
+            closeReportPublisher(publisher);
+            terminated.countDown();
+        }
+    
+    }
+    
+    /**
+     * Stops all the processing. When draining, the feeds are only disconnected once the data they already sent was read,
+     * the items still in the scoring pipeline and in the buffer are aggregated and the last, partial, window is reported,
+     * all within the shutdown timeout; whatever is left at the timeout is lost.
+     */
+    private void shutdown(ExecutorService aggregationService, ShardCoordinator coordinator, boolean drain) {
+        long start = System.nanoTime();
+        long deadline = start + (drain ? TimeUnit.MILLISECONDS.toNanos(config.shutdownTimeoutMillis()) : 0);
+        int feeds = metrics.getConnectedFeeds();
+        long aggregated = metrics.getAggregatedItems();
+        long dropped = metrics.droppedCount();
+        boolean drained = false;
+        try {
+            drained = drainFeeds(deadline) && (pipeline == null || pipeline.awaitDrained(deadline)) && drainBuffer(deadline);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // whatever is still running at the deadline
+        socketProcessingService.shutdownNow();
+        feedTasks.forEach(FeedProcessingTask::abort);
+        closeNioServer();
+        if (pipeline != null) {
+            pipeline.close();
+        }
+        long lost = (buffer != null ? buffer.size() : 0) + (pipeline != null ? pipeline.queuedItems() : 0);
+        if (aggregationService != null) {
+            aggregationService.shutdownNow();
+            awaitQuietly(aggregationService);
+        }
+        closeCoordinator(coordinator);
+        if (drain) {
+            reportingService.shutdown();
+            awaitQuietly(reportingService);
+            processHeadlines();
+            System.out.printf("Drained %d feeds in %d ms%s: %d items aggregated and %d messages dropped while draining, " +
+                              "%d items lost %n", feeds, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                              drained ? "" : " (timed out)", metrics.getAggregatedItems() - aggregated,
+                              metrics.droppedCount() - dropped, lost);
+        } else {
             reportingService.shutdownNow();
         }
+        closeJournal();
+        if (shardClient != null) {
+            shardClient.close();
+        }
+    }
+    
+    /**
+     * Stops reading the feeds once they have been read up to the data they sent so far
+     *
+     * @return {@code true} if all the readers stopped before the deadline
+     */
+    private boolean drainFeeds(long deadline) throws InterruptedException {
+        NioFeedServer nioServer = this.nioServer;
+        if (nioServer != null) {
+            nioServer.drain(deadline);
+        }
+        feedTasks.forEach(FeedProcessingTask::drain);
+        socketProcessingService.shutdown();
+        while (!socketProcessingService.awaitTermination(DRAIN_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            // including the readers of the feeds which were still queued in pool mode
+            feedTasks.forEach(FeedProcessingTask::drain);
+        }
+        return true;
+    }
+    
+    private boolean drainBuffer(long deadline) throws InterruptedException {
+        while (buffer != null && buffer.size() > 0) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+        return true;
+    }
+    
+    private static void awaitQuietly(ExecutorService executor) {
+        try {
+            executor.awaitTermination(SHUTDOWN_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private void closeNioServer() {
+        NioFeedServer nioServer = this.nioServer;
+        if (nioServer == null) {
+            return;
+        }
+        try {
+            nioServer.close();
+        } catch (IOException e) {
+            LOGGER.log(e);
+        }
+    }
+    
+    private void warmUp() {
+        if (config.warmupMessages() <= 0) {
+            return;
+        }
+        // before accepting, so that the first feeds are processed by compiled code
+        long start = System.nanoTime();
+        new Warmup(phraseScorer, config.topK(), duplicates != null).run(config.warmupMessages());
+        System.out.printf("Warmed up with %d messages in %d ms %n", config.warmupMessages(),
+                          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+    
+    private ShardCoordinator startCoordinator() throws IOException {
+        if (config.shardPort() <= 0) {
+            return null;
+        }
+        // the partial summaries of the shards are merged in the current slice, like the items of the local feeds
+        ShardCoordinator coordinator = new ShardCoordinator(config.shardPort(), summary -> {
+            aggregator.merge(summary);
+            if (index != null) {
+                index.merge(summary);
+            }
+        });
+        Thread acceptThread = new Thread(coordinator::acceptLoop, "shard-coordinator");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+        System.out.printf("Accepting shards on %d %n", coordinator.port());
+        return coordinator;
+    }
+    
+    private QueryServer startQueryServer() throws IOException {
+        if (index == null) {
+            return null;
+        }
+        QueryServer queryServer = new QueryServer(config.queryPort(), index, windows.lengthMillis());
+        Thread acceptThread = new Thread(queryServer::acceptLoop, "query-server");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+        System.out.printf("Accepting queries on localhost:%d %n", queryServer.port());
+        return queryServer;
+    }
+
+    private ReportPublisher startReportPublisher() throws IOException {
+        if (config.subscriberPort() <= 0) {
+            return null;
+        }
+        ReportPublisher publisher = new ReportPublisher(config.subscriberPort(), windows.lengthMillis());
+        Thread publisherThread = new Thread(publisher, "report-publisher");
+        publisherThread.setDaemon(true);
+        publisherThread.start();
+        addReportListener(publisher::publish);
+        System.out.printf("Publishing reports to subscribers on %d %n", publisher.port());
+        return publisher;
+    }
+
+    private void closeReportPublisher(ReportPublisher publisher) {
+        if (publisher == null) {
+            return;
+        }
+        try {
+            publisher.close();
+        } catch (IOException e) {
+            LOGGER.log(e);
+        }
+    }
+
+    private void closeQueryServer(QueryServer queryServer) {
+        if (queryServer == null) {
+            return;
+        }
+        try {
+            queryServer.close();
+        } catch (IOException e) {
+            LOGGER.log(e);
+        }
+    }
+
+    private void closeCoordinator(ShardCoordinator coordinator) {
+        if (coordinator == null) {
+            return;
+        }
+        try {
+            coordinator.close();
+        } catch (IOException e) {
+            LOGGER.log(e);
+        }
+    }
+    
+    private void closeJournal() {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.close();
+        } catch (IOException e) {
+            LOGGER.log(e);
+        }
+    }
+    
+    private ObjectName registerMetrics() {
+        try {
+            ObjectName name = new ObjectName("org.test.news:type=Analyzer,port=" + port);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+            return name;
+        } catch (JMException e) {
+            System.out.printf("Cannot register the metrics MBean: %s %n", e.getMessage());
+            return null;
+        }
+    }
+    
+    private void unregisterMetrics(ObjectName name) {
+        if (name == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            LOGGER.log(e);
+        }
+    }
     
+    /**
+     * Waits for {@link #start()} to return, e.g. after {@link #stop()}
+     *
+     * @param timeout the maximum time to wait
+     * @param unit the unit of the timeout; never {@code null}
+     * @return {@code true} if the analyzer stopped, {@code false} if the timeout expired first
+     * @throws InterruptedException if the calling thread is interrupted while waiting
+     */
+    protected boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return terminated.await(timeout, unit);
     }
     
-    private Function<String, NewsItem> newsItemProducer(String feedId) {
-        return line -> {
-            Objects.requireNonNull(line, "received empty message");
-            // take the priority as the last item from the message line
+    /**
+     * Stops accepting new feeds, which makes {@link #start()} drain the connected feeds, report the last window and return
+     * after shutting down all the processing
+     */
+    protected void stop() {
+        stopped = true;
+        Closeable server = this.server;
+        if (server != null) {
             try {
-                int lastCharIdx = line.length() - 1;
-                String headline = line.substring(0, lastCharIdx);
-                Byte prio = Byte.valueOf(line.substring(lastCharIdx));
-                NewsItem item = new NewsItem(prio, headline, feedId);
-                boolean isPositive = PhraseScorer.INSTANCE.scoreMessage(headline) > 0;
-                if (!isPositive) {
-                    LOGGER.log("dropping %s because it's not positive", line);
+                server.close();
+            } catch (IOException e) {
+                LOGGER.log(e);
+            }
+        }
+    }
+    
+    private void acceptBlocking() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(port, ACCEPT_BACKLOG)) {
+            this.server = serverSocket;
+            while (!stopped && !Thread.currentThread().isInterrupted()) {
+                Socket socket = serverSocket.accept();
+                socket.setKeepAlive(true);
+                MessageParser parser = newsItemParser();
+                FeedProcessingTask processingTask = new FeedProcessingTask(socket, parser, newsItemSink, pipeline, feedTasks);
+                feedTasks.add(processingTask);
+                try {
+                    socketProcessingService.submit(processingTask);
+                } catch (RejectedExecutionException e) {
+                    feedTasks.remove(processingTask);
+                    metrics.connectionRejected();
+                    parser.metrics().close();
+                    socket.close();
                 }
-                return isPositive ? item : null;
-            } catch (IllegalArgumentException e) {
-                LOGGER.log("discarding message %s because it is not correctly formed; expected <headline> <prio>", line);
-                return null;
             }
-        };
+        }
+    }
+    
+    private void acceptNonBlocking() throws IOException {
+        NioFeedServer server = new NioFeedServer(port, config.ioThreads(), this::newsItemParser, newsItemSink, pipeline);
+        this.nioServer = server;
+        // stopping only stops the accepting, the connected feeds are drained or closed by the shutdown
+        this.server = server::stopAccepting;
+        if (stopped) {
+            // stopped before there was a server to close, e.g. during the warm-up
+            server.stopAccepting();
+        }
+        server.ioLoops().forEach(socketProcessingService::submit);
+        server.acceptLoop();
+    }
+    
+    private MessageParser newsItemParser() {
+        // the UUID is only kept for display, the items refer to the feed by its id
+        String feedId = UUID.randomUUID().toString();
+        int feed = FeedRegistry.INSTANCE.register(feedId);
+        // once the feed disconnects, the id is reused when its items can no longer be reported or queried
+        Runnable releaseFeed = () -> FeedRegistry.INSTANCE.release(feed, feedIdReuseMillis);
+        return new MessageParser(feed, phraseScorer, metrics.feedConnected(feedId, releaseFeed), duplicates);
     }
     
     /**
@@ -128,50 +656,120 @@ public class Analyzer {
      */
     private static class FeedProcessingTask implements Callable<Void> {
         private final Socket socket;
-        private final Function<String, NewsItem> newsItemProducer;
-        private final Queue<NewsItem> queue;
+        private final MessageParser parser;
+        private final Consumer<NewsItem> sink;
+        private final ScoringPipeline pipeline;
+        private final Set<FeedProcessingTask> tasks;
+        private final AtomicBoolean started;
+        private volatile boolean draining;
+        private volatile boolean waiting;
     
-        protected FeedProcessingTask(Socket socket, Function<String, NewsItem> newsItemProducer, Queue<NewsItem> queue) {
+        protected FeedProcessingTask(Socket socket, MessageParser parser, Consumer<NewsItem> sink, ScoringPipeline pipeline,
+                                     Set<FeedProcessingTask> tasks) {
             this.socket = socket;
-            this.newsItemProducer = newsItemProducer;
-            this.queue = queue;
-            LOGGER.log("received client on %s", socket.toString());
+            this.parser = parser;
+            this.sink = sink;
+            this.pipeline = pipeline;
+            this.tasks = tasks;
+            this.started = new AtomicBoolean();
+            LOGGER.log(Logger.Level.INFO, "received client on %s", socket);
         }
     
         @Override
         public Void call() throws Exception {
-            try (BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
-                String line;
-                while ((line = bufferedReader.readLine()) != null) {
-                    LOGGER.log("received %s", line);
-                    NewsItem item = newsItemProducer.apply(line);
-                    if (item != null) {
-                        queue.offer(item);
+            if (!started.compareAndSet(false, true)) {
+                // aborted before it got a thread
+                return null;
+            }
+            FeedDecoder decoder = new FeedDecoder(parser, sink, MAX_LINE_LENGTH, pipeline);
+            byte[] buffer = new byte[READ_BUFFER_SIZE];
+            try (InputStream inputStream = socket.getInputStream()) {
+                // when draining, up to the data the feed sent so far
+                while (!draining || inputStream.available() > 0) {
+                    waiting = true;
+                    int read = inputStream.read(buffer);
+                    waiting = false;
+                    if (read == -1) {
+                        break;
+                    }
+                    decoder.decode(buffer, 0, read);
+                    int reply = decoder.takeReply();
+                    if (reply >= 0) {
+                        socket.getOutputStream().write(reply);
                     }
                 }
             } catch (IOException e) {                                                      
-                System.out.printf("client %s disconnected %n", socket.toString());
+                if (!draining) {
+                    System.out.printf("client %s disconnected %n", socket.toString());
+                }
             } finally {
+                decoder.close();
                 socket.close();  
+                tasks.remove(this);
             }
             return null;
         }
+    
+        /**
+         * Makes the reader stop once it has read the data the feed sent so far; a reader waiting for data already has, so
+         * its wait is ended by closing the input of the socket
+         */
+        protected void drain() {
+            draining = true;
+            try {
+                if (waiting && socket.getInputStream().available() == 0) {
+                    socket.shutdownInput();
+                }
+            } catch (IOException e) {
+                // the reader is stopping anyway
+            }
+        }
+    
+        /**
+         * Disconnects the feed right away, whether the reader is running or still waiting for a thread
+         */
+        protected void abort() {
+            if (started.compareAndSet(false, true)) {
+                // there is no decoder to close the metrics
+                parser.metrics().close();
+                tasks.remove(this);
+            }
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
     }
     
     public static void main(String[] args) {
-        String port = "8913";
+        String port = String.valueOf(AnalyzerConfig.DEFAULT_PORT);
+        String mode = AnalyzerConfig.IngestMode.POOL.name().toLowerCase();
+        Properties properties = new Properties();
+        properties.putAll(System.getProperties());
         if (args.length > 0) {
-            port = args[0];    
+            properties.setProperty("port", args[0]);
+            if (args.length > 1) {
+                properties.setProperty("mode", args[1]);
+            }
         } else {
-            System.out.printf("Usage: Analyzer [port:%s] %n", port);
-            port = System.getProperty("port", port);                
+            System.out.printf("Usage: Analyzer [port:%s] [mode(pool|nio|virtual):%s] %n", port, mode);
         }
         try {
-            int portNr = Integer.valueOf(port);
-            Analyzer analyzer = new Analyzer(portNr);
+            AnalyzerConfig config = new AnalyzerConfig(properties);
+            Analyzer analyzer = new Analyzer(config);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                // e.g. on SIGTERM during a rolling restart, so that the feeds are drained before the JVM exits
+                analyzer.stop();
+                try {
+                    analyzer.awaitTermination(config.shutdownTimeoutMillis() + SHUTDOWN_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "analyzer-shutdown"));
             analyzer.start();
-        } catch (NumberFormatException e) {
-            System.out.printf("Invalid port number %s", port);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            System.out.println("Invalid input: " + e.getMessage());
             System.exit(-1);
         }
     }
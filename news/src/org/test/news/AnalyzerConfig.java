@@ -0,0 +1,507 @@
+package org.test.news;
+
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Holds the settings of an {@link Analyzer} which can be passed either via command line args or system properties
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+public class AnalyzerConfig {
+
+    protected static final int DEFAULT_PORT = 8913;
+    private static final Pattern DURATION_PATTERN = Pattern.compile("(\\d+)\\s*(ms|s|m|h|)");
+    private static final Pattern SIZE_PATTERN = Pattern.compile("(\\d+)\\s*(k|m|g|)b?");
+
+    /**
+     * The way the analyzer reads the data sent by each {@link Feed}
+     */
+    protected enum IngestMode {
+        /**
+         * each feed is processed by a blocking task running in a thread pool
+         */
+        POOL,
+        /**
+         * all the feeds are multiplexed via non-blocking channels over a small, fixed set of I/O threads
+         */
+        NIO,
+        /**
+         * each feed is processed by a blocking task running in its own virtual thread (requires JDK 21+)
+         */
+        VIRTUAL;
+
+        protected static IngestMode parse(String value) {
+            try {
+                return IngestMode.valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown ingest mode: " + value);
+            }
+        }
+    }
+
+    private final int port;
+    private final IngestMode ingestMode;
+    private final int ioThreads;
+    private final Path dictionaryFile;
+    private final int poolQueueCapacity;
+    private final int bufferCapacity;
+    private final NewsItemBuffer.OverloadPolicy overloadPolicy;
+    private final NewsItemBuffer.Scheduling bufferScheduling;
+    private final int[] bufferWeights;
+    private final long windowLengthMillis;
+    private final long windowSlideMillis;
+    private final int topK;
+    private final boolean consoleReport;
+    private final long metricsIntervalMillis;
+    private final Path journalDirectory;
+    private final long journalSegmentSize;
+    private final long journalSyncIntervalMillis;
+    private final long journalRetentionMillis;
+    private final int journalQueueCapacity;
+    private final int shardPort;
+    private final InetSocketAddress coordinator;
+    private final long duplicateFilterSize;
+    private final int scoringThreads;
+    private final int scoringQueueCapacity;
+    private final int warmupMessages;
+    private final boolean warmupOnly;
+    private final int queryPort;
+    private final long queryRetentionMillis;
+    private final int subscriberPort;
+    private final long shutdownTimeoutMillis;
+
+    protected AnalyzerConfig(Properties properties) {
+        this.port = intValue(properties, "port", DEFAULT_PORT);
+        this.ingestMode = IngestMode.parse(properties.getProperty("mode", IngestMode.POOL.name()));
+        this.ioThreads = intValue(properties, "io.threads", Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+        String dictionary = properties.getProperty("dictionary");
+        this.dictionaryFile = dictionary != null ? Paths.get(dictionary) : null;
+        this.poolQueueCapacity = intValue(properties, "pool.queue.capacity", 1024);
+        this.bufferCapacity = intValue(properties, "buffer.capacity", 0);
+        // blocking an I/O loop would stall every feed multiplexed over it
+        NewsItemBuffer.OverloadPolicy defaultPolicy = ingestMode == IngestMode.NIO ? NewsItemBuffer.OverloadPolicy.DROP_LOWEST :
+                                                      NewsItemBuffer.OverloadPolicy.BLOCK;
+        this.overloadPolicy = NewsItemBuffer.OverloadPolicy.parse(properties.getProperty("buffer.policy", defaultPolicy.name()));
+        this.bufferScheduling = NewsItemBuffer.Scheduling.parse(properties.getProperty("buffer.scheduling",
+                                                                                      NewsItemBuffer.Scheduling.PRIORITY.name()));
+        // low, medium and high priorities
+        this.bufferWeights = intValues(properties, "buffer.weights", new int[] {1, 4, 16});
+        this.windowLengthMillis = durationMillis(properties, "window.length", TimeUnit.SECONDS.toMillis(10));
+        // tumbling windows by default
+        this.windowSlideMillis = durationMillis(properties, "window.slide", windowLengthMillis);
+        this.topK = intValue(properties, "top.k", 3);
+        this.consoleReport = Boolean.parseBoolean(properties.getProperty("report.console", "true"));
+        this.metricsIntervalMillis = durationMillis(properties, "metrics.interval", 0);
+        String journal = properties.getProperty("journal.dir");
+        this.journalDirectory = journal != null ? Paths.get(journal) : null;
+        this.journalSegmentSize = sizeBytes(properties, "journal.segment.size", 64 * 1024 * 1024);
+        this.journalSyncIntervalMillis = durationMillis(properties, "journal.sync.interval", 10);
+        this.journalRetentionMillis = durationMillis(properties, "journal.retention", TimeUnit.DAYS.toMillis(1));
+        this.journalQueueCapacity = intValue(properties, "journal.queue.capacity", 64 * 1024);
+        this.shardPort = intValue(properties, "shard.port", 0);
+        String coordinator = properties.getProperty("coordinator");
+        this.coordinator = coordinator != null ? ShardRing.address(coordinator) : null;
+        this.duplicateFilterSize = sizeBytes(properties, "dedup.size", 0);
+        this.scoringThreads = intValue(properties, "scoring.threads", 0);
+        this.scoringQueueCapacity = intValue(properties, "scoring.queue.capacity", 16);
+        this.warmupMessages = intValue(properties, "warmup.messages", 200_000);
+        this.warmupOnly = Boolean.parseBoolean(properties.getProperty("warmup.only", "false"));
+        this.queryPort = intValue(properties, "query.port", 0);
+        this.queryRetentionMillis = durationMillis(properties, "query.retention", TimeUnit.HOURS.toMillis(1));
+        this.subscriberPort = intValue(properties, "subscriber.port", 0);
+        this.shutdownTimeoutMillis = durationMillis(properties, "shutdown.timeout", TimeUnit.SECONDS.toMillis(10));
+        validate();
+    }
+
+    private void validate() {
+        if (port <= 0) {
+            throw new IllegalArgumentException("You must provide a positive port");
+        }
+        if (ioThreads <= 0) {
+            throw new IllegalArgumentException("The number of I/O threads must be positive");
+        }
+        if (poolQueueCapacity <= 0) {
+            throw new IllegalArgumentException("The capacity of the pool queue must be positive");
+        }
+        if (bufferCapacity < 0) {
+            throw new IllegalArgumentException("The buffer capacity cannot be negative");
+        }
+        if (bufferCapacity > 0 && ingestMode == IngestMode.NIO && overloadPolicy == NewsItemBuffer.OverloadPolicy.BLOCK) {
+            throw new IllegalArgumentException("The block buffer policy cannot be used in nio mode, where it would stall all the " +
+                                               "feeds of an I/O loop");
+        }
+        if (bufferWeights.length != FairLanes.BANDS || Arrays.stream(bufferWeights).anyMatch(weight -> weight <= 0)) {
+            throw new IllegalArgumentException("The buffer weights must be " + FairLanes.BANDS + " positive numbers");
+        }
+        if (windowSlideMillis <= 0 || windowLengthMillis % windowSlideMillis != 0) {
+            throw new IllegalArgumentException("The window length must be a positive multiple of the window slide");
+        }
+        if (topK <= 0) {
+            throw new IllegalArgumentException("The number of top items must be positive");
+        }
+        if (metricsIntervalMillis < 0) {
+            throw new IllegalArgumentException("The metrics interval cannot be negative");
+        }
+        if (journalSegmentSize < NewsJournal.MIN_SEGMENT_SIZE || journalSegmentSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The journal segment size must be between 64k and 2g");
+        }
+        if (journalSyncIntervalMillis <= 0) {
+            throw new IllegalArgumentException("The journal sync interval must be positive");
+        }
+        if (journalQueueCapacity <= 0) {
+            throw new IllegalArgumentException("The capacity of the journal queue must be positive");
+        }
+        if (shardPort < 0) {
+            throw new IllegalArgumentException("The shard port cannot be negative");
+        }
+        if (duplicateFilterSize < 0) {
+            throw new IllegalArgumentException("The size of the duplicate filter cannot be negative");
+        }
+        if (scoringThreads < 0) {
+            throw new IllegalArgumentException("The number of scoring threads cannot be negative");
+        }
+        if (scoringQueueCapacity <= 0) {
+            throw new IllegalArgumentException("The capacity of the scoring queue must be positive");
+        }
+        if (warmupMessages < 0) {
+            throw new IllegalArgumentException("The number of warm-up messages cannot be negative");
+        }
+        if (queryPort < 0) {
+            throw new IllegalArgumentException("The query port cannot be negative");
+        }
+        if (subscriberPort < 0) {
+            throw new IllegalArgumentException("The subscriber port cannot be negative");
+        }
+    }
+
+    private static int intValue(Properties properties, String name, int defaultValue) {
+        String value = properties.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for '" + name + "': " + value);
+        }
+    }
+
+    private static int[] intValues(Properties properties, String name, int[] defaultValues) {
+        String value = properties.getProperty(name);
+        if (value == null) {
+            return defaultValues;
+        }
+        try {
+            return Arrays.stream(value.split(",")).map(String::trim).mapToInt(Integer::parseInt).toArray();
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for '" + name + "': " + value + "; expected <number>[,<number>...]");
+        }
+    }
+
+    private static long durationMillis(Properties properties, String name, long defaultValue) {
+        String value = properties.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return parseMillis(value);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid duration for '" + name + "': " + value + "; expected <number>[ms|s|m|h]");
+        }
+    }
+
+    /**
+     * Parses a duration, e.g. {@code 500ms}, {@code 10s}, {@code 5m} or {@code 1h}; a number without a unit is in seconds
+     *
+     * @param value the duration; never {@code null}
+     * @return the duration in milliseconds
+     * @throws IllegalArgumentException if the value is not a duration
+     */
+    protected static long parseMillis(String value) {
+        Matcher matcher = DURATION_PATTERN.matcher(value.trim().toLowerCase(Locale.ROOT));
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Invalid duration: " + value + "; expected <number>[ms|s|m|h]");
+        }
+        long amount = Long.parseLong(matcher.group(1));
+        String unit = matcher.group(2);
+        switch (unit) {
+            case "ms":
+                return amount;
+            case "m":
+                return TimeUnit.MINUTES.toMillis(amount);
+            case "h":
+                return TimeUnit.HOURS.toMillis(amount);
+            default:
+                return TimeUnit.SECONDS.toMillis(amount);
+        }
+    }
+
+    private static long sizeBytes(Properties properties, String name, long defaultValue) {
+        String value = properties.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        Matcher matcher = SIZE_PATTERN.matcher(value.trim().toLowerCase(Locale.ROOT));
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Invalid size for '" + name + "': " + value + "; expected <number>[k|m|g]");
+        }
+        long amount = Long.parseLong(matcher.group(1));
+        switch (matcher.group(2)) {
+            case "k":
+                return amount * 1024;
+            case "m":
+                return amount * 1024 * 1024;
+            case "g":
+                return amount * 1024 * 1024 * 1024;
+            default:
+                return amount;
+        }
+    }
+
+    protected int port() {
+        return port;
+    }
+
+    protected IngestMode ingestMode() {
+        return ingestMode;
+    }
+
+    protected int ioThreads() {
+        return ioThreads;
+    }
+
+    /**
+     * Returns the file from which the dictionary used for scoring messages should be loaded
+     *
+     * @return the path of the dictionary file or {@code null} if the default dictionary should be used
+     */
+    protected Path dictionaryFile() {
+        return dictionaryFile;
+    }
+
+    /**
+     * Returns the maximum number of feed connections waiting for a thread in {@link IngestMode#POOL} mode
+     *
+     * @return the capacity of the queue
+     */
+    protected int poolQueueCapacity() {
+        return poolQueueCapacity;
+    }
+
+    /**
+     * Returns the capacity of the buffer between the feed readers and the aggregation of news items
+     *
+     * @return the number of items or 0 if the readers should aggregate the items directly
+     */
+    protected int bufferCapacity() {
+        return bufferCapacity;
+    }
+
+    protected NewsItemBuffer.OverloadPolicy overloadPolicy() {
+        return overloadPolicy;
+    }
+
+    protected NewsItemBuffer.Scheduling bufferScheduling() {
+        return bufferScheduling;
+    }
+
+    /**
+     * Returns the weights of the bands of priorities when the buffer uses fair scheduling
+     *
+     * @return the weights of the low, medium and high priorities
+     */
+    protected int[] bufferWeights() {
+        return bufferWeights.clone();
+    }
+
+    protected long windowLengthMillis() {
+        return windowLengthMillis;
+    }
+
+    protected long windowSlideMillis() {
+        return windowSlideMillis;
+    }
+
+    /**
+     * Returns the number of top items reported for each window
+     *
+     * @return the number of items
+     */
+    protected int topK() {
+        return topK;
+    }
+
+    /**
+     * Returns whether the report of each window should be printed to the console
+     *
+     * @return {@code true} if the report should be printed
+     */
+    protected boolean consoleReport() {
+        return consoleReport;
+    }
+
+    /**
+     * Returns how often the metrics should be printed to the console
+     *
+     * @return the interval in milliseconds or 0 if the metrics should not be printed
+     */
+    protected long metricsIntervalMillis() {
+        return metricsIntervalMillis;
+    }
+
+    /**
+     * Returns the directory of the {@link NewsJournal} the accepted items are appended to
+     *
+     * @return the path of the directory or {@code null} if the items should not be journaled
+     */
+    protected Path journalDirectory() {
+        return journalDirectory;
+    }
+
+    protected int journalSegmentSize() {
+        return (int) journalSegmentSize;
+    }
+
+    /**
+     * Returns the maximum time the journaled items stay in memory before being forced to disk
+     *
+     * @return the interval in milliseconds
+     */
+    protected long journalSyncIntervalMillis() {
+        return journalSyncIntervalMillis;
+    }
+
+    /**
+     * Returns how long the journal segments are kept
+     *
+     * @return the retention in milliseconds or 0 if the segments are kept forever
+     */
+    protected long journalRetentionMillis() {
+        return journalRetentionMillis;
+    }
+
+    protected int journalQueueCapacity() {
+        return journalQueueCapacity;
+    }
+
+    /**
+     * Returns the port on which this analyzer accepts the partial summaries of shard analyzers, as a {@link ShardCoordinator}
+     *
+     * @return the port or 0 if this analyzer is not a coordinator
+     */
+    protected int shardPort() {
+        return shardPort;
+    }
+
+    /**
+     * Returns the address of the {@link ShardCoordinator} this analyzer sends the partial summaries of its window to
+     *
+     * @return the unresolved address or {@code null} if this analyzer is not a shard
+     */
+    protected InetSocketAddress coordinator() {
+        return coordinator;
+    }
+
+    /**
+     * Returns the memory used by the {@link HeadlineFilter} which drops the headlines already received during the window
+     *
+     * @return the size in bytes or 0 if duplicates are accepted
+     */
+    protected long duplicateFilterSize() {
+        return duplicateFilterSize;
+    }
+
+    /**
+     * Returns the number of workers of the {@link ScoringPipeline} which scores the text messages instead of the feed readers
+     *
+     * @return the number of threads or 0 if the feed readers should score the messages
+     */
+    protected int scoringThreads() {
+        return scoringThreads;
+    }
+
+    /**
+     * Returns the number of batches of messages of each feed which can wait to be scored
+     *
+     * @return the number of batches
+     */
+    protected int scoringQueueCapacity() {
+        return scoringQueueCapacity;
+    }
+
+    /**
+     * Returns the number of generated messages the analyzer runs through its analysis before accepting any feed, see
+     * {@link Warmup}
+     *
+     * @return the number of messages or 0 if the analyzer should start accepting feeds right away
+     */
+    protected int warmupMessages() {
+        return warmupMessages;
+    }
+
+    /**
+     * Returns whether the analyzer should stop right after the warm-up, e.g. to record the classes it loaded into a class
+     * data sharing archive
+     *
+     * @return {@code true} if the analyzer should not accept any feed
+     */
+    protected boolean warmupOnly() {
+        return warmupOnly;
+    }
+
+    /**
+     * Returns the local port on which the recent items can be queried, see {@link QueryServer}
+     *
+     * @return the port or 0 if the items are not indexed for queries
+     */
+    protected int queryPort() {
+        return queryPort;
+    }
+
+    /**
+     * Returns the port on which subscribers are pushed the report of each window, see {@link ReportPublisher}
+     *
+     * @return the port or 0 if the reports are not published
+     */
+    protected int subscriberPort() {
+        return subscriberPort;
+    }
+
+    /**
+     * Returns how far back the queries can go
+     *
+     * @return the retention in milliseconds
+     */
+    protected long queryRetentionMillis() {
+        return queryRetentionMillis;
+    }
+
+    /**
+     * Returns how long a stopping analyzer waits for the data already sent by the feeds to be processed
+     *
+     * @return the timeout in milliseconds, 0 meaning the feeds are disconnected right away
+     */
+    protected long shutdownTimeoutMillis() {
+        return shutdownTimeoutMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "AnalyzerConfig[port=" + port + ", mode=" + ingestMode + ", ioThreads=" + ioThreads + ", dictionary=" + dictionaryFile +
+               ", poolQueueCapacity=" + poolQueueCapacity + ", bufferCapacity=" + bufferCapacity + ", overloadPolicy=" + overloadPolicy +
+               ", bufferScheduling=" + bufferScheduling + ", bufferWeights=" + Arrays.toString(bufferWeights) +
+               ", windowLength=" + windowLengthMillis + "ms, windowSlide=" + windowSlideMillis + "ms, topK=" + topK +
+               ", journal=" + journalDirectory + ", shardPort=" + shardPort + ", coordinator=" + coordinator +
+               ", dedupSize=" + duplicateFilterSize + ", scoringThreads=" + scoringThreads +
+               ", warmupMessages=" + warmupMessages + ", queryPort=" + queryPort +
+               ", subscriberPort=" + subscriberPort + ", shutdownTimeout=" + shutdownTimeoutMillis + "ms]";
+    }
+}
@@ -0,0 +1,499 @@
+package org.test.news;
+
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+
+/**
+ * The metrics of an {@link Analyzer}: how many messages each feed sent, how many of them were dropped and why, the state of
+ * the feed executor, of the buffer and of the stages of the scoring pipeline, and how long the news items take from being read until they are aggregated and
+ * until they are reported.
+ * <p>
+ * The counters of each feed are kept by a {@link FeedMetrics} created when the feed connects, so counting a message only
+ * increments a {@link LongAdder} and recording a latency only increments a {@link LatencyHistogram} bucket; neither creates
+ * any objects. The counters of a feed are added to the totals when the feed disconnects.
+ * </p>
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+public class AnalyzerMetrics implements AnalyzerMetricsMXBean {
+
+    /**
+     * Why a message was dropped before reaching the aggregation
+     */
+    protected enum DropReason {
+        /**
+         * the message is not a "headline priority" message
+         */
+        MALFORMED,
+        /**
+         * the message is longer than the maximum line length
+         */
+        TOO_LONG,
+        /**
+         * the headline doesn't have a positive score
+         */
+        NOT_POSITIVE,
+        /**
+         * the feed sent invalid binary data, so the rest of its messages were lost
+         */
+        PROTOCOL_ERROR,
+        /**
+         * the headline was already received during the current window, see {@link HeadlineFilter}
+         */
+        DUPLICATE
+    }
+
+    private static final int BUSIEST_FEEDS = 5;
+
+    private final ExecutorService executor;
+    private final NewsItemBuffer buffer;
+    private final NewsJournal journal;
+    private final HeadlineFilter duplicates;
+    private final ScoringPipeline pipeline;
+    private final long[] lastStageCounts;
+    private final ConcurrentHashMap<String, FeedMetrics> feeds;
+    private final FeedMetrics closedFeeds;
+    private final LongAdder connections;
+    private final LongAdder rejectedConnections;
+    private final LongAdder aggregated;
+    private final LatencyHistogram ingestLatency;
+    private final LatencyHistogram reportLatency;
+    private long lastSnapshotNanos;
+
+    /**
+     * Creates a new instance
+     *
+     * @param executor the executor reading the feeds, never {@code null}
+     * @param buffer the buffer between the feeds and the aggregation or {@code null} if there is no buffer
+     * @param journal the journal of the accepted items or {@code null} if there is no journal
+     * @param duplicates the filter of the duplicate headlines or {@code null} if duplicates are accepted
+     * @param pipeline the pipeline scoring the messages or {@code null} if they are scored by the feed readers
+     */
+    protected AnalyzerMetrics(ExecutorService executor, NewsItemBuffer buffer, NewsJournal journal, HeadlineFilter duplicates,
+                              ScoringPipeline pipeline) {
+        this.executor = executor;
+        this.buffer = buffer;
+        this.journal = journal;
+        this.duplicates = duplicates;
+        this.pipeline = pipeline;
+        this.lastStageCounts = new long[3];
+        this.lastSnapshotNanos = System.nanoTime();
+        this.feeds = new ConcurrentHashMap<>();
+        this.closedFeeds = new FeedMetrics("closed", null);
+        this.connections = new LongAdder();
+        this.rejectedConnections = new LongAdder();
+        this.aggregated = new LongAdder();
+        this.ingestLatency = new LatencyHistogram();
+        this.reportLatency = new LatencyHistogram();
+    }
+
+    /**
+     * Starts tracking a new feed
+     *
+     * @param feedId the id of the feed, never {@code null}
+     * @return the {@link FeedMetrics} of the feed, which must be closed when the feed disconnects
+     */
+    protected FeedMetrics feedConnected(String feedId) {
+        return feedConnected(feedId, null);
+    }
+
+    /**
+     * Starts tracking a new feed
+     *
+     * @param feedId the id of the feed, never {@code null}
+     * @param onClose called once, the first time the {@link FeedMetrics} are closed, or {@code null}
+     * @return the {@link FeedMetrics} of the feed, which must be closed when the feed disconnects
+     */
+    protected FeedMetrics feedConnected(String feedId, Runnable onClose) {
+        connections.increment();
+        FeedMetrics feedMetrics = new FeedMetrics(feedId, this, onClose);
+        feeds.put(feedId, feedMetrics);
+        return feedMetrics;
+    }
+
+    protected void connectionRejected() {
+        rejectedConnections.increment();
+    }
+
+    /**
+     * Records the time it took an item from being read to being aggregated
+     *
+     * @param item the item, never {@code null}
+     */
+    protected void itemAggregated(NewsItem item) {
+        aggregated.increment();
+        if (item.receivedNanos() != 0) {
+            ingestLatency.record(System.nanoTime() - item.receivedNanos());
+        }
+    }
+
+    /**
+     * Records the time it took the top items of a window from being read to being reported; with sliding windows an item
+     * is recorded each time it is reported
+     *
+     * @param summary the summary of the reported window, never {@code null}
+     */
+    protected void windowReported(WindowSummary summary) {
+        long now = System.nanoTime();
+        for (NewsItem item : summary.topItems()) {
+            if (item.receivedNanos() != 0) {
+                reportLatency.record(now - item.receivedNanos());
+            }
+        }
+    }
+
+    private void feedClosed(FeedMetrics feedMetrics) {
+        if (feeds.remove(feedMetrics.feedId, feedMetrics)) {
+            closedFeeds.add(feedMetrics);
+            if (feedMetrics.onClose != null) {
+                feedMetrics.onClose.run();
+            }
+        }
+    }
+
+    private long total(ToLongFunction<FeedMetrics> counter) {
+        long total = counter.applyAsLong(closedFeeds);
+        for (FeedMetrics feedMetrics : feeds.values()) {
+            total += counter.applyAsLong(feedMetrics);
+        }
+        return total;
+    }
+
+    @Override
+    public long getConnections() {
+        return connections.sum();
+    }
+
+    @Override
+    public long getRejectedConnections() {
+        return rejectedConnections.sum();
+    }
+
+    @Override
+    public int getConnectedFeeds() {
+        return feeds.size();
+    }
+
+    @Override
+    public long getReceivedMessages() {
+        return total(feedMetrics -> feedMetrics.received.sum());
+    }
+
+    @Override
+    public long getAcceptedMessages() {
+        return total(feedMetrics -> feedMetrics.accepted.sum());
+    }
+
+    @Override
+    public long getAggregatedItems() {
+        return aggregated.sum();
+    }
+
+    /**
+     * Returns the total number of messages dropped for any reason, including the overload of the buffer
+     *
+     * @return the number of messages
+     */
+    protected long droppedCount() {
+        return getDroppedMessages().values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    @Override
+    public Map<String, Long> getDroppedMessages() {
+        Map<String, Long> dropped = new LinkedHashMap<>();
+        for (DropReason reason : DropReason.values()) {
+            dropped.put(reason.name().toLowerCase(Locale.ROOT), total(feedMetrics -> feedMetrics.dropped.get(reason).sum()));
+        }
+        dropped.put("overload", buffer != null ? buffer.droppedCount() : 0);
+        return dropped;
+    }
+
+    @Override
+    public Map<String, Long> getReceivedMessagesByFeed() {
+        return feeds.values().stream().collect(Collectors.toMap(feedMetrics -> feedMetrics.feedId,
+                                                                feedMetrics -> feedMetrics.received.sum()));
+    }
+
+    @Override
+    public int getActiveThreads() {
+        return executor instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) executor).getActiveCount() : -1;
+    }
+
+    @Override
+    public int getQueuedTasks() {
+        return executor instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) executor).getQueue().size() : -1;
+    }
+
+    @Override
+    public int getBufferedItems() {
+        return buffer != null ? buffer.size() : 0;
+    }
+
+    @Override
+    public Map<String, Long> getBufferWaitP99MicrosByBand() {
+        Map<String, Long> waits = new LinkedHashMap<>();
+        if (buffer != null) {
+            for (int band = FairLanes.BANDS - 1; band >= 0; band--) {
+                waits.put(FairLanes.bandName(band), TimeUnit.NANOSECONDS.toMicros(buffer.waitLatency(band).percentile(99)));
+            }
+        }
+        return waits;
+    }
+
+    @Override
+    public long getIngestLatencyP50Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(ingestLatency.percentile(50));
+    }
+
+    @Override
+    public long getIngestLatencyP99Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(ingestLatency.percentile(99));
+    }
+
+    @Override
+    public long getIngestLatencyMaxMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(ingestLatency.max());
+    }
+
+    @Override
+    public long getReportLatencyP50Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(reportLatency.percentile(50));
+    }
+
+    @Override
+    public long getReportLatencyP99Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(reportLatency.percentile(99));
+    }
+
+    @Override
+    public long getReportLatencyMaxMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(reportLatency.max());
+    }
+
+    @Override
+    public long getJournaledItems() {
+        return journal != null ? journal.journaledCount() : 0;
+    }
+
+    @Override
+    public int getJournalQueuedItems() {
+        return journal != null ? journal.queueSize() : 0;
+    }
+
+    @Override
+    public long getJournalSyncs() {
+        return journal != null ? journal.syncCount() : 0;
+    }
+
+    @Override
+    public long getJournalLostItems() {
+        return journal != null ? journal.lostCount() : 0;
+    }
+
+    @Override
+    public double getDuplicateFalsePositiveRate() {
+        return duplicates != null ? duplicates.falsePositiveRate() : 0;
+    }
+
+    @Override
+    public long getFramedMessages() {
+        return pipeline != null ? pipeline.framedCount() : 0;
+    }
+
+    @Override
+    public long getScoredMessages() {
+        return pipeline != null ? pipeline.scoredCount() : 0;
+    }
+
+    @Override
+    public long getPublishedItems() {
+        return pipeline != null ? pipeline.publishedCount() : 0;
+    }
+
+    @Override
+    public int getScoringQueuedBatches() {
+        return pipeline != null ? pipeline.queuedBatches() : 0;
+    }
+
+    @Override
+    public int getSinkQueuedItems() {
+        return pipeline != null ? pipeline.queuedItems() : 0;
+    }
+
+    @Override
+    public long getDroppedLogEvents() {
+        return Logger.droppedEvents();
+    }
+
+    /**
+     * Returns a human readable snapshot of all the metrics
+     *
+     * @return the snapshot, never {@code null}
+     */
+    protected String snapshot() {
+        String lineSeparator = System.lineSeparator();
+        String busiestFeeds = feeds.values()
+                                   .stream()
+                                   .sorted(Comparator.comparingLong((FeedMetrics feedMetrics) -> feedMetrics.received.sum()).reversed())
+                                   .limit(BUSIEST_FEEDS)
+                                   .map(FeedMetrics::toString)
+                                   .collect(Collectors.joining(", "));
+        return "Metrics:" + lineSeparator +
+               String.format("  feeds: %d connected, %d connections, %d rejected", getConnectedFeeds(), getConnections(),
+                             getRejectedConnections()) + lineSeparator +
+               String.format("  messages: %d received, %d accepted, %d aggregated, dropped %s", getReceivedMessages(),
+                             getAcceptedMessages(), getAggregatedItems(), getDroppedMessages()) + lineSeparator +
+               String.format("  executor: %d active, %d queued; buffer: %d items; log: %d dropped", getActiveThreads(),
+                             getQueuedTasks(), getBufferedItems(), getDroppedLogEvents()) + lineSeparator +
+               (buffer != null ? bufferSnapshot() + lineSeparator : "") +
+               (journal != null ?
+                String.format("  journal: %d items, %d queued, %d blocked, %d syncs, %d lost%s", getJournaledItems(),
+                              getJournalQueuedItems(), journal.blockedCount(), getJournalSyncs(), getJournalLostItems(),
+                              journal.failed() ? " (failed)" : "") + lineSeparator : "") +
+               (duplicates != null ?
+                String.format("  duplicates: %.4f%% false positives", 100 * getDuplicateFalsePositiveRate()) + lineSeparator : "") +
+               (pipeline != null ? pipelineSnapshot() + lineSeparator : "") +
+               "  read to aggregated: " + ingestLatency + lineSeparator +
+               "  read to reported: " + reportLatency + lineSeparator +
+               "  busiest feeds: " + busiestFeeds;
+    }
+
+    /**
+     * How long the items of each band of priorities waited in the buffer
+     */
+    private String bufferSnapshot() {
+        String scheduling = buffer.scheduling().name().toLowerCase(Locale.ROOT);
+        StringBuilder snapshot = new StringBuilder(String.format("  buffer: %s scheduling, %d lanes", scheduling, buffer.laneCount()));
+        for (int band = FairLanes.BANDS - 1; band >= 0; band--) {
+            snapshot.append(System.lineSeparator()).append("    ").append(FairLanes.bandName(band)).append(" priorities waited: ")
+                    .append(buffer.waitLatency(band));
+        }
+        return snapshot.toString();
+    }
+
+    /**
+     * The throughput of each stage of the pipeline since the previous snapshot and how much is queued between the stages
+     */
+    private synchronized String pipelineSnapshot() {
+        long now = System.nanoTime();
+        long[] counts = {getFramedMessages(), getScoredMessages(), getPublishedItems()};
+        double seconds = Math.max(1, now - lastSnapshotNanos) / 1e9;
+        double[] rates = new double[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            rates[i] = (counts[i] - lastStageCounts[i]) / seconds;
+            lastStageCounts[i] = counts[i];
+        }
+        lastSnapshotNanos = now;
+        return String.format("  pipeline: %d workers, %d lanes; framed %d (%.0f/s), scored %d (%.0f/s), published %d (%.0f/s); " +
+                             "queued %d batches, %d items", pipeline.workerCount(), pipeline.laneCount(), counts[0], rates[0],
+                             counts[1], rates[1], counts[2], rates[2], getScoringQueuedBatches(), getSinkQueuedItems());
+    }
+
+    /**
+     * The counters of a single feed, which should be updated by a single thread at a time
+     */
+    protected static class FeedMetrics {
+        private final String feedId;
+        private final AnalyzerMetrics owner;
+        private final Runnable onClose;
+        private final LongAdder received;
+        private final LongAdder accepted;
+        private final EnumMap<DropReason, LongAdder> dropped;
+
+        /**
+         * Creates the counters of a feed
+         *
+         * @param feedId the id of the feed, never {@code null}
+         * @param owner the metrics the counters are added to when the feed disconnects or {@code null} if the counters are
+         * not tracked
+         */
+        protected FeedMetrics(String feedId, AnalyzerMetrics owner) {
+            this(feedId, owner, null);
+        }
+
+        private FeedMetrics(String feedId, AnalyzerMetrics owner, Runnable onClose) {
+            this.feedId = feedId;
+            this.owner = owner;
+            this.onClose = onClose;
+            this.received = new LongAdder();
+            this.accepted = new LongAdder();
+            this.dropped = new EnumMap<>(DropReason.class);
+            for (DropReason reason : DropReason.values()) {
+                dropped.put(reason, new LongAdder());
+            }
+        }
+
+        protected void received() {
+            received.increment();
+        }
+
+        protected void accepted() {
+            accepted.increment();
+        }
+
+        protected void dropped(DropReason reason) {
+            dropped.get(reason).increment();
+        }
+
+        private void add(FeedMetrics other) {
+            received.add(other.received.sum());
+            accepted.add(other.accepted.sum());
+            for (DropReason reason : DropReason.values()) {
+                dropped.get(reason).add(other.dropped.get(reason).sum());
+            }
+        }
+
+        /**
+         * Stops tracking the feed, adding its counters to the totals
+         */
+        protected void close() {
+            if (owner != null) {
+                owner.feedClosed(this);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return feedId + "=" + received.sum() + "/" + accepted.sum();
+        }
+    }
+
+    public static void main(String[] args) {
+        //junit...sigh
+        AnalyzerMetrics metrics = new AnalyzerMetrics(Executors.newSingleThreadExecutor(), null, null, null, null);
+        FeedMetrics first = metrics.feedConnected("first");
+        FeedMetrics second = metrics.feedConnected("second");
+        for (int i = 0; i < 10; i++) {
+            first.received();
+            second.received();
+            if (i % 2 == 0) {
+                first.accepted();
+            } else {
+                first.dropped(DropReason.NOT_POSITIVE);
+            }
+        }
+        second.dropped(DropReason.MALFORMED);
+        first.close();
+        if (metrics.getConnectedFeeds() != 1 || metrics.getReceivedMessages() != 20 || metrics.getAcceptedMessages() != 5 ||
+            metrics.getDroppedMessages().get("not_positive") != 5 || metrics.getDroppedMessages().get("malformed") != 1) {
+            throw new IllegalStateException("incorrect: " + metrics.snapshot());
+        }
+        metrics.itemAggregated(new NewsItem((byte) 1, "up up", "second", System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(5)));
+        if (metrics.getIngestLatencyP50Micros() < 5000 || metrics.getReportLatencyMaxMicros() != 0 ||
+            metrics.getAggregatedItems() != 1 || metrics.droppedCount() != 6) {
+            throw new IllegalStateException("incorrect: " + metrics.snapshot());
+        }
+        metrics.executor.shutdown();
+    }
+}
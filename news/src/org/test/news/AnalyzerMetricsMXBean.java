@@ -0,0 +1,130 @@
+package org.test.news;
+
+import java.util.Map;
+
+/**
+ * The metrics of an {@link Analyzer} exposed over JMX, under {@code org.test.news:type=Analyzer,port=<port>}
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+public interface AnalyzerMetricsMXBean {
+
+    long getConnections();
+
+    long getRejectedConnections();
+
+    int getConnectedFeeds();
+
+    long getReceivedMessages();
+
+    long getAcceptedMessages();
+
+    /**
+     * Returns the number of positive items which made it to the aggregation, i.e. the accepted ones which were not dropped
+     * because of overload or lost when the analyzer stopped
+     *
+     * @return the number of items
+     */
+    long getAggregatedItems();
+
+    /**
+     * Returns the number of dropped messages for each drop reason
+     *
+     * @return a {@link Map} keyed by the lower case name of the reason, never {@code null}
+     */
+    Map<String, Long> getDroppedMessages();
+
+    /**
+     * Returns the number of messages received from each connected feed
+     *
+     * @return a {@link Map} keyed by feed id, never {@code null}
+     */
+    Map<String, Long> getReceivedMessagesByFeed();
+
+    int getActiveThreads();
+
+    int getQueuedTasks();
+
+    int getBufferedItems();
+
+    /**
+     * Returns the p99 of how long the items of each band of priorities waited in the buffer before being aggregated
+     *
+     * @return a {@link Map} keyed by the name of the band (low, medium, high), empty if there is no buffer; never {@code null}
+     */
+    Map<String, Long> getBufferWaitP99MicrosByBand();
+
+    long getIngestLatencyP50Micros();
+
+    long getIngestLatencyP99Micros();
+
+    long getIngestLatencyMaxMicros();
+
+    long getReportLatencyP50Micros();
+
+    long getReportLatencyP99Micros();
+
+    long getReportLatencyMaxMicros();
+
+    long getJournaledItems();
+
+    int getJournalQueuedItems();
+
+    long getJournalSyncs();
+
+    /**
+     * Returns the number of items which were not journaled because the journal stopped after an error
+     *
+     * @return the number of items or 0 if there is no journal
+     */
+    long getJournalLostItems();
+
+    /**
+     * Returns the probability that a new headline was dropped as a duplicate during the last window
+     *
+     * @return the rate, between 0 and 1, or 0 if duplicates are accepted
+     */
+    double getDuplicateFalsePositiveRate();
+
+    /**
+     * Returns the number of messages framed by the feed readers and queued to the scoring pipeline
+     *
+     * @return the number of messages or 0 if the messages are scored by the feed readers
+     */
+    long getFramedMessages();
+
+    /**
+     * Returns the number of messages scored by the workers of the scoring pipeline
+     *
+     * @return the number of messages or 0 if the messages are scored by the feed readers
+     */
+    long getScoredMessages();
+
+    /**
+     * Returns the number of positive items handed over to the aggregation by the scoring pipeline
+     *
+     * @return the number of items or 0 if the messages are scored by the feed readers
+     */
+    long getPublishedItems();
+
+    /**
+     * Returns the number of batches of messages waiting for the workers of the scoring pipeline
+     *
+     * @return the number of batches
+     */
+    int getScoringQueuedBatches();
+
+    /**
+     * Returns the number of positive items waiting to be handed over to the aggregation by the scoring pipeline
+     *
+     * @return the number of items
+     */
+    int getSinkQueuedItems();
+
+    /**
+     * Returns the number of log events dropped because they were logged faster than they could be written
+     *
+     * @return the number of events
+     */
+    long getDroppedLogEvents();
+}
@@ -0,0 +1,350 @@
+package org.test.news;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The background half of the {@link Logger}: the logging threads copy their events into the pre-allocated slots of a
+ * bounded ring buffer and a single writer thread formats them and writes them in batches to a {@link FileChannel}.
+ * <p>
+ * A slot is claimed with a single compare-and-set on the producer sequence and published by writing its sequence number,
+ * so logging never blocks and never creates objects (as long as the arguments are primitives or raw bytes). If the writer
+ * falls behind and the ring is full, new events are dropped and counted instead of slowing down the logging threads.
+ * </p>
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+public class AsyncLogWriter {
+
+    private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm:ss.SSS")
+                                                                                  .withZone(ZoneId.systemDefault());
+    private static final int MAX_MESSAGE_BYTES = 256;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final LogEvent[] slots;
+    private final int mask;
+    private final AtomicLongArray published;
+    private final AtomicLong claimed;
+    private final AtomicLong consumed;
+    private final LongAdder dropped;
+    private final FileChannel channel;
+    private final Thread writerThread;
+    private volatile boolean running;
+
+    /**
+     * Creates a new writer and starts its thread
+     *
+     * @param capacity the number of events which can be waiting to be written, rounded up to a power of two
+     * @param file the file the events are appended to or {@code null} to write them to the standard output
+     * @throws IOException if the file cannot be opened
+     */
+    protected AsyncLogWriter(int capacity, Path file) throws IOException {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new LogEvent[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new LogEvent();
+        }
+        this.mask = size - 1;
+        this.published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            published.set(i, -1);
+        }
+        this.claimed = new AtomicLong();
+        this.consumed = new AtomicLong();
+        this.dropped = new LongAdder();
+        this.channel = file != null ?
+                       FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND) :
+                       new FileOutputStream(FileDescriptor.out).getChannel();
+        this.running = true;
+        this.writerThread = new Thread(this::writeLoop, "log-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "log-writer-shutdown"));
+    }
+
+    /**
+     * Adds an event to the ring buffer
+     *
+     * @return {@code true} if the event was added, {@code false} if it was dropped because the buffer is full
+     */
+    protected boolean append(Logger.Level level, String loggerName, String template, Object[] args, byte[] bytes, int from, int to,
+                             Throwable throwable) {
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - consumed.get() >= slots.length) {
+                dropped.increment();
+                return false;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+        LogEvent event = slots[(int) (sequence & mask)];
+        event.timeMillis = System.currentTimeMillis();
+        event.level = level;
+        event.loggerName = loggerName;
+        event.threadName = Thread.currentThread().getName();
+        event.template = template;
+        event.args = args;
+        event.throwable = throwable;
+        event.byteCount = 0;
+        if (bytes != null) {
+            event.byteCount = Math.min(to - from, MAX_MESSAGE_BYTES);
+            event.truncated = to - from > MAX_MESSAGE_BYTES;
+            System.arraycopy(bytes, from, event.bytes, 0, event.byteCount);
+        }
+        event.hasBytes = bytes != null;
+        published.lazySet((int) (sequence & mask), sequence);
+        return true;
+    }
+
+    /**
+     * Returns the number of events dropped because the ring buffer was full
+     *
+     * @return the number of events
+     */
+    protected long droppedCount() {
+        return dropped.sum();
+    }
+
+    private void writeLoop() {
+        Formatter formatter = new Formatter(channel);
+        long next = consumed.get();
+        while (true) {
+            boolean stopping = !running;
+            int index = (int) (next & mask);
+            if (published.get(index) == next) {
+                formatter.format(slots[index]);
+                slots[index].clear();
+                consumed.lazySet(++next);
+                if (!formatter.hasRoom()) {
+                    formatter.write();
+                }
+            } else {
+                // nothing else to format right now, so write the batch
+                formatter.write();
+                if (stopping) {
+                    return;
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Writes all the pending events and stops the writer thread
+     */
+    protected void close() {
+        running = false;
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(2));
+            channel.force(false);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // nothing else can be done
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        //junit...sigh
+        Path file = Files.createTempFile("async-log-writer", ".log");
+        try {
+            AsyncLogWriter writer = new AsyncLogWriter(64, file);
+            byte[] message = "über up 5".getBytes(StandardCharsets.UTF_8);
+            int threads = 4;
+            int eventsPerThread = 10_000;
+            Thread[] loggers = new Thread[threads];
+            for (int i = 0; i < threads; i++) {
+                loggers[i] = new Thread(() -> {
+                    for (int j = 0; j < eventsPerThread; j++) {
+                        writer.append(Logger.Level.DEBUG, "test", "received %s!", null, message, 0, message.length, null);
+                    }
+                }, "logger-" + i);
+                loggers[i].start();
+            }
+            for (Thread logger : loggers) {
+                logger.join();
+            }
+            long dropped = writer.droppedCount();
+            // the writer may still be busy with the previous events
+            while (!writer.append(Logger.Level.INFO, "test", "done %d", new Object[] {42}, null, 0, 0, null)) {
+                Thread.sleep(1);
+            }
+            writer.close();
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            if (dropped == 0 || lines.size() + dropped != threads * eventsPerThread + 1) {
+                throw new IllegalStateException("incorrect number of events: " + lines.size() + " written, " + dropped + " dropped");
+            }
+            for (String line : lines.subList(0, lines.size() - 1)) {
+                if (!line.matches("[\\d-]+ [\\d:.]+ DEBUG \\[logger-\\d] test - received über up 5!")) {
+                    throw new IllegalStateException("incorrect event: " + line);
+                }
+            }
+            if (!lines.get(lines.size() - 1).endsWith("INFO [main] test - done 42")) {
+                throw new IllegalStateException("incorrect event: " + lines.get(lines.size() - 1));
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * A pre-allocated log event; the raw bytes of a message are copied, everything else is only referenced
+     */
+    private static class LogEvent {
+        private final byte[] bytes = new byte[MAX_MESSAGE_BYTES];
+        private long timeMillis;
+        private Logger.Level level;
+        private String loggerName;
+        private String threadName;
+        private String template;
+        private Object[] args;
+        private Throwable throwable;
+        private int byteCount;
+        private boolean hasBytes;
+        private boolean truncated;
+
+        private void clear() {
+            // don't keep the arguments reachable
+            args = null;
+            throwable = null;
+            template = null;
+        }
+    }
+
+    /**
+     * Formats the events of the writer thread into a reusable buffer. Consecutive events usually come from the same thread
+     * within the same millisecond, so the encoded header of the last event and the encoded parts of the last raw bytes
+     * template are kept and reused.
+     */
+    private static class Formatter {
+        private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+        private static final byte[] ELLIPSIS = "...".getBytes(StandardCharsets.UTF_8);
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private final StringBuilder text;
+        private final CharsetEncoder encoder;
+        private long headerMillis;
+        private Logger.Level headerLevel;
+        private String headerThread;
+        private String headerLogger;
+        private byte[] header;
+        private String template;
+        private byte[] templatePrefix;
+        private byte[] templateSuffix;
+
+        private Formatter(FileChannel channel) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+            this.text = new StringBuilder(512);
+            this.encoder = StandardCharsets.UTF_8.newEncoder();
+        }
+
+        private void format(LogEvent event) {
+            put(header(event));
+            if (event.hasBytes) {
+                splitTemplate(event.template);
+                put(templatePrefix);
+                buffer.put(event.bytes, 0, event.byteCount);
+                if (event.truncated) {
+                    put(ELLIPSIS);
+                }
+                put(templateSuffix);
+            } else if (event.template != null) {
+                text.setLength(0);
+                text.append(event.args == null || event.args.length == 0 ? event.template : String.format(event.template, event.args));
+                encode();
+            }
+            if (event.throwable != null) {
+                StringWriter stackTrace = new StringWriter();
+                event.throwable.printStackTrace(new PrintWriter(stackTrace));
+                text.setLength(0);
+                text.append(event.template != null ? System.lineSeparator() : "").append(stackTrace.toString().trim());
+                encode();
+            }
+            put(LINE_SEPARATOR);
+        }
+
+        private byte[] header(LogEvent event) {
+            if (header == null || event.timeMillis != headerMillis || event.level != headerLevel ||
+                !event.threadName.equals(headerThread) || !event.loggerName.equals(headerLogger)) {
+                text.setLength(0);
+                DATE_TIME_FORMATTER.formatTo(Instant.ofEpochMilli(event.timeMillis), text);
+                text.append(' ').append(event.level).append(" [").append(event.threadName).append("] ")
+                    .append(event.loggerName).append(" - ");
+                this.header = text.toString().getBytes(StandardCharsets.UTF_8);
+                this.headerMillis = event.timeMillis;
+                this.headerLevel = event.level;
+                this.headerThread = event.threadName;
+                this.headerLogger = event.loggerName;
+            }
+            return header;
+        }
+
+        private void splitTemplate(String template) {
+            if (template.equals(this.template)) {
+                return;
+            }
+            int placeholder = template.indexOf("%s");
+            this.templatePrefix = template.substring(0, placeholder < 0 ? template.length() : placeholder)
+                                          .getBytes(StandardCharsets.UTF_8);
+            this.templateSuffix = placeholder < 0 ? new byte[0] : template.substring(placeholder + 2).getBytes(StandardCharsets.UTF_8);
+            this.template = template;
+        }
+
+        private void put(byte[] bytes) {
+            if (buffer.remaining() < bytes.length) {
+                write();
+            }
+            buffer.put(bytes, 0, Math.min(bytes.length, buffer.remaining()));
+        }
+
+        private void encode() {
+            CharBuffer chars = CharBuffer.wrap(text);
+            while (encoder.encode(chars, buffer, true).isOverflow()) {
+                // a single huge event, e.g. a deep stack trace; write what was formatted so far and continue
+                write();
+            }
+            encoder.reset();
+        }
+
+        private boolean hasRoom() {
+            // enough for the largest event which is not a stack trace
+            return buffer.remaining() >= 4 * MAX_MESSAGE_BYTES + 1024;
+        }
+
+        private void write() {
+            buffer.flip();
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } catch (IOException e) {
+                // there is nowhere to log this, so the batch is lost
+            } finally {
+                buffer.clear();
+            }
+        }
+    }
+}
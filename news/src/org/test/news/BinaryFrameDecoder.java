@@ -0,0 +1,124 @@
+package org.test.news;
+
+import java.net.ProtocolException;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Decodes the frames of the {@link BinaryProtocol} received from a single feed, handing over the positive messages to a
+ * consumer. Like the {@link LineFramer}, complete frames are decoded directly from the caller's buffer and only a frame
+ * which spans several reads is copied into a carry-over buffer.
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+public class BinaryFrameDecoder {
+
+    private final MessageParser parser;
+    private final Consumer<NewsItem> sink;
+    private final boolean wordIdsAccepted;
+    private int frameLength;
+    private int lengthBytes;
+    private byte[] partial;
+    private int partialLength;
+    private int[] wordIds;
+    private int position;
+
+    protected BinaryFrameDecoder(MessageParser parser, Consumer<NewsItem> sink, int acceptedFlags) {
+        this.parser = parser;
+        this.sink = sink;
+        this.wordIdsAccepted = (acceptedFlags & BinaryProtocol.FLAG_WORD_IDS) != 0;
+        this.wordIds = new int[16];
+    }
+
+    /**
+     * Decodes the next chunk of data
+     *
+     * @param data the buffer with the data; never {@code null}
+     * @param from the index of the first byte (inclusive)
+     * @param to the index of the last byte (exclusive)
+     * @throws ProtocolException if the data is not valid, in which case the connection cannot be used any more
+     */
+    protected void decode(byte[] data, int from, int to) throws ProtocolException {
+        while (from < to) {
+            while (lengthBytes < BinaryProtocol.LENGTH_BYTES && from < to) {
+                frameLength = frameLength << 8 | data[from++] & 0xff;
+                lengthBytes++;
+            }
+            if (lengthBytes < BinaryProtocol.LENGTH_BYTES) {
+                return;
+            }
+            if (frameLength < 0 || frameLength > BinaryProtocol.MAX_FRAME_LENGTH) {
+                throw new ProtocolException("Invalid frame length: " + frameLength);
+            }
+            if (partialLength == 0 && to - from >= frameLength) {
+                decodeFrame(data, from, from + frameLength);
+                from += frameLength;
+            } else {
+                if (partial == null) {
+                    partial = new byte[BinaryProtocol.MAX_FRAME_LENGTH];
+                }
+                int length = Math.min(to - from, frameLength - partialLength);
+                System.arraycopy(data, from, partial, partialLength, length);
+                partialLength += length;
+                from += length;
+                if (partialLength < frameLength) {
+                    return;
+                }
+                decodeFrame(partial, 0, frameLength);
+                partialLength = 0;
+            }
+            frameLength = 0;
+            lengthBytes = 0;
+        }
+    }
+
+    private void decodeFrame(byte[] data, int from, int to) throws ProtocolException {
+        position = from;
+        while (position < to) {
+            int header = data[position++] & 0xff;
+            byte priority = (byte) (header & BinaryProtocol.PRIORITY_MASK);
+            // the length of the text or the number of word ids, each of which takes at least a byte
+            int length = readVarInt(data, to);
+            if (length < 0) {
+                throw new ProtocolException("Invalid message length: " + length);
+            }
+            if (length > to - position) {
+                throw new ProtocolException("Message longer than its frame");
+            }
+            NewsItem item;
+            if ((header & BinaryProtocol.WORD_IDS) != 0) {
+                if (!wordIdsAccepted) {
+                    throw new ProtocolException("Word ids were not negotiated");
+                }
+                if (length > wordIds.length) {
+                    wordIds = Arrays.copyOf(wordIds, Math.max(length, 2 * wordIds.length));
+                }
+                for (int i = 0; i < length; i++) {
+                    wordIds[i] = readVarInt(data, to);
+                }
+                item = parser.parse(priority, wordIds, length);
+            } else {
+                item = parser.parse(priority, data, position, position + length);
+                position += length;
+            }
+            if (item != null) {
+                sink.accept(item);
+            }
+        }
+    }
+
+    private int readVarInt(byte[] data, int to) throws ProtocolException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (position == to) {
+                throw new ProtocolException("Message truncated");
+            }
+            byte b = data[position++];
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new ProtocolException("Invalid varint");
+    }
+}
@@ -0,0 +1,173 @@
+package org.test.news;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Batches the messages of a {@link Feed} into the frames of the {@link BinaryProtocol}, so that many messages are sent with
+ * a single write. A frame is written when it is full or when the writer is flushed.
+ * <p>
+ * If the analyzer accepted word ids, a message whose headline is made only of dictionary words separated by single
+ * spaces is sent as the indexes of its words; any other message is sent as its UTF-8 bytes.
+ * </p>
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+public class BinaryFrameWriter implements Flushable {
+
+    // the header, the largest varint and the largest UTF-8 encoding of a char
+    private static final int MAX_MESSAGE_OVERHEAD = 6;
+    private static final int MAX_BYTES_PER_CHAR = 3;
+
+    private final OutputStream out;
+    private final Map<String, Integer> wordIds;
+    private final byte[] frame;
+    private int[] messageWordIds;
+    private int position;
+
+    /**
+     * Creates a new writer
+     *
+     * @param out the stream the frames are written to; never {@code null}
+     * @param dictionary the dictionary used for the word ids or {@code null} if word ids were not accepted by the analyzer
+     */
+    protected BinaryFrameWriter(OutputStream out, Dictionary dictionary) {
+        this.out = out;
+        this.wordIds = dictionary != null ? wordIds(dictionary) : null;
+        this.frame = new byte[BinaryProtocol.LENGTH_BYTES + BinaryProtocol.MAX_FRAME_LENGTH];
+        this.messageWordIds = new int[16];
+        this.position = BinaryProtocol.LENGTH_BYTES;
+    }
+
+    private static Map<String, Integer> wordIds(Dictionary dictionary) {
+        Map<String, Integer> wordIds = new HashMap<>(dictionary.allWords().size());
+        for (int i = 0; i < dictionary.allWords().size(); i++) {
+            // the same as the analyzer, which uses the weight of the last duplicate
+            wordIds.put(dictionary.allWords().get(i), i);
+        }
+        return wordIds;
+    }
+
+    /**
+     * Sends the preamble of the binary protocol and waits for the answer of the analyzer. The caller should set a read
+     * timeout on the socket, since an analyzer which only knows the text protocol will never answer.
+     *
+     * @param in the input stream of the connection; never {@code null}
+     * @param out the output stream of the connection; never {@code null}
+     * @param flags the requested flags
+     * @param dictionary the dictionary of the feed; never {@code null}
+     * @return the flags accepted by the analyzer
+     * @throws IOException if the negotiation fails
+     */
+    protected static int negotiate(InputStream in, OutputStream out, int flags, Dictionary dictionary) throws IOException {
+        out.write(BinaryProtocol.preamble(flags, dictionary));
+        out.flush();
+        int acceptedFlags = in.read();
+        if (acceptedFlags < 0) {
+            throw new ProtocolException("Connection closed while negotiating the binary protocol");
+        }
+        return acceptedFlags;
+    }
+
+    /**
+     * Adds a message to the current frame, writing the frame first if the message doesn't fit in it
+     *
+     * @param message a "headline priority" message; never {@code null}
+     * @throws UncheckedIOException if a frame cannot be written
+     */
+    protected void write(String message) {
+        int priorityIdx = message.length() - 1;
+        char priority = priorityIdx >= 0 ? message.charAt(priorityIdx) : ' ';
+        if (priority < '0' || priority > '9') {
+            throw new IllegalArgumentException("Message without a priority: " + message);
+        }
+        int header = priority - '0';
+        if (maxEncodedLength(priorityIdx) > BinaryProtocol.MAX_FRAME_LENGTH) {
+            throw new IllegalArgumentException("Message too long: " + message.length() + " chars");
+        }
+        if (position + maxEncodedLength(priorityIdx) > frame.length) {
+            writeFrame();
+        }
+        int wordCount = wordIds != null ? toWordIds(message, priorityIdx) : -1;
+        if (wordCount >= 0) {
+            frame[position++] = (byte) (header | BinaryProtocol.WORD_IDS);
+            position = BinaryProtocol.writeVarInt(frame, position, wordCount);
+            for (int i = 0; i < wordCount; i++) {
+                position = BinaryProtocol.writeVarInt(frame, position, messageWordIds[i]);
+            }
+        } else {
+            byte[] headline = message.substring(0, priorityIdx).getBytes(StandardCharsets.UTF_8);
+            frame[position++] = (byte) header;
+            position = BinaryProtocol.writeVarInt(frame, position, headline.length);
+            System.arraycopy(headline, 0, frame, position, headline.length);
+            position += headline.length;
+        }
+    }
+
+    private static int maxEncodedLength(int headlineChars) {
+        // word ids never take more than the words themselves
+        return MAX_MESSAGE_OVERHEAD + MAX_BYTES_PER_CHAR * headlineChars;
+    }
+
+    /**
+     * Splits a headline made of words followed by a single space each, i.e. the messages of {@link MessageGenerator}
+     *
+     * @return the number of words or -1 if the headline cannot be sent as word ids
+     */
+    private int toWordIds(String message, int headlineEnd) {
+        int count = 0;
+        int wordStart = 0;
+        for (int i = 0; i < headlineEnd; i++) {
+            if (message.charAt(i) != ' ') {
+                continue;
+            }
+            Integer wordId = i > wordStart ? wordIds.get(message.substring(wordStart, i)) : null;
+            if (wordId == null) {
+                return -1;
+            }
+            if (count == messageWordIds.length) {
+                messageWordIds = Arrays.copyOf(messageWordIds, 2 * count);
+            }
+            messageWordIds[count++] = wordId;
+            wordStart = i + 1;
+        }
+        return wordStart == headlineEnd && count > 0 ? count : -1;
+    }
+
+    private void writeFrame() {
+        if (position == BinaryProtocol.LENGTH_BYTES) {
+            return;
+        }
+        BinaryProtocol.writeInt(frame, 0, position - BinaryProtocol.LENGTH_BYTES);
+        try {
+            out.write(frame, 0, position);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            position = BinaryProtocol.LENGTH_BYTES;
+        }
+    }
+
+    /**
+     * Writes the current frame, if it holds any messages
+     *
+     * @throws IOException if the frame cannot be written
+     */
+    @Override
+    public void flush() throws IOException {
+        try {
+            writeFrame();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,109 @@
+package org.test.news;
+
+/**
+ * The compact binary protocol a {@link Feed} can use instead of newline delimited text messages.
+ * <p>
+ * The feed starts the connection with a preamble: {@link #MAGIC}, a version byte, a flags byte and the fingerprint of its
+ * {@link Dictionary} as a big endian int. The analyzer answers with a single byte holding the flags it accepts, i.e. word
+ * ids are only accepted if both sides use the same dictionary. Since a text message can never start with a 0 byte, the
+ * analyzer tells the two protocols apart from the first byte of the connection and text feeds work as before.
+ * </p>
+ * <p>
+ * After the preamble, the feed sends frames made of a big endian int length followed by that many bytes of messages. Each
+ * message starts with a header byte holding the priority in the low 4 bits; if the {@link #WORD_IDS} bit is set, the
+ * header is followed by the number of words and the index of each word in the dictionary, otherwise it is followed by the
+ * length of the UTF-8 encoded headline and the headline itself. All these numbers are unsigned varints.
+ * </p>
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+public final class BinaryProtocol {
+
+    protected static final byte[] MAGIC = {0, 'N', 'W', 'S'};
+    protected static final byte VERSION = 1;
+    protected static final int PREAMBLE_LENGTH = MAGIC.length + 6;
+    protected static final int LENGTH_BYTES = 4;
+    protected static final int MAX_FRAME_LENGTH = 64 * 1024;
+
+    /**
+     * preamble flag: the feed wants to send dictionary word ids
+     */
+    protected static final int FLAG_WORD_IDS = 1;
+
+    /**
+     * message header bit: the message holds word ids instead of the headline bytes
+     */
+    protected static final int WORD_IDS = 0x80;
+    protected static final int PRIORITY_MASK = 0x0f;
+
+    private BinaryProtocol() {
+    }
+
+    /**
+     * Returns the preamble a feed sends when connecting
+     *
+     * @param flags the requested flags
+     * @param dictionary the dictionary of the feed; never {@code null}
+     * @return the preamble bytes, never {@code null}
+     */
+    protected static byte[] preamble(int flags, Dictionary dictionary) {
+        byte[] preamble = new byte[PREAMBLE_LENGTH];
+        System.arraycopy(MAGIC, 0, preamble, 0, MAGIC.length);
+        preamble[MAGIC.length] = VERSION;
+        preamble[MAGIC.length + 1] = (byte) flags;
+        writeInt(preamble, MAGIC.length + 2, dictionary.fingerprint());
+        return preamble;
+    }
+
+    /**
+     * Checks the preamble received from a feed
+     *
+     * @param preamble the buffer holding {@link #PREAMBLE_LENGTH} bytes; never {@code null}
+     * @param dictionary the dictionary of the analyzer; never {@code null}
+     * @return the flags accepted by the analyzer or -1 if the bytes are not a valid preamble
+     */
+    protected static int acceptedFlags(byte[] preamble, Dictionary dictionary) {
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (preamble[i] != MAGIC[i]) {
+                return -1;
+            }
+        }
+        if (preamble[MAGIC.length] != VERSION) {
+            return -1;
+        }
+        int flags = preamble[MAGIC.length + 1] & FLAG_WORD_IDS;
+        if (readInt(preamble, MAGIC.length + 2) != dictionary.fingerprint()) {
+            flags &= ~FLAG_WORD_IDS;
+        }
+        return flags;
+    }
+
+    protected static void writeInt(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >>> 24);
+        data[offset + 1] = (byte) (value >>> 16);
+        data[offset + 2] = (byte) (value >>> 8);
+        data[offset + 3] = (byte) value;
+    }
+
+    protected static int readInt(byte[] data, int offset) {
+        return (data[offset] & 0xff) << 24 | (data[offset + 1] & 0xff) << 16 | (data[offset + 2] & 0xff) << 8 |
+               data[offset + 3] & 0xff;
+    }
+
+    /**
+     * Writes an unsigned varint
+     *
+     * @param data the buffer; never {@code null}
+     * @param offset the index where the value is written
+     * @param value a positive value
+     * @return the index after the last byte written
+     */
+    protected static int writeVarInt(byte[] data, int offset, int value) {
+        while ((value & ~0x7f) != 0) {
+            data[offset++] = (byte) (value & 0x7f | 0x80);
+            value >>>= 7;
+        }
+        data[offset++] = (byte) value;
+        return offset;
+    }
+}
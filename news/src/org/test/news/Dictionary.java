@@ -1,42 +1,204 @@
 package org.test.news;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
- * A simple holder of words in the context of {@link Analyzer} and {@link Feed}
- * 
+ * A simple holder of words in the context of {@link Analyzer} and {@link Feed}. Each word has an integer weight: words with
+ * a positive weight are "good" words and words with a negative weight are "bad" words.
+ *
  * @author Horia Chiorean (horia.chiorean@gmail.com)
  */
 public final class Dictionary {
-    
-    protected static final Dictionary INSTANCE = new Dictionary();
-    
-    private static final List<String> GOOD_WORDS = Collections.unmodifiableList(
+
+    private static final List<String> DEFAULT_GOOD_WORDS = Collections.unmodifiableList(
             Arrays.asList("up", "rise", "good", "success", "high", "über"));
-    
-    private static final List<String> BAD_WORDS = Collections.unmodifiableList(
+
+    private static final List<String> DEFAULT_BAD_WORDS = Collections.unmodifiableList(
             Arrays.asList("down", "fall", "bad", "failure", "low", "unter"));
-    
-    private static final List<String> ALL_WORDS = Collections.unmodifiableList(
-            Stream.concat(GOOD_WORDS.stream(), BAD_WORDS.stream())
-                  .collect(Collectors.toList()));
-    
-    private Dictionary() {
-    }
-    
+
+    protected static final Dictionary INSTANCE = new Dictionary(
+            Stream.concat(DEFAULT_GOOD_WORDS.stream(), DEFAULT_BAD_WORDS.stream()).collect(Collectors.toList()),
+            Stream.concat(DEFAULT_GOOD_WORDS.stream().map(word -> 1), DEFAULT_BAD_WORDS.stream().map(word -> -1))
+                  .mapToInt(Integer::intValue)
+                  .toArray());
+
+    private final List<String> allWords;
+    private final int[] weights;
+    private final List<String> goodWords;
+    private final List<String> badWords;
+    private final int fingerprint;
+
+    private Dictionary(List<String> words, int[] weights) {
+        if (words.size() != weights.length) {
+            throw new IllegalArgumentException("each word must have a weight");
+        }
+        this.allWords = Collections.unmodifiableList(new ArrayList<>(words));
+        this.weights = canonicalWeights(words, weights);
+        List<String> good = new ArrayList<>();
+        List<String> bad = new ArrayList<>();
+        for (int i = 0; i < words.size(); i++) {
+            if (this.weights[i] > 0) {
+                good.add(words.get(i));
+            } else if (this.weights[i] < 0) {
+                bad.add(words.get(i));
+            }
+        }
+        this.goodWords = Collections.unmodifiableList(good);
+        this.badWords = Collections.unmodifiableList(bad);
+        this.fingerprint = allWords.hashCode();
+    }
+
+    /**
+     * Gives all the occurrences of a word the weight of its last occurrence, which is the one kept by the {@link WordTable},
+     * so a word scores the same whether a message has it as text or as a word id
+     */
+    private static int[] canonicalWeights(List<String> words, int[] weights) {
+        Map<String, Integer> lastWeights = new HashMap<>();
+        for (int i = 0; i < words.size(); i++) {
+            lastWeights.put(words.get(i), weights[i]);
+        }
+        int[] canonical = weights.clone();
+        if (lastWeights.size() < words.size()) {
+            for (int i = 0; i < words.size(); i++) {
+                canonical[i] = lastWeights.get(words.get(i));
+            }
+        }
+        return canonical;
+    }
+
+    /**
+     * Creates a new dictionary from a list of words and their weights; a word which occurs several times has the weight
+     * of its last occurrence
+     *
+     * @param words the words, never {@code null}; words cannot contain whitespace
+     * @param weights the weight of each word, never {@code null}
+     * @return a {@link Dictionary} instance, never {@code null}
+     */
+    protected static Dictionary of(List<String> words, int[] weights) {
+        words.forEach(Dictionary::validateWord);
+        return new Dictionary(words, weights);
+    }
+
+    /**
+     * Loads a dictionary from an UTF-8 file which contains a {@code <word> <weight>} pair on each line. Empty lines and
+     * lines starting with {@code #} are ignored.
+     *
+     * @param file the file; never {@code null}
+     * @return a {@link Dictionary} instance, never {@code null}
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if the file contains an invalid line or the same word twice
+     */
+    protected static Dictionary load(Path file) throws IOException {
+        List<String> words = new ArrayList<>();
+        Map<String, Integer> wordLines = new HashMap<>();
+        int[] weights = new int[1024];
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] parts = line.split("\\s+");
+                if (parts.length != 2) {
+                    throw new IllegalArgumentException(String.format("Invalid entry at %s:%d; expected <word> <weight>", file, lineNumber));
+                }
+                validateWord(parts[0]);
+                Integer previousLine = wordLines.putIfAbsent(parts[0], lineNumber);
+                if (previousLine != null) {
+                    throw new IllegalArgumentException(String.format("Duplicate word '%s' at %s:%d, already at line %d", parts[0],
+                                                                     file, lineNumber, previousLine));
+                }
+                try {
+                    if (words.size() == weights.length) {
+                        weights = Arrays.copyOf(weights, weights.length * 2);
+                    }
+                    weights[words.size()] = Integer.parseInt(parts[1]);
+                    words.add(parts[0]);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(String.format("Invalid weight at %s:%d: %s", file, lineNumber, parts[1]));
+                }
+            }
+        }
+        return new Dictionary(words, Arrays.copyOf(weights, words.size()));
+    }
+
+    private static void validateWord(String word) {
+        if (word.isEmpty() || word.chars().anyMatch(Character::isWhitespace)) {
+            throw new IllegalArgumentException("Invalid word: '" + word + "'");
+        }
+    }
+
     protected List<String> allWords() {
-        return ALL_WORDS;
+        return allWords;
     }
-    
+
     protected List<String> goodWords() {
-        return GOOD_WORDS;
-    }                     
-    
+        return goodWords;
+    }
+
     protected List<String> badWords() {
-        return BAD_WORDS;
+        return badWords;
+    }
+
+    /**
+     * Returns the weight of a word
+     *
+     * @param index the index of the word in {@link #allWords()}
+     * @return the weight of the word
+     */
+    protected int weight(int index) {
+        return weights[index];
+    }
+
+    /**
+     * Returns a hash of all the words and their order, used to check that a {@link Feed} and an {@link Analyzer} agree on
+     * the index of each word
+     *
+     * @return the fingerprint
+     */
+    protected int fingerprint() {
+        return fingerprint;
+    }
+
+    public static void main(String[] args) throws IOException {
+        //junit...sigh
+        Path file = Files.createTempFile("dictionary", ".txt");
+        try {
+            Files.write(file, Arrays.asList("# weights", "up 2", "", "down -1"), StandardCharsets.UTF_8);
+            Dictionary dictionary = load(file);
+            if (!dictionary.allWords().equals(Arrays.asList("up", "down")) || dictionary.weight(0) != 2 || dictionary.weight(1) != -1) {
+                throw new IllegalStateException("incorrect dictionary: " + dictionary.allWords());
+            }
+            Files.write(file, Arrays.asList("up 2", "down -1", "up 5"), StandardCharsets.UTF_8);
+            try {
+                load(file);
+                throw new IllegalStateException("a duplicate word was accepted");
+            } catch (IllegalArgumentException e) {
+                if (!e.getMessage().startsWith("Duplicate word 'up'") || !e.getMessage().endsWith(":3, already at line 1")) {
+                    throw new IllegalStateException("incorrect error: " + e.getMessage());
+                }
+            }
+        } finally {
+            Files.delete(file);
+        }
+        Dictionary duplicates = of(Arrays.asList("up", "down", "up"), new int[] {1, -1, 3});
+        if (duplicates.weight(0) != 3 || duplicates.weight(2) != 3 || !duplicates.goodWords().equals(Arrays.asList("up", "up"))) {
+            throw new IllegalStateException("incorrect weights of a duplicate word");
+        }
     }
 }
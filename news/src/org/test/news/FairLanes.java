@@ -0,0 +1,295 @@
+package org.test.news;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The items of a {@link NewsItemBuffer} with {@link NewsItemBuffer.Scheduling#FAIR} scheduling: the priorities are grouped
+ * in {@link #BANDS} bands (0-3, 4-7 and 8-9) and each band keeps a separate lane of items for each feed.
+ * <p>
+ * The bands are scheduled by deficit round robin: each time a band gets its turn it can take as many items as its weight,
+ * so under overload the bands get shares of the aggregation proportional to their weights and an item of a band only ever
+ * waits for the quantum of each of the other bands, however many items they hold. Within a band, the lanes of the feeds
+ * take turns one item at a time, so a chatty feed cannot starve the other feeds of the same band.
+ * </p>
+ * <p>
+ * This class is not thread safe, the buffer guards it with its lock.
+ * </p>
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+public class FairLanes {
+
+    protected static final int BANDS = 3;
+    private static final String[] BAND_NAMES = {"low", "medium", "high"};
+
+    private final int[] weights;
+    private final Band[] bands;
+    private int current;
+    private int size;
+
+    /**
+     * Creates empty lanes
+     *
+     * @param weights the weight of each band, from the lowest to the highest priorities; never {@code null}
+     * @throws IllegalArgumentException if there isn't a positive weight for each band
+     */
+    protected FairLanes(int[] weights) {
+        if (weights.length != BANDS || Arrays.stream(weights).anyMatch(weight -> weight <= 0)) {
+            throw new IllegalArgumentException("There must be a positive weight for each of the " + BANDS + " bands: " +
+                                               Arrays.toString(weights));
+        }
+        this.weights = weights.clone();
+        this.bands = new Band[BANDS];
+        for (int i = 0; i < BANDS; i++) {
+            bands[i] = new Band();
+        }
+        // so that the first turn goes to the highest band
+        this.current = 0;
+    }
+
+    /**
+     * Returns the band of a priority
+     *
+     * @param priority the priority, between 0 and 9
+     * @return the index of the band, between 0 (the lowest priorities) and {@link #BANDS} (exclusive)
+     */
+    protected static int band(int priority) {
+        return priority < 4 ? 0 : priority < 8 ? 1 : 2;
+    }
+
+    protected static String bandName(int band) {
+        return BAND_NAMES[band];
+    }
+
+    /**
+     * Adds an item at the end of the lane of its feed
+     *
+     * @param item the item; never {@code null}
+     */
+    protected void add(NewsItem item) {
+        bands[band(item.priority())].add(item);
+        size++;
+    }
+
+    /**
+     * Removes the next scheduled item
+     *
+     * @return the item or {@code null} if there are no items
+     */
+    protected NewsItem poll() {
+        if (size == 0) {
+            return null;
+        }
+        while (true) {
+            Band band = bands[current];
+            if (band.size > 0 && band.deficit > 0) {
+                band.deficit--;
+                size--;
+                return band.poll();
+            }
+            if (band.size == 0) {
+                // an idle band doesn't save up its turns
+                band.deficit = 0;
+            }
+            // from the highest band to the lowest
+            current = current == 0 ? BANDS - 1 : current - 1;
+            if (bands[current].size > 0) {
+                bands[current].deficit += weights[current];
+            }
+        }
+    }
+
+    /**
+     * Removes an item with a lower priority than a given one from the feed with the most items among the feeds of a band
+     * which have such items: the oldest item of the lowest priority of that feed
+     *
+     * @param band the index of the band
+     * @param priority the priority of the item which needs the room; only items with a lower priority are removed
+     * @return the removed item or {@code null} if the band has no item with a lower priority
+     */
+    protected NewsItem evictFromLongestLane(int band, int priority) {
+        NewsItem item = bands[band].evictFromLongestLane(priority);
+        if (item != null) {
+            size--;
+        }
+        return item;
+    }
+
+    protected int size() {
+        return size;
+    }
+
+    protected int bandSize(int band) {
+        return bands[band].size;
+    }
+
+    /**
+     * Returns the number of lanes, i.e. of the feeds with items in each band
+     *
+     * @return the number of lanes
+     */
+    protected int laneCount() {
+        int lanes = 0;
+        for (Band band : bands) {
+            lanes += band.lanes.size();
+        }
+        return lanes;
+    }
+
+    /**
+     * The lanes of the feeds with items of a band, the non-empty ones in the order of their next turn
+     */
+    private static final class Band {
+        private final Map<Integer, Lane> lanes;
+        private final ArrayDeque<Lane> turns;
+        private int size;
+        private int deficit;
+
+        private Band() {
+            this.lanes = new HashMap<>();
+            this.turns = new ArrayDeque<>();
+        }
+
+        private void add(NewsItem item) {
+            Lane lane = lanes.get(item.feed());
+            if (lane == null) {
+                lane = new Lane(item.feed());
+                lanes.put(item.feed(), lane);
+                turns.addLast(lane);
+            }
+            lane.add(item);
+            size++;
+        }
+
+        private NewsItem poll() {
+            Lane lane = turns.pollFirst();
+            NewsItem item = lane.pollFirst();
+            if (lane.items.isEmpty()) {
+                // the lanes of the feeds which stopped sending are not kept around
+                lanes.remove(lane.feed);
+            } else {
+                turns.addLast(lane);
+            }
+            size--;
+            return item;
+        }
+
+        private NewsItem evictFromLongestLane(int priority) {
+            Lane longest = null;
+            for (Lane lane : turns) {
+                if (lane.lowestPriority() < priority && (longest == null || lane.items.size() > longest.items.size())) {
+                    longest = lane;
+                }
+            }
+            if (longest == null) {
+                return null;
+            }
+            NewsItem item = longest.remove(longest.lowestPriority());
+            if (longest.items.isEmpty()) {
+                lanes.remove(longest.feed);
+                turns.remove(longest);
+            }
+            size--;
+            return item;
+        }
+    }
+
+    private static final class Lane {
+        private final int feed;
+        private final ArrayDeque<NewsItem> items;
+        // the number of items of each priority, so the lanes without items of lower priorities are skipped by the eviction
+        private final int[] counts;
+
+        private Lane(int feed) {
+            this.feed = feed;
+            this.items = new ArrayDeque<>();
+            this.counts = new int[WindowSummary.PRIORITIES];
+        }
+
+        private void add(NewsItem item) {
+            items.addLast(item);
+            counts[item.priority()]++;
+        }
+
+        private NewsItem pollFirst() {
+            NewsItem item = items.pollFirst();
+            counts[item.priority()]--;
+            return item;
+        }
+
+        private int lowestPriority() {
+            for (int priority = 0; priority < counts.length; priority++) {
+                if (counts[priority] > 0) {
+                    return priority;
+                }
+            }
+            return counts.length;
+        }
+
+        /**
+         * Removes the oldest item of a priority, which must be in the lane
+         */
+        private NewsItem remove(int priority) {
+            for (Iterator<NewsItem> iterator = items.iterator(); ; ) {
+                NewsItem item = iterator.next();
+                if (item.priority() == priority) {
+                    iterator.remove();
+                    counts[priority]--;
+                    return item;
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        //junit...sigh
+        FairLanes lanes = new FairLanes(new int[] {1, 2, 4});
+        for (int i = 0; i < 100; i++) {
+            lanes.add(new NewsItem((byte) 0, "low " + i, "chatty"));
+            lanes.add(new NewsItem((byte) 9, "high " + i, "chatty"));
+            lanes.add(new NewsItem((byte) 5, "medium " + i, "chatty"));
+        }
+        lanes.add(new NewsItem((byte) 1, "quiet", "quiet"));
+        int chatty = FeedRegistry.INSTANCE.intern("chatty");
+        int quiet = FeedRegistry.INSTANCE.intern("quiet");
+        if (lanes.size() != 301 || lanes.bandSize(0) != 101 || lanes.laneCount() != 4) {
+            throw new IllegalStateException("incorrect sizes");
+        }
+        int[] taken = new int[BANDS];
+        boolean quietTaken = false;
+        for (int i = 0; i < 70; i++) {
+            NewsItem item = lanes.poll();
+            taken[band(item.priority())]++;
+            quietTaken |= item.feed() == quiet;
+        }
+        // 10 rounds of 4 high, 2 medium and 1 low, where the quiet feed gets the second low turn
+        if (taken[2] != 40 || taken[1] != 20 || taken[0] != 10 || !quietTaken) {
+            throw new IllegalStateException("incorrect scheduling: " + Arrays.toString(taken));
+        }
+        NewsItem evicted = lanes.evictFromLongestLane(0, 1);
+        if (evicted.feed() != chatty || evicted.priority() != 0 || lanes.laneCount() != 3) {
+            throw new IllegalStateException("incorrect eviction: " + evicted);
+        }
+        // only lower priorities are evicted
+        if (lanes.evictFromLongestLane(0, 0) != null || lanes.evictFromLongestLane(2, 9) != null) {
+            throw new IllegalStateException("an item with the same priority was evicted");
+        }
+        int remaining = 0;
+        while (lanes.poll() != null) {
+            remaining++;
+        }
+        if (remaining != 230 || lanes.size() != 0 || lanes.laneCount() != 0 || lanes.evictFromLongestLane(2, 9) != null) {
+            throw new IllegalStateException("incorrect: " + remaining);
+        }
+        try {
+            new FairLanes(new int[] {1, 0, 1});
+            throw new IllegalStateException("invalid weights accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
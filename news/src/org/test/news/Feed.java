@@ -1,12 +1,20 @@
 package org.test.news;
 
+import java.io.Flushable;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.util.Locale;
+import java.util.UUID;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * A feed which sends words periodically to a {@link Analyzer} based on the rules from {@link MessageGenerator}
@@ -15,15 +23,44 @@ import java.util.concurrent.TimeUnit;
  */
 public class Feed {
     
-    private static final Logger LOGGER = new Logger(false);
+    /**
+     * How the messages are sent to the analyzer
+     */
+    protected enum Protocol {
+        /**
+         * one line of text per message
+         */
+        TEXT,
+        /**
+         * batched frames of the {@link BinaryProtocol}, falling back to text if the analyzer doesn't support it
+         */
+        BINARY;
+        
+        protected static Protocol parse(String value) {
+            try {
+                return Protocol.valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown protocol: " + value);
+            }
+        }
+    }
+    
+    private static final Logger LOGGER = new Logger(Feed.class);
+    private static final int NEGOTIATION_TIMEOUT_MILLIS = 2000;
     
     private final int numberOfItems;
     private final long frequencyMillis;
     private final int port;
     private final InetAddress host;
     private final MessageGenerator messageGenerator;
+    private Protocol protocol;
     
     public Feed(int numberOfItems, int frequency, InetAddress host, int port) {
+        this(numberOfItems, frequency, host, port, Protocol.TEXT);
+    }
+    
+    protected Feed(int numberOfItems, int frequency, InetAddress host, int port, Protocol protocol) {
+        this.protocol = protocol;
         this.numberOfItems = numberOfItems;
         this.frequencyMillis = TimeUnit.SECONDS.toMillis(frequency);
         this.port = port;
@@ -38,22 +75,36 @@ public class Feed {
             try (Socket socket = new Socket(host, port); OutputStream outputStream = socket.getOutputStream();
                  PrintWriter writer = new PrintWriter(outputStream, true)) {
                 socket.setKeepAlive(true);
+                Consumer<String> sender = writer::println;
+                Flushable batch = writer;
+                if (protocol == Protocol.BINARY) {
+                    BinaryFrameWriter frameWriter = negotiate(socket);
+                    sender = frameWriter::write;
+                    batch = frameWriter;
+                }
                 connectSuccessful = true;
-                System.out.printf("Connected to server %s:%d %n", host, port);
+                System.out.printf("Connected to server %s:%d (%s protocol) %n", host, port, protocol);
                 System.out.printf("Sending %d messages every %d seconds%n", numberOfItems, frequencyMillis / 1000);
+                long nextBatchMillis = System.currentTimeMillis();
                 while (!Thread.currentThread().isInterrupted()) {
-                    long start = System.currentTimeMillis();
-                    while (System.currentTimeMillis() - start < frequencyMillis) {
-                        //spin wait...                      
-                        Thread.sleep(1000);
-                    }
+                    // at a fixed rate, regardless of how long sending a batch takes
+                    nextBatchMillis += frequencyMillis;
+                    Thread.sleep(Math.max(0, nextBatchMillis - System.currentTimeMillis()));
                     System.out.printf("sending %d messages to server %n", numberOfItems);
+                    Consumer<String> batchSender = sender;
                     messageGenerator.generateMessages(numberOfItems, message -> {
-                        LOGGER.log("sent message %s", message);
-                        writer.println(message);
+                        if (LOGGER.isEnabled()) {
+                            LOGGER.log("sent message %s", message);
+                        }
+                        batchSender.accept(message);
                     });
+                    batch.flush();
                 }
-            } catch (IOException e) {
+            } catch (ProtocolException | SocketTimeoutException e) {
+                System.out.printf("Server %s:%d does not support the binary protocol (%s); falling back to text %n", host, port,
+                                  e.getMessage());
+                protocol = Protocol.TEXT;
+            } catch (IOException | UncheckedIOException e) {
                 System.out.printf("Cannot connect to server %s:%d; reason: %s %n", host, port, e.getMessage());
                 if (--retryAttempt >= 0) {
                     try {
@@ -70,6 +121,16 @@ public class Feed {
         }
     }
     
+    private BinaryFrameWriter negotiate(Socket socket) throws IOException {
+        socket.setSoTimeout(NEGOTIATION_TIMEOUT_MILLIS);
+        int acceptedFlags = BinaryFrameWriter.negotiate(socket.getInputStream(), socket.getOutputStream(),
+                                                        BinaryProtocol.FLAG_WORD_IDS, Dictionary.INSTANCE);
+        socket.setSoTimeout(0);
+        boolean wordIds = (acceptedFlags & BinaryProtocol.FLAG_WORD_IDS) != 0;
+        LOGGER.log(Logger.Level.INFO, "binary protocol negotiated, word ids: %s", wordIds);
+        return new BinaryFrameWriter(socket.getOutputStream(), wordIds ? Dictionary.INSTANCE : null);
+    }
+    
     public static void main(String[] args) {
         
         String port = "8913";
@@ -81,20 +142,30 @@ public class Feed {
         try {
             numberOfItems = argsCount >= 1 ? Integer.valueOf(args[0]) : numberOfItems;
             frequency = argsCount >= 2 ? Integer.valueOf(args[1]) : frequency;
-            if (argsCount > 2) {
+            port = argsCount > 3 ? args[3] : port;
+            String shards = System.getProperty("shards");
+            if (shards != null) {
+                // the host and port are picked from the shards instead
+                String feedId = System.getProperty("feed.id", UUID.randomUUID().toString());
+                InetSocketAddress shard = ShardRing.parse(shards).shardFor(feedId);
+                System.out.printf("Feed %s uses shard %s %n", feedId, shard);
+                hostName = shard.getHostString();
+                port = String.valueOf(shard.getPort());
+                host = InetAddress.getByName(hostName);
+            } else if (argsCount > 2) {
                 hostName = args[2];
                 host = InetAddress.getByName(hostName);
             } else {
                 host = InetAddress.getLocalHost();
             }
-            port = argsCount > 3 ? args[3] : port;
             int portNr = Integer.valueOf(port);
-            System.out.printf("Usage: Feed [number_of_items:%d] [frequency_seconds:%d] [host:%s] [port:%s] %n", numberOfItems,
-                              frequency, hostName, port);
+            Protocol protocol = argsCount > 4 ? Protocol.parse(args[4]) : Protocol.TEXT;
+            System.out.printf("Usage: Feed [number_of_items:%d] [frequency_seconds:%d] [host:%s] [port:%s] [protocol(text|binary):%s] %n",
+                              numberOfItems, frequency, hostName, port, protocol.name().toLowerCase());
             System.out.printf("...attempting to connect to %s:%s %n", hostName, port);
-            Feed feed = new Feed(numberOfItems, frequency, host, portNr);
+            Feed feed = new Feed(numberOfItems, frequency, host, portNr, protocol);
             feed.start();
-        } catch (NumberFormatException e) {
+        } catch (IllegalArgumentException e) {
             System.out.println("Invalid input: " + e.getMessage());
             System.exit(-1);
         } catch (UnknownHostException e) {
@@ -0,0 +1,243 @@
+package org.test.news;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Decodes everything a single feed sends, in either of the protocols a {@link Feed} can use: the first byte of the
+ * connection tells whether the feed sends newline delimited text messages or starts with the preamble of the
+ * {@link BinaryProtocol}. The positive messages are handed over to a consumer.
+ * <p>
+ * With a {@link ScoringPipeline}, the text messages are only framed by the thread decoding the feed and are scored by the
+ * workers of the pipeline, which hand over the positive ones to the sink of the pipeline instead.
+ * </p>
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+public class FeedDecoder {
+
+    private static final Logger LOGGER = new Logger(FeedDecoder.class);
+
+    private final MessageParser parser;
+    private final Consumer<NewsItem> sink;
+    private final int maxLineLength;
+    private final ScoringPipeline pipeline;
+    private final byte[] preamble;
+    private int preambleLength;
+    private ScoringPipeline.Lane lane;
+    private LineFramer lineFramer;
+    private BinaryFrameDecoder frameDecoder;
+    private int reply;
+
+    protected FeedDecoder(MessageParser parser, Consumer<NewsItem> sink, int maxLineLength) {
+        this(parser, sink, maxLineLength, null);
+    }
+
+    /**
+     * Creates a decoder which scores the text messages in a pipeline
+     *
+     * @param parser the parser of the feed; never {@code null}
+     * @param sink receives the positive binary messages, from the thread decoding the feed; never {@code null}
+     * @param maxLineLength the maximum length of a text message
+     * @param pipeline the pipeline scoring the text messages or {@code null} if they should be scored by the thread decoding
+     * the feed as well
+     */
+    protected FeedDecoder(MessageParser parser, Consumer<NewsItem> sink, int maxLineLength, ScoringPipeline pipeline) {
+        this.parser = parser;
+        this.sink = sink;
+        this.maxLineLength = maxLineLength;
+        this.pipeline = pipeline;
+        this.preamble = new byte[BinaryProtocol.PREAMBLE_LENGTH];
+        this.reply = -1;
+    }
+
+    /**
+     * Decodes the next chunk of data received from the feed
+     *
+     * @param data the buffer with the data; never {@code null}
+     * @param from the index of the first byte (inclusive)
+     * @param to the index of the last byte (exclusive)
+     * @throws ProtocolException if the feed sent invalid binary data, in which case the connection should be closed
+     */
+    protected void decode(byte[] data, int from, int to) throws ProtocolException {
+        long now = System.nanoTime();
+        if (lane != null) {
+            // the parser belongs to the workers of the pipeline now
+            lane.receivedAt(now);
+        } else {
+            parser.receivedAt(now);
+        }
+        try {
+            if (lineFramer != null) {
+                lineFramer.frame(data, from, to);
+            } else if (frameDecoder != null) {
+                frameDecoder.decode(data, from, to);
+            } else if (from < to) {
+                detectProtocol(data, from, to);
+            }
+        } catch (ProtocolException e) {
+            parser.metrics().dropped(AnalyzerMetrics.DropReason.PROTOCOL_ERROR);
+            throw e;
+        }
+        if (lane != null) {
+            // the messages of a read are scored together, without waiting for the next read
+            lane.flush();
+        }
+    }
+
+    private void detectProtocol(byte[] data, int from, int to) throws ProtocolException {
+        if (preambleLength == 0 && data[from] != BinaryProtocol.MAGIC[0]) {
+            useText();
+            lineFramer.frame(data, from, to);
+            return;
+        }
+        int length = Math.min(to - from, preamble.length - preambleLength);
+        System.arraycopy(data, from, preamble, preambleLength, length);
+        preambleLength += length;
+        if (preambleLength < preamble.length) {
+            return;
+        }
+        int acceptedFlags = BinaryProtocol.acceptedFlags(preamble, parser.dictionary());
+        if (acceptedFlags < 0) {
+            // not a preamble after all, so whatever it is goes through the text parsing
+            useText();
+            lineFramer.frame(preamble, 0, preambleLength);
+            lineFramer.frame(data, from + length, to);
+            return;
+        }
+        LOGGER.log(Logger.Level.INFO, "binary protocol with flags %d", acceptedFlags);
+        this.reply = acceptedFlags;
+        this.frameDecoder = new BinaryFrameDecoder(parser, sink, acceptedFlags);
+        frameDecoder.decode(data, from + length, to);
+    }
+
+    private void useText() {
+        if (pipeline != null) {
+            this.lane = pipeline.lane(parser);
+            lane.receivedAt(System.nanoTime());
+        }
+        this.lineFramer = new LineFramer(maxLineLength, new LineFramer.LineHandler() {
+            @Override
+            public void onLine(byte[] data, int from, int to) {
+                process(data, from, to);
+            }
+
+            @Override
+            public void onDiscard() {
+                parser.metrics().received();
+                parser.metrics().dropped(AnalyzerMetrics.DropReason.TOO_LONG);
+            }
+        });
+    }
+
+    private void process(byte[] data, int from, int to) {
+        LOGGER.log(Logger.Level.DEBUG, "received %s", data, from, to);
+        if (lane != null) {
+            lane.add(data, from, to);
+            return;
+        }
+        NewsItem item = parser.parse(data, from, to);
+        if (item != null) {
+            sink.accept(item);
+        }
+    }
+
+    /**
+     * Returns the byte which must be sent back to the feed once the binary protocol was negotiated; this is only returned once
+     *
+     * @return the accepted flags of the binary protocol or -1 if nothing must be sent
+     */
+    protected int takeReply() {
+        int reply = this.reply;
+        this.reply = -1;
+        return reply;
+    }
+
+    /**
+     * Stops tracking the metrics of the feed, once it disconnected
+     */
+    protected void close() {
+        if (lane != null) {
+            // the metrics are closed by the pipeline once the queued messages were scored
+            lane.close();
+        } else {
+            parser.metrics().close();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        //junit...sigh
+        MessageGenerator generator = new MessageGenerator(1, 5);
+        List<String> messages = new ArrayList<>();
+        generator.generateMessages(1000, messages::add);
+        messages.add("up rise unknown 4");
+        messages.add("up  rise 4");
+        messages.add("über über 5");
+
+        List<NewsItem> expected = new ArrayList<>();
+        MessageParser parser = new MessageParser("feed", PhraseScorer.INSTANCE);
+        for (String message : messages) {
+            byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+            NewsItem item = parser.parse(bytes, 0, bytes.length);
+            if (item != null) {
+                expected.add(item);
+            }
+        }
+        for (int flags : new int[] {0, BinaryProtocol.FLAG_WORD_IDS}) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(BinaryProtocol.preamble(flags, Dictionary.INSTANCE));
+            BinaryFrameWriter writer = new BinaryFrameWriter(out, flags != 0 ? Dictionary.INSTANCE : null);
+            messages.forEach(writer::write);
+            writer.flush();
+            byte[] binary = out.toByteArray();
+            // all at once and one byte at a time
+            for (int chunk : new int[] {binary.length, 1}) {
+                List<NewsItem> actual = new ArrayList<>();
+                FeedDecoder decoder = new FeedDecoder(parser, actual::add, 1024);
+                for (int i = 0; i < binary.length; i += chunk) {
+                    decoder.decode(binary, i, Math.min(binary.length, i + chunk));
+                }
+                if (decoder.takeReply() != flags || decoder.takeReply() != -1 || !expected.equals(actual)) {
+                    throw new IllegalStateException("incorrect binary decoding with flags " + flags);
+                }
+            }
+        }
+
+        List<NewsItem> actual = new ArrayList<>();
+        FeedDecoder decoder = new FeedDecoder(parser, actual::add, 1024);
+        byte[] text = (String.join("\n", messages) + "\n").getBytes(StandardCharsets.UTF_8);
+        decoder.decode(text, 0, text.length);
+        if (decoder.takeReply() != -1 || !expected.equals(actual)) {
+            throw new IllegalStateException("incorrect text decoding");
+        }
+
+        byte[] invalid = Arrays.copyOf(BinaryProtocol.preamble(0, Dictionary.INSTANCE), BinaryProtocol.PREAMBLE_LENGTH + 4);
+        BinaryProtocol.writeInt(invalid, BinaryProtocol.PREAMBLE_LENGTH, BinaryProtocol.MAX_FRAME_LENGTH + 1);
+        try {
+            new FeedDecoder(parser, actual::add, 1024).decode(invalid, 0, invalid.length);
+            throw new IllegalStateException("invalid frame length not detected");
+        } catch (ProtocolException e) {
+            // expected
+        }
+        // a message length or a word count which is a negative varint, e.g. 05 fa ff ff ff 0f
+        for (int header : new int[] {5, BinaryProtocol.WORD_IDS | 5}) {
+            byte[] preamble = BinaryProtocol.preamble(BinaryProtocol.FLAG_WORD_IDS, Dictionary.INSTANCE);
+            byte[] negative = Arrays.copyOf(preamble, preamble.length + 4 + 6);
+            BinaryProtocol.writeInt(negative, preamble.length, 6);
+            byte[] frame = {(byte) header, (byte) 0xfa, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x0f};
+            System.arraycopy(frame, 0, negative, preamble.length + 4, frame.length);
+            try {
+                new FeedDecoder(parser, actual::add, 1024).decode(negative, 0, negative.length);
+                throw new IllegalStateException("negative length not detected for header " + header);
+            } catch (ProtocolException e) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package org.test.news;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Pushes messages from {@link MessageGenerator} to a {@link Analyzer} at a target rate over many concurrent connections,
+ * to find out how much load the analyzer can take.
+ * <p>
+ * The pacing is open-loop: each message has an intended send time given by the target rate and the ramp-up profile, and
+ * a sender which falls behind (e.g. because the analyzer doesn't read fast enough) sends the late messages as soon as it
+ * can instead of skipping them. The send lag of each message is measured from its intended send time, so a stalled
+ * connection shows up in the lag instead of silently lowering the rate (i.e. without coordinated omission).
+ * </p>
+ * <p>
+ * The connections are split between a few sender threads, each writing the messages that are due in batches of text
+ * lines, round robin over its connections. A connection which fails is closed and its messages go to the other ones.
+ * </p>
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+public class FeedLoadGenerator {
+
+    /**
+     * How the rate grows to the target rate during the ramp-up
+     */
+    protected enum RampProfile {
+        /**
+         * the target rate from the start, without any ramp-up
+         */
+        CONSTANT,
+        /**
+         * from 0 to the target rate, linearly
+         */
+        LINEAR,
+        /**
+         * in {@link #STEPS} equal steps, each holding the rate for the same amount of time
+         */
+        STEP;
+
+        private static final int STEPS = 10;
+
+        protected static RampProfile parse(String value) {
+            try {
+                return RampProfile.valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown ramp profile: " + value);
+            }
+        }
+
+        /**
+         * Returns how many messages should have been sent after some time
+         *
+         * @param seconds the time since the start
+         * @param rate the target rate, in messages per second
+         * @param rampSeconds the duration of the ramp-up
+         * @return the (fractional) number of messages
+         */
+        protected double messages(double seconds, double rate, double rampSeconds) {
+            if (this == CONSTANT || seconds >= rampSeconds) {
+                return rate * (seconds - rampSeconds) + rampMessages(rampSeconds, rate, rampSeconds, this);
+            }
+            return rampMessages(seconds, rate, rampSeconds, this);
+        }
+
+        private static double rampMessages(double seconds, double rate, double rampSeconds, RampProfile profile) {
+            switch (profile) {
+                case LINEAR: {
+                    return rate * seconds * seconds / (2 * rampSeconds);
+                }
+                case STEP: {
+                    double stepSeconds = rampSeconds / STEPS;
+                    int steps = (int) Math.min(STEPS, seconds / stepSeconds);
+                    // the full steps, with rates of 1..steps tenths of the target, and the current one
+                    double full = rate * stepSeconds * steps * (steps + 1) / (2.0 * STEPS);
+                    return steps == STEPS ? full : full + rate * (steps + 1) / STEPS * (seconds - steps * stepSeconds);
+                }
+                default: {
+                    return 0;
+                }
+            }
+        }
+
+        /**
+         * Returns when a message should be sent, the inverse of {@link #messages(double, double, double)}
+         *
+         * @param message the number of messages sent before it
+         * @param rate the target rate, in messages per second
+         * @param rampSeconds the duration of the ramp-up
+         * @return the time since the start, in seconds
+         */
+        protected double seconds(long message, double rate, double rampSeconds) {
+            double rampMessages = rampMessages(rampSeconds, rate, rampSeconds, this);
+            if (this == CONSTANT || message >= rampMessages) {
+                return rampSeconds + (message - rampMessages) / rate;
+            }
+            if (this == LINEAR) {
+                return Math.sqrt(2 * message * rampSeconds / rate);
+            }
+            double stepSeconds = rampSeconds / STEPS;
+            int step = 0;
+            while (step < STEPS - 1 && rampMessages((step + 1) * stepSeconds, rate, rampSeconds, this) <= message) {
+                step++;
+            }
+            double stepRate = rate * (step + 1) / STEPS;
+            return step * stepSeconds + (message - rampMessages(step * stepSeconds, rate, rampSeconds, this)) / stepRate;
+        }
+    }
+
+    private static final int BATCH_BYTES = 64 * 1024;
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final InetAddress host;
+    private final int port;
+    private final int connections;
+    private final double rate;
+    private final int seconds;
+    private final RampProfile profile;
+    private final int rampSeconds;
+    private final LongAdder sent;
+    private final LongAdder bytes;
+    private final LongAdder writes;
+    private final LongAdder errors;
+    private final LongAdder unsent;
+    private final LatencyHistogram sendLag;
+
+    protected FeedLoadGenerator(InetAddress host, int port, int connections, double rate, int seconds, RampProfile profile,
+                                int rampSeconds) {
+        if (connections <= 0 || rate <= 0 || seconds <= 0) {
+            throw new IllegalArgumentException("the connections, rate and duration must be positive");
+        }
+        if (rampSeconds < 0 || rampSeconds > seconds) {
+            throw new IllegalArgumentException("the ramp-up must be between 0 and the duration");
+        }
+        this.host = host;
+        this.port = port;
+        this.connections = connections;
+        this.rate = rate;
+        this.seconds = seconds;
+        this.profile = rampSeconds > 0 ? profile : RampProfile.CONSTANT;
+        this.rampSeconds = this.profile != RampProfile.CONSTANT ? rampSeconds : 0;
+        this.sent = new LongAdder();
+        this.bytes = new LongAdder();
+        this.writes = new LongAdder();
+        this.errors = new LongAdder();
+        this.unsent = new LongAdder();
+        this.sendLag = new LatencyHistogram();
+    }
+
+    protected void run() throws InterruptedException {
+        int threadCount = Math.min(connections, Runtime.getRuntime().availableProcessors());
+        List<List<Socket>> sockets = new ArrayList<>(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            sockets.add(new ArrayList<>());
+        }
+        int connected = 0;
+        for (int i = 0; i < connections; i++) {
+            try {
+                Socket socket = new Socket(host, port);
+                socket.setTcpNoDelay(true);
+                sockets.get(i % threadCount).add(socket);
+                connected++;
+            } catch (IOException e) {
+                errors.increment();
+                System.out.printf("Cannot connect to server %s:%d; reason: %s %n", host, port, e.getMessage());
+            }
+        }
+        System.out.printf("%d connections, %d threads, %.0f msgs/sec (%s ramp-up over %ds) for %ds %n", connected, threadCount,
+                          rate, profile.name().toLowerCase(), rampSeconds, seconds);
+
+        long startNanos = System.nanoTime();
+        Thread[] senders = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            Sender sender = new Sender(sockets.get(i), rate / threadCount, startNanos);
+            senders[i] = new Thread(sender, "load-sender-" + i);
+            senders[i].start();
+        }
+        long lastSent = 0;
+        for (int second = 1; second <= seconds; second++) {
+            LockSupport.parkNanos(startNanos + TimeUnit.SECONDS.toNanos(second) - System.nanoTime());
+            long sentNow = sent.sum();
+            System.out.printf("%4ds: %9d msgs/sec, %d errors %n", second, sentNow - lastSent, errors.sum());
+            lastSent = sentNow;
+        }
+        for (Thread sender : senders) {
+            sender.join();
+        }
+        double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+        long sentMessages = sent.sum();
+        System.out.printf("sent %d of %d messages in %.1fs: %.0f msgs/sec, %d writes, %d KB %n", sentMessages,
+                          sentMessages + unsent.sum(), elapsedSeconds, sentMessages / elapsedSeconds, writes.sum(),
+                          bytes.sum() / 1024);
+        System.out.printf("send errors: %d, unsent messages: %d %n", errors.sum(), unsent.sum());
+        System.out.printf("send lag: %s %n", sendLag);
+    }
+
+    /**
+     * Sends the messages of a share of the rate over some of the connections
+     */
+    private class Sender implements Runnable {
+        private final List<Socket> sockets;
+        private final double rate;
+        private final long startNanos;
+        private final MessageGenerator generator;
+        private final byte[] batch;
+
+        private Sender(List<Socket> sockets, double rate, long startNanos) {
+            this.sockets = sockets;
+            this.rate = rate;
+            this.startNanos = startNanos;
+            this.generator = new MessageGenerator(3, 5);
+            this.batch = new byte[BATCH_BYTES];
+        }
+
+        @Override
+        public void run() {
+            long total = (long) profile.messages(seconds, rate, rampSeconds);
+            long next = 0;
+            int connection = 0;
+            int maxLineLength = generator.maxMessageLength() + 1;
+            while (next < total && !sockets.isEmpty()) {
+                long elapsed = System.nanoTime() - startNanos;
+                long due = Math.min(total, (long) profile.messages(elapsed / 1e9, rate, rampSeconds) + 1);
+                if (next >= due) {
+                    LockSupport.parkNanos(Math.min(MAX_PARK_NANOS, intendedNanos(next) - elapsed));
+                    continue;
+                }
+                long first = next;
+                next += Math.min(due - next, batch.length / maxLineLength);
+                int length = generator.generateMessages((int) (next - first), batch, 0);
+                connection = connection % sockets.size();
+                Socket socket = sockets.get(connection++);
+                try {
+                    OutputStream out = socket.getOutputStream();
+                    out.write(batch, 0, length);
+                } catch (IOException e) {
+                    errors.increment();
+                    unsent.add(next - first);
+                    sockets.remove(socket);
+                    close(socket);
+                    continue;
+                }
+                long written = System.nanoTime() - startNanos;
+                for (long message = first; message < next; message++) {
+                    sendLag.record(written - intendedNanos(message));
+                }
+                sent.add(next - first);
+                bytes.add(length);
+                writes.increment();
+            }
+            unsent.add(total - next);
+            sockets.forEach(FeedLoadGenerator::close);
+        }
+
+        private long intendedNanos(long message) {
+            return (long) (profile.seconds(message, rate, rampSeconds) * 1e9);
+        }
+    }
+
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    public static void main(String[] args) {
+        int connections = 100;
+        double rate = 100_000;
+        int seconds = 30;
+        RampProfile profile = RampProfile.CONSTANT;
+        int rampSeconds = 0;
+        String hostName = "localhost";
+        int port = 8913;
+        int argsCount = args.length;
+        try {
+            connections = argsCount > 0 ? Integer.valueOf(args[0]) : connections;
+            rate = argsCount > 1 ? Double.valueOf(args[1]) : rate;
+            seconds = argsCount > 2 ? Integer.valueOf(args[2]) : seconds;
+            profile = argsCount > 3 ? RampProfile.parse(args[3]) : profile;
+            rampSeconds = argsCount > 4 ? Integer.valueOf(args[4]) : rampSeconds;
+            hostName = argsCount > 5 ? args[5] : hostName;
+            port = argsCount > 6 ? Integer.valueOf(args[6]) : port;
+            System.out.printf("Usage: FeedLoadGenerator [connections:%d] [msgs_per_sec:%.0f] [seconds:%d] " +
+                              "[ramp(constant|linear|step):%s] [ramp_seconds:%d] [host:%s] [port:%d] %n", connections, rate,
+                              seconds, profile.name().toLowerCase(), rampSeconds, hostName, port);
+            new FeedLoadGenerator(InetAddress.getByName(hostName), port, connections, rate, seconds, profile, rampSeconds).run();
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid input: " + e.getMessage());
+            System.exit(-1);
+        } catch (UnknownHostException e) {
+            System.out.println("Unknown host: " + hostName);
+            System.exit(-1);
+        } catch (InterruptedException e) {
+            System.out.println("Stopping due to interrupt request");
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package org.test.news;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connects a growing number of mostly idle feeds to an in-process {@link Analyzer} and checks that the number of platform
+ * threads and the used heap of the analyzer stay bounded as the number of feeds grows.
+ * <p>
+ * The feeds are plain client sockets (which don't need any threads on the client side) sending a message every now and then.
+ * At the end, every feed sends one more message right before the analyzer is stopped, which checks that stopping drains
+ * the feeds without losing any of the messages they sent.
+ * </p>
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+public class FeedLoadTest {
+
+    private static final int MAX_THREAD_GROWTH = 64;
+    private static final long MAX_HEAP_BYTES_PER_FEED = 64 * 1024;
+
+    private final AnalyzerConfig.IngestMode mode;
+    private final int maxFeeds;
+    private final int step;
+
+    protected FeedLoadTest(AnalyzerConfig.IngestMode mode, int maxFeeds, int step) {
+        this.mode = mode;
+        this.maxFeeds = maxFeeds;
+        this.step = step;
+    }
+
+    protected void run() throws Exception {
+        int port = freePort();
+        Properties properties = new Properties();
+        properties.setProperty("port", String.valueOf(port));
+        properties.setProperty("mode", mode.name());
+        Analyzer analyzer = new Analyzer(new AnalyzerConfig(properties));
+        Thread analyzerThread = new Thread(analyzer::start, "analyzer");
+        analyzerThread.setDaemon(true);
+        analyzerThread.start();
+        TimeUnit.SECONDS.sleep(1);
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        int baselineThreads = threads.getThreadCount();
+        long baselineHeap = usedHeap(memory);
+        System.out.printf("%s mode: baseline %d threads, %d KB heap %n", mode, baselineThreads, baselineHeap / 1024);
+
+        List<Socket> feeds = new ArrayList<>(maxFeeds);
+        byte[] message = (new MessageGenerator(3, 5).generateMessage() + "\n").getBytes(StandardCharsets.UTF_8);
+        long[] connectNanos = new long[maxFeeds];
+        long sent = 0;
+        try {
+            while (feeds.size() < maxFeeds) {
+                int target = Math.min(maxFeeds, feeds.size() + step);
+                while (feeds.size() < target) {
+                    long start = System.nanoTime();
+                    Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+                    connectNanos[feeds.size()] = System.nanoTime() - start;
+                    feeds.add(socket);
+                }
+                // make every feed active once, so each one is actually being processed by the analyzer
+                for (Socket feed : feeds) {
+                    OutputStream out = feed.getOutputStream();
+                    out.write(message);
+                    out.flush();
+                }
+                sent += feeds.size();
+                TimeUnit.MILLISECONDS.sleep(500);
+                int threadCount = threads.getThreadCount();
+                long heap = usedHeap(memory);
+                long heapPerFeed = Math.max(0, heap - baselineHeap) / feeds.size();
+                System.out.printf("%6d feeds: %4d threads, %7d KB heap (%d bytes/feed), connect p99 %d us %n", feeds.size(),
+                                  threadCount, heap / 1024, heapPerFeed, p99Micros(connectNanos, feeds.size()));
+                if (threadCount - baselineThreads > MAX_THREAD_GROWTH) {
+                    throw new IllegalStateException("thread count is not bounded: " + threadCount + " threads for " + feeds.size() + " feeds");
+                }
+                if (heapPerFeed > MAX_HEAP_BYTES_PER_FEED) {
+                    throw new IllegalStateException("heap is not bounded: " + heapPerFeed + " bytes for each of " + feeds.size() + " feeds");
+                }
+            }
+            // still in flight when the analyzer is stopped
+            for (Socket feed : feeds) {
+                feed.getOutputStream().write(message);
+            }
+            sent += feeds.size();
+            long start = System.nanoTime();
+            analyzer.stop();
+            analyzerThread.join();
+            System.out.printf("drained %d feeds in %d ms %n", feeds.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            long received = analyzer.metrics().getReceivedMessages();
+            if (received != sent) {
+                throw new IllegalStateException("messages lost on shutdown: " + received + " received out of " + sent);
+            }
+        } finally {
+            for (Socket feed : feeds) {
+                try {
+                    feed.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private static long usedHeap(MemoryMXBean memory) throws InterruptedException {
+        System.gc();
+        TimeUnit.MILLISECONDS.sleep(100);
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    private static long p99Micros(long[] nanos, int count) {
+        long[] sorted = new long[count];
+        System.arraycopy(nanos, 0, sorted, 0, count);
+        Arrays.sort(sorted);
+        return TimeUnit.NANOSECONDS.toMicros(sorted[(int) Math.min(count - 1, Math.ceil(count * 0.99) - 1)]);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        //junit...sigh
+        AnalyzerConfig.IngestMode mode = AnalyzerConfig.IngestMode.parse(args.length > 0 ? args[0] : "virtual");
+        int maxFeeds = args.length > 1 ? Integer.valueOf(args[1]) : 10_000;
+        int step = args.length > 2 ? Integer.valueOf(args[2]) : 1_000;
+        System.out.printf("Usage: FeedLoadTest [mode(pool|nio|virtual):%s] [max_feeds:%d] [step:%d] %n", mode.name().toLowerCase(),
+                          maxFeeds, step);
+        new FeedLoadTest(mode, maxFeeds, step).run();
+        System.exit(0);
+    }
+}
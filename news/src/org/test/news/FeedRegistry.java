@@ -0,0 +1,187 @@
+package org.test.news;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Hands out small int ids to the feeds, so that each {@link NewsItem} only stores an int instead of a reference to the
+ * feed name, while the name (e.g. the UUID of a connection) is kept here for display.
+ * <p>
+ * The names are stored in fixed size chunks which are never moved, so looking up a name doesn't need any locking. The
+ * names of disconnected feeds are kept, since their items can still be reported afterwards, until their ids are
+ * {@link #release(int, long) released} and then reused by new feeds once none of their items can be reported anymore. So
+ * the number of ids only grows with the number of feeds connected at the same time, not with the number of connections.
+ * </p>
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+public class FeedRegistry {
+
+    protected static final FeedRegistry INSTANCE = new FeedRegistry();
+
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int MAX_CHUNKS = 1 << (31 - CHUNK_BITS);
+
+    private final AtomicReferenceArray<String[]> chunks;
+    private final AtomicInteger nextId;
+    private final ConcurrentHashMap<String, Integer> interned;
+    private final ConcurrentLinkedQueue<ReleasedId> released;
+
+    protected FeedRegistry() {
+        this.chunks = new AtomicReferenceArray<>(MAX_CHUNKS);
+        this.nextId = new AtomicInteger();
+        this.interned = new ConcurrentHashMap<>();
+        this.released = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * Registers a new feed, e.g. a new connection
+     *
+     * @param name the name of the feed, never {@code null}
+     * @return the id of the feed, different from the id of any other feed which wasn't released
+     */
+    protected int register(String name) {
+        int id = reusableId();
+        if (id < 0) {
+            id = nextId.getAndIncrement();
+        }
+        if (id < 0) {
+            throw new IllegalStateException("Too many feeds");
+        }
+        int chunkIndex = id >>> CHUNK_BITS;
+        String[] chunk = chunks.get(chunkIndex);
+        if (chunk == null) {
+            chunks.compareAndSet(chunkIndex, null, new String[CHUNK_SIZE]);
+            chunk = chunks.get(chunkIndex);
+        }
+        chunk[id & (CHUNK_SIZE - 1)] = name;
+        return id;
+    }
+
+    private int reusableId() {
+        // the ids are released with the same delay, so the oldest one becomes reusable first
+        ReleasedId oldest = released.peek();
+        if (oldest != null && System.nanoTime() - oldest.reusableNanos >= 0 && released.remove(oldest)) {
+            return oldest.id;
+        }
+        return -1;
+    }
+
+    /**
+     * Releases the id of a {@link #register(String) registered} feed which disconnected, so it can be reused by a new feed;
+     * the name of the feed is still returned for the id until then
+     *
+     * @param id the id of the feed
+     * @param reuseAfterMillis how long the items of the feed can still be reported, after which the id is reused
+     */
+    protected void release(int id, long reuseAfterMillis) {
+        released.add(new ReleasedId(id, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(reuseAfterMillis)));
+    }
+
+    /**
+     * Returns the id of a feed known by its name, registering it the first time; meant for feeds whose names are reused,
+     * e.g. the ones read back from a {@link NewsJournal}
+     *
+     * @param name the name of the feed, never {@code null}
+     * @return the id of the feed
+     */
+    protected int intern(String name) {
+        Integer id = interned.get(name);
+        return id != null ? id : interned.computeIfAbsent(name, this::register);
+    }
+
+    /**
+     * Returns the name of a feed
+     *
+     * @param id the id of the feed
+     * @return the name the feed was registered with
+     * @throws IllegalArgumentException if the id was not handed out by this registry
+     */
+    protected String name(int id) {
+        String[] chunk = id >= 0 && id < nextId.get() ? chunks.get(id >>> CHUNK_BITS) : null;
+        String name = chunk != null ? chunk[id & (CHUNK_SIZE - 1)] : null;
+        if (name == null) {
+            throw new IllegalArgumentException("Unknown feed: " + id);
+        }
+        return name;
+    }
+
+    /**
+     * Returns the number of ids handed out so far, which includes the released ones
+     *
+     * @return the number of ids
+     */
+    protected int size() {
+        return nextId.get();
+    }
+
+    private static final class ReleasedId {
+        private final int id;
+        private final long reusableNanos;
+
+        private ReleasedId(int id, long reusableNanos) {
+            this.id = id;
+            this.reusableNanos = reusableNanos;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        //junit...sigh
+        FeedRegistry registry = new FeedRegistry();
+        int threads = 4;
+        int feedsPerThread = 3 * CHUNK_SIZE;
+        int[][] ids = new int[threads][feedsPerThread];
+        Thread[] registering = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            registering[t] = new Thread(() -> {
+                for (int i = 0; i < feedsPerThread; i++) {
+                    ids[thread][i] = registry.register(thread + "-" + i);
+                }
+            });
+            registering[t].start();
+        }
+        for (Thread thread : registering) {
+            thread.join();
+        }
+        for (int t = 0; t < threads; t++) {
+            for (int i = 0; i < feedsPerThread; i++) {
+                if (!registry.name(ids[t][i]).equals(t + "-" + i)) {
+                    throw new IllegalStateException("incorrect name for " + ids[t][i]);
+                }
+            }
+        }
+        int feed = registry.intern("feed");
+        if (registry.size() != threads * feedsPerThread + 1 || registry.intern("feed") != feed ||
+            registry.register("feed") == feed) {
+            throw new IllegalStateException("incorrect registry");
+        }
+        try {
+            registry.name(registry.size());
+            throw new IllegalStateException("unknown feed not detected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        // reconnecting feeds reuse the released ids, but only once their items can no longer be reported
+        int size = registry.size();
+        registry.release(ids[0][0], TimeUnit.HOURS.toMillis(1));
+        if (registry.register("reconnected") == ids[0][0] || !registry.name(ids[0][0]).equals("0-0")) {
+            throw new IllegalStateException("an id was reused too early");
+        }
+        FeedRegistry churn = new FeedRegistry();
+        for (int i = 0; i < 1000; i++) {
+            int id = churn.register("connection-" + i);
+            if (!churn.name(id).equals("connection-" + i)) {
+                throw new IllegalStateException("incorrect name for " + id);
+            }
+            churn.release(id, 0);
+        }
+        if (churn.size() != 1 || registry.size() != size + 1) {
+            throw new IllegalStateException("the released ids were not reused: " + churn.size() + " ids");
+        }
+    }
+}
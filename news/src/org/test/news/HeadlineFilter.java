@@ -0,0 +1,263 @@
+package org.test.news;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Detects the headlines which were already received during the current window, from any feed, and counts how many times
+ * each headline was received. The headlines are normalized first, i.e. the ASCII letters are lower cased and the
+ * whitespace is collapsed, so the same headline with a different case or spacing is also a duplicate.
+ * <p>
+ * The counts are kept in a Count-Min sketch of {@link #DEPTH} rows for each slice of the window, which decays like the
+ * {@link WindowEngine}: each time the window slides the oldest slice is cleared and becomes the current one. A headline is
+ * a duplicate if its estimated count over the window is not 0; since the counts of different headlines can collide, a new
+ * headline is a false positive with a probability given by how many counters are in use, see
+ * {@link #falsePositiveRate()}. The counts are never under-estimated.
+ * </p>
+ * <p>
+ * The memory used is fixed when the filter is created, regardless of the number of headlines, and checking a headline
+ * doesn't create any objects.
+ * </p>
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+public class HeadlineFilter {
+
+    private static final int DEPTH = 4;
+    private static final int MIN_WIDTH = 64;
+
+    private final int slices;
+    private final int width;
+    private final AtomicIntegerArray counters;
+    private volatile int currentSlice;
+    private volatile double falsePositiveRate;
+
+    /**
+     * Creates a new filter
+     *
+     * @param sizeBytes the memory used by the counters, split between the slices
+     * @param slices the number of slices of the window, 1 for tumbling windows
+     * @throws IllegalArgumentException if the size is too small for the number of slices
+     */
+    protected HeadlineFilter(long sizeBytes, int slices) {
+        long countersPerRow = slices > 0 ? sizeBytes / Integer.BYTES / slices / DEPTH : 0;
+        if (countersPerRow < MIN_WIDTH) {
+            throw new IllegalArgumentException("The size of the duplicate filter must be at least " +
+                                               (long) MIN_WIDTH * DEPTH * Integer.BYTES * Math.max(1, slices) + " bytes");
+        }
+        this.slices = slices;
+        // a power of 2, so the rows can be indexed with a mask
+        this.width = Integer.highestOneBit((int) Math.min(countersPerRow, 1 << 30));
+        this.counters = new AtomicIntegerArray(Math.multiplyExact(slices * DEPTH, width));
+    }
+
+    /**
+     * Counts a headline in the current slice, returning whether it is the first time it was received during the window
+     *
+     * @param data the buffer holding the UTF-8 bytes of the headline, without the priority; never {@code null}
+     * @param from the index of the first byte of the headline
+     * @param to the index after the last byte of the headline
+     * @return {@code true} if the headline was not received before during the window, {@code false} if it (most likely) was
+     */
+    protected boolean firstSighting(byte[] data, int from, int to) {
+        long hash = hash(data, from, to);
+        int first = (int) hash;
+        int step = (int) (hash >>> 32) | 1;
+        int slice = currentSlice;
+        boolean seen = true;
+        for (int row = 0; row < DEPTH; row++) {
+            int column = (first + row * step) & (width - 1);
+            // the value of this increment rather than a separate read, since only one of the threads receiving the same
+            // headline at the same time can get 1 from a counter, so they can't all take each other's sightings for earlier ones
+            long count = counters.incrementAndGet((slice * DEPTH + row) * width + column) + otherSlicesCount(slice, row, column);
+            seen &= count > 1;
+        }
+        return !seen;
+    }
+
+    /**
+     * Returns the estimated number of times a headline was received during the window, which can be higher than the actual
+     * number but never lower
+     *
+     * @param data the buffer holding the UTF-8 bytes of the headline, without the priority; never {@code null}
+     * @param from the index of the first byte of the headline
+     * @param to the index after the last byte of the headline
+     * @return the number of times
+     */
+    protected long count(byte[] data, int from, int to) {
+        long hash = hash(data, from, to);
+        int first = (int) hash;
+        int step = (int) (hash >>> 32) | 1;
+        long count = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            count = Math.min(count, windowCount(row, (first + row * step) & (width - 1)));
+        }
+        return count;
+    }
+
+    private long otherSlicesCount(int excludedSlice, int row, int column) {
+        long count = 0;
+        for (int slice = 0; slice < slices; slice++) {
+            if (slice != excludedSlice) {
+                count += counters.get((slice * DEPTH + row) * width + column);
+            }
+        }
+        return count;
+    }
+
+    private long windowCount(int row, int column) {
+        long count = 0;
+        for (int slice = 0; slice < slices; slice++) {
+            count += counters.get((slice * DEPTH + row) * width + column);
+        }
+        return count;
+    }
+
+    /**
+     * Starts a new slice, forgetting the headlines of the oldest one; this should be called by a single thread each time
+     * the window slides, after its report
+     */
+    protected void slide() {
+        falsePositiveRate = occupancy();
+        int next = (currentSlice + 1) % slices;
+        int start = next * DEPTH * width;
+        for (int i = start; i < start + DEPTH * width; i++) {
+            counters.set(i, 0);
+        }
+        currentSlice = next;
+    }
+
+    /**
+     * The probability that all the counters of a new headline are in use, i.e. the product of the fraction of counters in
+     * use in each row
+     */
+    private double occupancy() {
+        double rate = 1;
+        for (int row = 0; row < DEPTH; row++) {
+            int used = 0;
+            for (int column = 0; column < width; column++) {
+                if (windowCount(row, column) > 0) {
+                    used++;
+                }
+            }
+            rate *= (double) used / width;
+        }
+        return rate;
+    }
+
+    /**
+     * Returns the probability that a new headline was taken for a duplicate during the last window
+     *
+     * @return the rate, between 0 and 1
+     */
+    protected double falsePositiveRate() {
+        return falsePositiveRate;
+    }
+
+    /**
+     * FNV-1a over the normalized headline followed by the MurmurHash3 finalizer
+     */
+    private static long hash(byte[] data, int from, int to) {
+        long hash = 0xcbf29ce484222325L;
+        boolean space = false;
+        boolean started = false;
+        for (int i = from; i < to; i++) {
+            int b = data[i] & 0xff;
+            if (b <= ' ') {
+                space = started;
+                continue;
+            }
+            if (space) {
+                hash = (hash ^ ' ') * 0x100000001b3L;
+                space = false;
+            }
+            started = true;
+            if (b >= 'A' && b <= 'Z') {
+                b += 'a' - 'A';
+            }
+            hash = (hash ^ b) * 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    public static void main(String[] args) {
+        //junit...sigh
+        HeadlineFilter filter = new HeadlineFilter(64 * 1024, 2);
+        for (String headline : new String[] {"up rise über", "Up  rise über ", "  UP rise\tüber"}) {
+            byte[] bytes = headline.getBytes(StandardCharsets.UTF_8);
+            boolean first = filter.firstSighting(bytes, 0, bytes.length);
+            if (first != headline.equals("up rise über")) {
+                throw new IllegalStateException("incorrect duplicate detection for " + headline);
+            }
+        }
+        byte[] headline = "up rise über".getBytes(StandardCharsets.UTF_8);
+        if (filter.count(headline, 0, headline.length) != 3) {
+            throw new IllegalStateException("incorrect count");
+        }
+        filter.slide();
+        // still in the window, in the previous slice
+        if (filter.firstSighting(headline, 0, headline.length) || filter.count(headline, 0, headline.length) != 4) {
+            throw new IllegalStateException("the previous slice was forgotten");
+        }
+        filter.slide();
+        filter.slide();
+        if (!filter.firstSighting(headline, 0, headline.length)) {
+            throw new IllegalStateException("the old slices were not forgotten");
+        }
+
+        HeadlineFilter small = new HeadlineFilter(16 * 1024, 1);
+        int falsePositives = 0;
+        int headlines = 300;
+        for (int i = 0; i < headlines; i++) {
+            byte[] bytes = ("headline " + i).getBytes(StandardCharsets.UTF_8);
+            if (!small.firstSighting(bytes, 0, bytes.length)) {
+                falsePositives++;
+            }
+        }
+        small.slide();
+        double rate = small.falsePositiveRate();
+        if (rate <= 0 || rate > 0.01 || falsePositives > 5) {
+            throw new IllegalStateException("unexpected false positives: " + falsePositives + ", rate " + rate);
+        }
+
+        // the same new headlines received by several feeds at the same time are never all taken for duplicates
+        HeadlineFilter shared = new HeadlineFilter(4 * 1024 * 1024, 1);
+        int sharedHeadlines = 20_000;
+        AtomicIntegerArray firsts = new AtomicIntegerArray(sharedHeadlines);
+        Thread[] feeds = new Thread[4];
+        for (int i = 0; i < feeds.length; i++) {
+            feeds[i] = new Thread(() -> {
+                for (int j = 0; j < sharedHeadlines; j++) {
+                    byte[] bytes = ("breaking " + j).getBytes(StandardCharsets.UTF_8);
+                    if (shared.firstSighting(bytes, 0, bytes.length)) {
+                        firsts.incrementAndGet(j);
+                    }
+                }
+            });
+            feeds[i].start();
+        }
+        for (Thread feed : feeds) {
+            try {
+                feed.join();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        for (int j = 0; j < sharedHeadlines; j++) {
+            if (firsts.get(j) == 0) {
+                throw new IllegalStateException("the headline " + j + " was dropped by all the feeds");
+            }
+        }
+        try {
+            new HeadlineFilter(512, 1);
+            throw new IllegalStateException("a too small filter was accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package org.test.news;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the recent news items of an {@link Analyzer} in a form which answers the queries of a {@link QueryServer} without
+ * going through the items again: the items are indexed as they are aggregated, in slices which last for one slide of the
+ * window, and the last slices are kept for a retention period. Each slice holds
+ * <ul>
+ *     <li>the counts and the top items by priority, like a {@link TopKAggregator}</li>
+ *     <li>the counts of each feed by priority</li>
+ *     <li>an inverted index from each {@link Dictionary} word to the most recent items containing it</li>
+ * </ul>
+ * <p>
+ * A query for the last N milliseconds combines the current slice with as many of the closed slices as needed to cover N,
+ * i.e. the windows of the queries are rounded up to whole slides. Since each word only keeps its last items in each slice,
+ * the memory used depends on the number of slices, feeds and words, never on the number of items.
+ * </p>
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+public class HeadlineIndex implements Consumer<NewsItem> {
+
+    // the most recent items kept for each word in each slice
+    private static final int ITEMS_PER_WORD = 32;
+
+    private final WordTable words;
+    private final int k;
+    private final long slideMillis;
+    private final int retainedSlices;
+    private volatile Slice current;
+    // the closed slices, newest first, replaced as a whole on each slide so the queries never need a lock
+    private volatile List<Slice> history;
+
+    /**
+     * Creates an empty index
+     *
+     * @param words the words which are indexed; never {@code null}
+     * @param k the maximum number of top items a query can ask for
+     * @param slideMillis how often {@link #slide()} is called
+     * @param retentionMillis how long the closed slices are kept
+     */
+    protected HeadlineIndex(WordTable words, int k, long slideMillis, long retentionMillis) {
+        if (slideMillis <= 0 || retentionMillis < 0) {
+            throw new IllegalArgumentException("The slide must be positive and the retention cannot be negative");
+        }
+        this.words = words;
+        this.k = k;
+        this.slideMillis = slideMillis;
+        this.retainedSlices = (int) Math.min(Integer.MAX_VALUE, retentionMillis / slideMillis);
+        this.current = new Slice(k);
+        this.history = Collections.emptyList();
+    }
+
+    /**
+     * Indexes an item in the current slice; can be called concurrently from any number of threads
+     *
+     * @param item the item, never {@code null}
+     */
+    @Override
+    public void accept(NewsItem item) {
+        Slice slice = current;
+        slice.top.accept(item);
+        slice.feedCounts(item.feed()).incrementAndGet(item.priority());
+        byte[] message = item.messageBytes();
+        int wordStart = 0;
+        for (int i = 0; i <= message.length; i++) {
+            if (i == message.length || message[i] == ' ') {
+                if (i > wordStart) {
+                    int word = words.indexOf(message, wordStart, i);
+                    if (word >= 0) {
+                        slice.postings.computeIfAbsent(word, key -> new Posting()).add(item);
+                    }
+                }
+                wordStart = i + 1;
+            }
+        }
+    }
+
+    /**
+     * Adds the summary of a disjoint set of items to the counts and top items of the current slice, e.g. the partial
+     * summary of a shard; the feeds and the words of those items are not indexed
+     *
+     * @param summary the summary, never {@code null}
+     */
+    protected void merge(WindowSummary summary) {
+        current.top.merge(summary);
+    }
+
+    /**
+     * Closes the current slice and starts a new one; should be called by a single thread, once every slide
+     */
+    protected void slide() {
+        Slice closed = current;
+        current = new Slice(k);
+        // the items added by the threads which still see the closed slice are kept, only the top items are frozen
+        closed.summary = closed.top.drain();
+        if (retainedSlices == 0) {
+            return;
+        }
+        List<Slice> slices = new ArrayList<>(Math.min(retainedSlices, history.size() + 1));
+        slices.add(closed);
+        slices.addAll(history.subList(0, Math.min(history.size(), retainedSlices - 1)));
+        history = slices;
+    }
+
+    /**
+     * Returns the counts and the top items of the last N milliseconds
+     *
+     * @param topK the number of top items, at most the K of the index
+     * @param millis the length of the window, rounded up to whole slides and capped by the retention
+     * @return a {@link WindowSummary} instance, never {@code null}
+     */
+    protected WindowSummary top(int topK, long millis) {
+        List<Slice> slices = slices(millis);
+        List<WindowSummary> summaries = new ArrayList<>(slices.size());
+        summaries.add(slices.get(0).top.snapshot());
+        for (int i = 1; i < slices.size(); i++) {
+            summaries.add(slices.get(i).summary);
+        }
+        return WindowSummary.merge(summaries, Math.min(topK, k));
+    }
+
+    /**
+     * Returns the counts of each feed by priority during the last N milliseconds
+     *
+     * @param millis the length of the window, rounded up to whole slides and capped by the retention
+     * @return a {@link Map} keyed by feed id with the counts of each priority, the busiest feeds first; never {@code null}
+     */
+    protected Map<String, long[]> feedCounts(long millis) {
+        Map<Integer, long[]> countsByFeed = new HashMap<>();
+        for (Slice slice : slices(millis)) {
+            slice.feedCounts.forEach((feed, counts) -> {
+                long[] total = countsByFeed.computeIfAbsent(feed, key -> new long[WindowSummary.PRIORITIES]);
+                for (int priority = 0; priority < total.length; priority++) {
+                    total[priority] += counts.get(priority);
+                }
+            });
+        }
+        Map<String, long[]> sorted = new LinkedHashMap<>();
+        countsByFeed.entrySet()
+                    .stream()
+                    .sorted((first, second) -> Long.compare(sum(second.getValue()), sum(first.getValue())))
+                    .forEach(entry -> sorted.put(FeedRegistry.INSTANCE.name(entry.getKey()), entry.getValue()));
+        return sorted;
+    }
+
+    private static long sum(long[] counts) {
+        long sum = 0;
+        for (long count : counts) {
+            sum += count;
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the most recent items containing a word during the last N milliseconds
+     *
+     * @param word the word; never {@code null}
+     * @param limit the maximum number of items
+     * @param millis the length of the window, rounded up to whole slides and capped by the retention
+     * @return the items, most recent first, or an empty list if the word is not in the dictionary; never {@code null}
+     */
+    protected List<NewsItem> search(String word, int limit, long millis) {
+        byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+        int index = words.indexOf(bytes, 0, bytes.length);
+        List<NewsItem> items = new ArrayList<>();
+        if (index < 0) {
+            return items;
+        }
+        for (Slice slice : slices(millis)) {
+            Posting posting = slice.postings.get(index);
+            if (posting != null) {
+                posting.newestFirst(items, limit);
+                if (items.size() == limit) {
+                    break;
+                }
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Returns whether a word is indexed, i.e. whether it is part of the dictionary
+     *
+     * @param word the word; never {@code null}
+     * @return {@code true} if the word is indexed
+     */
+    protected boolean isIndexed(String word) {
+        byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+        return words.indexOf(bytes, 0, bytes.length) >= 0;
+    }
+
+    /**
+     * Returns the slices covering the last N milliseconds, the current one first
+     */
+    private List<Slice> slices(long millis) {
+        List<Slice> closed = history;
+        long slides = millis / slideMillis + (millis % slideMillis != 0 ? 1 : 0);
+        int count = (int) Math.min(closed.size(), Math.max(0, slides - 1));
+        List<Slice> slices = new ArrayList<>(count + 1);
+        slices.add(current);
+        slices.addAll(closed.subList(0, count));
+        return slices;
+    }
+
+    /**
+     * Returns the length of the window a query for the last N milliseconds actually covers
+     *
+     * @param millis the requested length of the window
+     * @return the length, in milliseconds
+     */
+    protected long coveredMillis(long millis) {
+        return slices(millis).size() * slideMillis;
+    }
+
+    protected int k() {
+        return k;
+    }
+
+    protected long retentionMillis() {
+        return retainedSlices * slideMillis;
+    }
+
+    /**
+     * The items of one slide of the window
+     */
+    private static final class Slice {
+        private final TopKAggregator top;
+        private final ConcurrentHashMap<Integer, AtomicLongArray> feedCounts;
+        private final ConcurrentHashMap<Integer, Posting> postings;
+        // set once the slice is closed
+        private volatile WindowSummary summary;
+
+        private Slice(int k) {
+            this.top = new TopKAggregator(k);
+            this.feedCounts = new ConcurrentHashMap<>();
+            this.postings = new ConcurrentHashMap<>();
+        }
+
+        private AtomicLongArray feedCounts(int feed) {
+            // a plain get first, since the counts of a feed are almost always there already
+            AtomicLongArray counts = feedCounts.get(feed);
+            return counts != null ? counts : feedCounts.computeIfAbsent(feed, key -> new AtomicLongArray(WindowSummary.PRIORITIES));
+        }
+    }
+
+    /**
+     * The most recent items containing a word, in a ring
+     */
+    private static final class Posting {
+        private final NewsItem[] items;
+        private int next;
+        private int size;
+
+        private Posting() {
+            this.items = new NewsItem[ITEMS_PER_WORD];
+        }
+
+        private synchronized void add(NewsItem item) {
+            if (size > 0 && items[(next + items.length - 1) % items.length] == item) {
+                // the word appears several times in the headline
+                return;
+            }
+            items[next] = item;
+            next = (next + 1) % items.length;
+            size = Math.min(size + 1, items.length);
+        }
+
+        private synchronized void newestFirst(List<NewsItem> result, int limit) {
+            for (int i = 1; i <= size && result.size() < limit; i++) {
+                result.add(items[(next + items.length - i) % items.length]);
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        //junit...sigh
+        HeadlineIndex index = new HeadlineIndex(PhraseScorer.INSTANCE.words(), 5, 1000, 3000);
+        for (int slice = 0; slice < 5; slice++) {
+            for (int i = 0; i < 100; i++) {
+                index.accept(new NewsItem((byte) (i % 10), "up up rise " + slice + " " + i, "feed-" + (i % 4)));
+            }
+            index.accept(new NewsItem((byte) 1, "über good " + slice, "quiet"));
+            if (slice < 4) {
+                index.slide();
+            }
+        }
+        // the current slice and the 3 retained ones
+        WindowSummary all = index.top(3, Long.MAX_VALUE);
+        if (all.total() != 404 || all.topItems().size() != 3 || all.topItems().get(0).priority() != 9 ||
+            index.coveredMillis(Long.MAX_VALUE) != 4000 || index.retentionMillis() != 3000) {
+            throw new IllegalStateException("incorrect: " + all);
+        }
+        WindowSummary live = index.top(10, 1);
+        if (live.total() != 101 || live.topItems().size() != 5 || index.coveredMillis(1) != 1000 || index.coveredMillis(1001) != 2000) {
+            throw new IllegalStateException("incorrect: " + live);
+        }
+        Map<String, long[]> feeds = index.feedCounts(2000);
+        if (feeds.size() != 5 || feeds.get("feed-1")[1] != 10 || feeds.get("quiet")[1] != 2 ||
+            !"quiet".equals(new ArrayList<>(feeds.keySet()).get(4))) {
+            throw new IllegalStateException("incorrect: " + feeds.keySet());
+        }
+        List<NewsItem> quiet = index.search("über", 10, 3000);
+        if (quiet.size() != 3 || !quiet.get(0).message().equals("über good 4") || !quiet.get(2).message().equals("über good 2")) {
+            throw new IllegalStateException("incorrect: " + quiet);
+        }
+        List<NewsItem> up = index.search("up", 50, 2000);
+        // the last items of each slice, where "up" appears twice in each headline
+        if (up.size() != 50 || !up.get(0).message().equals("up up rise 4 99") || !up.get(32).message().equals("up up rise 3 99")) {
+            throw new IllegalStateException("incorrect: " + up);
+        }
+        if (!index.search("unknown", 10, 3000).isEmpty() || !index.search("down", 10, 3000).isEmpty() ||
+            !index.isIndexed("down") || index.isIndexed("unknown")) {
+            throw new IllegalStateException("incorrect search");
+        }
+        index.merge(new WindowSummary(new long[] {0, 0, 0, 0, 0, 0, 0, 0, 0, 7},
+                                      Collections.singletonList(new NewsItem((byte) 9, "shard", "shard"))));
+        if (index.top(1, 1).count(9) != 17) {
+            throw new IllegalStateException("the summary was not merged");
+        }
+    }
+}
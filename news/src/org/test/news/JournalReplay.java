@@ -0,0 +1,92 @@
+package org.test.news;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Computes the reports of past windows again, from the items stored in a {@link NewsJournal}. The journal is split into
+ * tumbling windows aligned to multiples of the window length and the top items of each window are printed the same way
+ * the {@link Analyzer} prints them.
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+public class JournalReplay {
+
+    private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm:ss")
+                                                                                  .withZone(ZoneId.systemDefault());
+
+    private final Path journalDirectory;
+    private final long windowMillis;
+    private final int topK;
+
+    protected JournalReplay(Path journalDirectory, long windowMillis, int topK) {
+        this.journalDirectory = journalDirectory;
+        this.windowMillis = windowMillis;
+        this.topK = topK;
+    }
+
+    /**
+     * Reads the whole journal, aggregating the items of each window separately
+     *
+     * @return the summary of each window which has any items, keyed by the start time of the window
+     * @throws IOException if the journal cannot be read
+     */
+    protected Map<Long, WindowSummary> windows() throws IOException {
+        // the items are almost in time order, so usually only the last window is updated
+        TreeMap<Long, TopKAggregator> aggregators = new TreeMap<>();
+        NewsJournal.replay(journalDirectory, Long.MIN_VALUE, (item, millis) -> {
+            long windowStart = millis - Math.floorMod(millis, windowMillis);
+            aggregators.computeIfAbsent(windowStart, start -> new TopKAggregator(topK)).accept(item);
+        });
+        TreeMap<Long, WindowSummary> windows = new TreeMap<>();
+        aggregators.forEach((start, aggregator) -> windows.put(start, aggregator.drain()));
+        return windows;
+    }
+
+    protected void print() throws IOException {
+        String window = WindowEngine.describe(windowMillis);
+        Map<Long, WindowSummary> windows = windows();
+        if (windows.isEmpty()) {
+            System.out.printf("No items found in the journal in %s %n", journalDirectory);
+            return;
+        }
+        windows.forEach((start, summary) -> {
+            System.out.printf("Found %d positive items during the %s starting at %s %n %n", summary.total(), window,
+                              DATE_TIME_FORMATTER.format(Instant.ofEpochMilli(start)));
+            System.out.println(summary.topItems()
+                                      .stream()
+                                      .map(NewsItem::headline)
+                                      .collect(Collectors.joining(System.lineSeparator())));
+            System.out.println();
+        });
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Usage: JournalReplay <journal_dir> [window:10s] [top_k:3]");
+            System.exit(-1);
+        }
+        Properties properties = new Properties();
+        if (args.length > 1) {
+            properties.setProperty("window.length", args[1]);
+        }
+        if (args.length > 2) {
+            properties.setProperty("top.k", args[2]);
+        }
+        try {
+            AnalyzerConfig config = new AnalyzerConfig(properties);
+            new JournalReplay(Paths.get(args[0]), config.windowLengthMillis(), config.topK()).print();
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid input: " + e.getMessage());
+            System.exit(-1);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package org.test.news;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size histogram of latencies in nanoseconds, with log-linear buckets in the same spirit as HdrHistogram: each power
+ * of two is split into {@link #SUB_BUCKETS} linear buckets, so any recorded value is reported with an error of at most
+ * 1 / {@link #SUB_BUCKETS}, from nanoseconds to centuries, using less than 4KB.
+ * <p>
+ * Recording a value only increments a counter, without locking or creating any objects, so it can be done for every
+ * message from any number of threads.
+ * </p>
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // the values below this are recorded exactly
+    private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+    private static final int BUCKETS = LINEAR_LIMIT + (63 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts;
+    private final AtomicLong max;
+
+    protected LatencyHistogram() {
+        this.counts = new AtomicLongArray(BUCKETS);
+        this.max = new AtomicLong();
+    }
+
+    /**
+     * Records a latency; negative values are recorded as 0
+     *
+     * @param nanos the latency in nanoseconds
+     */
+    protected void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucket(value));
+        if (value > max.get()) {
+            max.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    private static int bucket(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_LIMIT + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long highestValue(int bucket) {
+        if (bucket < LINEAR_LIMIT) {
+            return bucket;
+        }
+        int exponent = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+        long subBucket = (bucket - LINEAR_LIMIT) % SUB_BUCKETS;
+        return ((SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    /**
+     * Returns the number of recorded values
+     *
+     * @return the count
+     */
+    protected long count() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the value below which a given percentage of the recorded values fall
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return the highest value equivalent to the percentile, in nanoseconds, or 0 if nothing was recorded
+     */
+    protected long percentile(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long cumulative = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            cumulative += snapshot[i];
+            if (cumulative >= target) {
+                return Math.min(highestValue(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Returns the largest recorded value
+     *
+     * @return the value in nanoseconds
+     */
+    protected long max() {
+        return max.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("p50 %s, p99 %s, p99.9 %s, max %s (%d values)", describe(percentile(50)), describe(percentile(99)),
+                             describe(percentile(99.9)), describe(max()), count());
+    }
+
+    private static String describe(long nanos) {
+        if (nanos < TimeUnit.MICROSECONDS.toNanos(10)) {
+            return nanos + "ns";
+        } else if (nanos < TimeUnit.MILLISECONDS.toNanos(10)) {
+            return TimeUnit.NANOSECONDS.toMicros(nanos) + "us";
+        }
+        return TimeUnit.NANOSECONDS.toMillis(nanos) + "ms";
+    }
+
+    public static void main(String[] args) {
+        //junit...sigh
+        for (long value = 0; value < 1_000_000; value++) {
+            int bucket = bucket(value);
+            if (highestValue(bucket) < value || (bucket > 0 && highestValue(bucket - 1) >= value)) {
+                throw new IllegalStateException("incorrect bucket for " + value);
+            }
+        }
+        if (bucket(Long.MAX_VALUE) != BUCKETS - 1) {
+            throw new IllegalStateException("incorrect bucket count");
+        }
+        LatencyHistogram histogram = new LatencyHistogram();
+        long[] values = new long[100_000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = ThreadLocalRandom.current().nextLong(TimeUnit.SECONDS.toNanos(1));
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        for (double percentile : new double[] {50, 90, 99, 99.9}) {
+            long exact = values[(int) Math.ceil(values.length * percentile / 100) - 1];
+            long approximate = histogram.percentile(percentile);
+            if (approximate < exact || approximate > exact + exact / SUB_BUCKETS) {
+                throw new IllegalStateException("incorrect p" + percentile + ": " + approximate + " instead of " + exact);
+            }
+        }
+        if (histogram.count() != values.length || histogram.max() != values[values.length - 1]) {
+            throw new IllegalStateException("incorrect: " + histogram);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package org.test.news;
+
+/**
+ * Splits a stream of bytes into newline delimited messages without decoding them. Complete messages are handed over
+ * directly from the caller's buffer; only a message which spans several reads is copied into a small carry-over buffer,
+ * which is allocated lazily and reused afterwards. Messages longer than a maximum length are discarded.
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+public class LineFramer {
+
+    /**
+     * Receives each complete message, without the trailing line terminator
+     */
+    @FunctionalInterface
+    protected interface LineHandler {
+        /**
+         * Called for each complete message; the data is only valid for the duration of the call
+         *
+         * @param data the buffer holding the message; never {@code null}
+         * @param from the index of the first byte of the message (inclusive)
+         * @param to the index of the last byte of the message (exclusive)
+         */
+        void onLine(byte[] data, int from, int to);
+
+        /**
+         * Called for each message discarded because it is longer than the maximum length
+         */
+        default void onDiscard() {
+        }
+    }
+
+    private static final Logger LOGGER = new Logger(LineFramer.class);
+
+    private final int maxLineLength;
+    private final LineHandler handler;
+    private byte[] partial;
+    private int partialLength;
+    private boolean discarding;
+
+    protected LineFramer(int maxLineLength, LineHandler handler) {
+        this.maxLineLength = maxLineLength;
+        this.handler = handler;
+    }
+
+    /**
+     * Frames the next chunk of data
+     *
+     * @param data the buffer with the data; never {@code null}
+     * @param from the index of the first byte (inclusive)
+     * @param to the index of the last byte (exclusive)
+     */
+    protected void frame(byte[] data, int from, int to) {
+        int lineStart = from;
+        for (int i = from; i < to; i++) {
+            if (data[i] != '\n') {
+                continue;
+            }
+            if (discarding) {
+                discarding = false;
+            } else if (partialLength > 0) {
+                if (append(data, lineStart, i)) {
+                    dispatch(partial, 0, partialLength);
+                }
+            } else {
+                dispatch(data, lineStart, i);
+            }
+            partialLength = 0;
+            lineStart = i + 1;
+        }
+        if (lineStart < to && !discarding) {
+            append(data, lineStart, to);
+        }
+    }
+
+    private boolean append(byte[] data, int from, int to) {
+        int length = to - from;
+        if (partialLength + length > maxLineLength) {
+            if (LOGGER.isEnabled()) {
+                LOGGER.log("discarding message because it is longer than %d bytes", maxLineLength);
+            }
+            handler.onDiscard();
+            discarding = true;
+            partialLength = 0;
+            return false;
+        }
+        if (partial == null || partial.length < partialLength + length) {
+            byte[] newPartial = new byte[Math.min(maxLineLength, Math.max(2 * (partialLength + length), 128))];
+            if (partial != null) {
+                System.arraycopy(partial, 0, newPartial, 0, partialLength);
+            }
+            partial = newPartial;
+        }
+        System.arraycopy(data, from, partial, partialLength, length);
+        partialLength += length;
+        return true;
+    }
+
+    private void dispatch(byte[] data, int from, int to) {
+        if (to > from && data[to - 1] == '\r') {
+            to--;
+        }
+        if (to > from) {
+            handler.onLine(data, from, to);
+        }
+    }
+}
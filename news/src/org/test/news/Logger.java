@@ -1,38 +1,115 @@
 package org.test.news;
 
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
 
 /**
- * Mock implementation of a logger
- * 
+ * Asynchronous logger: the logging threads only hand the events over to an {@link AsyncLogWriter}, whose thread formats and
+ * writes them, so logging doesn't block on I/O or on the other logging threads.
+ * <p>
+ * The logging is configured with system properties shared by all the loggers: {@code -Dlog.level} (debug, info, warn, error
+ * or off - the default), {@code -Dlog.file} (the file the events are appended to, the standard output by default) and
+ * {@code -Dlog.buffer.size} (how many events can wait to be written before new ones are dropped, 16384 by default).
+ * </p>
+ * <p>
+ * An event which is not enabled costs a comparison, as long as the callers check {@link #isEnabled(Level)} before creating
+ * any arguments. {@link #log(Level, String, byte[], int, int)} copies raw message bytes into the event, so it doesn't create
+ * any objects on the logging thread and can be used for every message.
+ * </p>
+ *
  * @author Horia Chiorean (horia.chiorean@gmail.com)
  */
 public class Logger {
-    
-    private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm:SSS");
-    private final boolean print;
-    
-    protected Logger(boolean print) {
-        this.print = print;
-    }
-    
-    protected void log(String message, Object...args) {
-        if (!print) {
-            return;
+
+    /**
+     * The severity of an event; a logger writes the events of its level and above
+     */
+    protected enum Level {
+        DEBUG,
+        INFO,
+        WARN,
+        ERROR,
+        OFF
+    }
+
+    private static final Level LEVEL = Level.valueOf(System.getProperty("log.level", "off").toUpperCase(Locale.ROOT));
+
+    private final String name;
+
+    protected Logger(Class<?> owner) {
+        this.name = owner.getSimpleName();
+    }
+
+    protected boolean isEnabled() {
+        return isEnabled(Level.DEBUG);
+    }
+
+    protected boolean isEnabled(Level level) {
+        return level.compareTo(LEVEL) >= 0 && level != Level.OFF;
+    }
+
+    protected void log(String message, Object... args) {
+        log(Level.DEBUG, message, args);
+    }
+
+    protected void log(Level level, String message, Object... args) {
+        if (isEnabled(level)) {
+            Writer.INSTANCE.append(level, name, message, args, null, 0, 0, null);
+        }
+    }
+
+    /**
+     * Logs a message which includes raw UTF-8 bytes, without decoding them and without creating any objects
+     *
+     * @param level the level of the event
+     * @param message the message, where the first {@code %s} is replaced by the bytes
+     * @param data the buffer holding the bytes; never {@code null}
+     * @param from the index of the first byte (inclusive)
+     * @param to the index of the last byte (exclusive)
+     */
+    protected void log(Level level, String message, byte[] data, int from, int to) {
+        if (isEnabled(level)) {
+            Writer.INSTANCE.append(level, name, message, null, data, from, to, null);
         }
-        String formatted = "%s %s " + message + " %n";
-        Object[] newArgs = new Object[args.length + 2];
-        newArgs[0] = DATE_TIME_FORMATTER.format(LocalDateTime.now());
-        newArgs[1] = Thread.currentThread().getName();
-        System.arraycopy(args, 0, newArgs, 2, args.length);
-        System.out.printf(formatted, newArgs);
-    }  
-    
+    }
+
     protected void log(Throwable t) {
-        if (!print) {
-            return;
+        if (isEnabled(Level.WARN)) {
+            Writer.INSTANCE.append(Level.WARN, name, null, null, null, 0, 0, t);
+        }
+    }
+
+    /**
+     * Returns the number of events dropped because the logging threads were faster than the writer
+     *
+     * @return the number of events
+     */
+    protected static long droppedEvents() {
+        return LEVEL != Level.OFF ? Writer.INSTANCE.droppedCount() : 0;
+    }
+
+    /**
+     * Holds the writer, which is only created when the first event is logged
+     */
+    private static class Writer {
+        private static final AsyncLogWriter INSTANCE = create();
+
+        private static AsyncLogWriter create() {
+            int capacity = Integer.getInteger("log.buffer.size", 16384);
+            String file = System.getProperty("log.file");
+            Path path = file != null ? Paths.get(file) : null;
+            try {
+                return new AsyncLogWriter(capacity, path);
+            } catch (IOException e) {
+                System.err.println("cannot open " + path + ", logging to the standard output instead: " + e);
+                try {
+                    return new AsyncLogWriter(capacity, null);
+                } catch (IOException stdout) {
+                    throw new IllegalStateException(stdout);
+                }
+            }
         }
-        t.printStackTrace();
     }
 }
@@ -1,48 +1,69 @@
 package org.test.news;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.Consumer;
-import java.util.stream.DoubleStream;
-import java.util.stream.IntStream;
 
 /**
  * Generates random messages with a format of "headline priority", where headline is 3-5 words and priority a number between 0-9
  * based on some probability rules
+ * <p>
+ * The priorities and the words are sampled from {@link AliasTable}s, so the words can also follow a Zipf distribution over
+ * a large {@link Dictionary}, like the words of a real language do, at the same cost as a uniform one.
+ * </p>
  * 
  * @author Horia Chiorean (horia.chiorean@gmail.com)
  */
 public class MessageGenerator {
     
-    private static final byte[] PRIORITIES = new byte[] {0, 1, 2, 3, 4, 5, 6, 7, 8, 9};
     private static final double[] PROBABILITIES = new double[] {29.3, 19.3, 14.3, 10.9, 8.4, 6.5, 4.8, 3.4, 2.1, 1};
-   
-    private static final byte[] PRIORITIES_SOURCE;    
-    
-    static {
-        // fill the array which will be used to generate randoms based on probabilities
-        int[] PROBABILISTIC_ARRAY = DoubleStream.of(PROBABILITIES)
-                                                .mapToInt(p -> (int) (p * 10))
-                                                .toArray();
-        int size = IntStream.of(PROBABILISTIC_ARRAY).sum();
-        PRIORITIES_SOURCE = new byte[size];
-        // fill each position in the array with the element from PRIORITIES multiplies by the number of times from PROBABILISTIC_ARRAY
-        for (int i = 0; i < PRIORITIES.length; i++) {
-            int priority = PRIORITIES[i];
-            int numberOfTimes = PROBABILISTIC_ARRAY[i];
-            for (int j = 0; j < numberOfTimes; j++) {
-                PRIORITIES_SOURCE[j] = (byte) priority;
-            }
-        }
-    }
     
     private final int minWords;
     private final int maxWords;
+    private final List<String> allWords;
+    private final byte[][] wordBytes;
+    private final AliasTable words;
+    private final AliasTable priorities;
+    private final int maxMessageLength;
     
     protected MessageGenerator(int minWords, int maxWords) {
+        this(minWords, maxWords, Dictionary.INSTANCE, 0, PROBABILITIES);
+    }
+    
+    /**
+     * Creates a generator with custom distributions
+     *
+     * @param minWords the minimum number of words of a headline
+     * @param maxWords the maximum number of words of a headline
+     * @param dictionary the dictionary the words are taken from; never {@code null}
+     * @param wordExponent the exponent of the Zipf distribution of the words, where the first word of the dictionary is the
+     * most frequent one; 0 means all the words are equally likely
+     * @param priorityWeights the relative weights of the priorities 0-9; never {@code null}
+     */
+    protected MessageGenerator(int minWords, int maxWords, Dictionary dictionary, double wordExponent,
+                               double[] priorityWeights) {
+        if (minWords <= 0 || maxWords < minWords) {
+            throw new IllegalArgumentException("invalid number of words: " + minWords + "-" + maxWords);
+        }
+        if (priorityWeights.length != WindowSummary.PRIORITIES) {
+            throw new IllegalArgumentException("there must be a weight for each priority");
+        }
         this.minWords = minWords;
         this.maxWords = maxWords;
+        this.allWords = dictionary.allWords();
+        this.wordBytes = new byte[allWords.size()][];
+        int maxWordLength = 0;
+        for (int i = 0; i < wordBytes.length; i++) {
+            wordBytes[i] = allWords.get(i).getBytes(StandardCharsets.UTF_8);
+            maxWordLength = Math.max(maxWordLength, wordBytes[i].length);
+        }
+        this.words = AliasTable.zipf(allWords.size(), wordExponent);
+        this.priorities = new AliasTable(priorityWeights);
+        this.maxMessageLength = maxWords * (maxWordLength + 1) + 1;
     }
     
     /**
@@ -51,19 +72,64 @@ public class MessageGenerator {
      * @return a {@link String}, never {@code null}
      */
     public String generateMessage() {
-        List<String> allWords = Dictionary.INSTANCE.allWords();
         ThreadLocalRandom tlRandom = ThreadLocalRandom.current();
         int howMany = tlRandom.nextInt(minWords, maxWords + 1);
         StringBuilder message = new StringBuilder();
         for (int i = 0; i < howMany; i++) {
-            int wordIdx = tlRandom.nextInt(allWords.size());
-            message.append(allWords.get(wordIdx)).append(" ");
+            message.append(allWords.get(words.sample(tlRandom.nextLong()))).append(" ");
         }
-        byte priority = PRIORITIES_SOURCE[tlRandom.nextInt(PRIORITIES_SOURCE.length)];
-        message.append(priority);
+        message.append(priorities.sample(tlRandom.nextLong()));
         return message.toString();
     }
     
+    /**
+     * Generates a new random message with a [headline] [priority] format directly as UTF-8 bytes, without creating any
+     * objects; the messages are the same as the ones of {@link #generateMessage()}
+     *
+     * @param buffer the buffer the message is written to, which must have room for {@link #maxMessageLength()} bytes
+     * after the offset; never {@code null}
+     * @param offset the index of the first byte of the message
+     * @return the index after the last byte of the message
+     */
+    public int generateMessage(byte[] buffer, int offset) {
+        ThreadLocalRandom tlRandom = ThreadLocalRandom.current();
+        int howMany = tlRandom.nextInt(minWords, maxWords + 1);
+        for (int i = 0; i < howMany; i++) {
+            byte[] word = wordBytes[words.sample(tlRandom.nextLong())];
+            System.arraycopy(word, 0, buffer, offset, word.length);
+            offset += word.length;
+            buffer[offset++] = ' ';
+        }
+        buffer[offset++] = (byte) ('0' + priorities.sample(tlRandom.nextLong()));
+        return offset;
+    }
+    
+    /**
+     * Generates a number of messages into a (reusable) buffer, each one followed by a new line, without creating any objects
+     *
+     * @param count the number of messages to generate
+     * @param buffer the buffer the messages are written to, which must have room for {@code count} times
+     * {@link #maxMessageLength()} + 1 bytes after the offset; never {@code null}
+     * @param offset the index of the first byte of the first message
+     * @return the index after the new line of the last message
+     */
+    public int generateMessages(int count, byte[] buffer, int offset) {
+        for (int i = 0; i < count; i++) {
+            offset = generateMessage(buffer, offset);
+            buffer[offset++] = '\n';
+        }
+        return offset;
+    }
+    
+    /**
+     * Returns the largest number of bytes written by {@link #generateMessage(byte[], int)}
+     *
+     * @return the number of bytes
+     */
+    public int maxMessageLength() {
+        return maxMessageLength;
+    }
+    
     /**
      * Generates a variable number of messages giving them up for consumption to a {@link Consumer}
      * @param count the number of message to generate; must be positive
@@ -88,5 +154,44 @@ public class MessageGenerator {
             }
             Integer.valueOf(elements[elements.length - 1]);
         }
+        byte[] buffer = new byte[messageGenerator.maxMessageLength() + 1];
+        for (int i = 0; i < 1000; i++) {
+            buffer[buffer.length - 1] = 1;
+            int end = messageGenerator.generateMessage(buffer, 0);
+            String message = new String(buffer, 0, end, StandardCharsets.UTF_8);
+            String[] elements = message.split(" ");
+            if (elements.length < 4 || elements.length > 6 || buffer[buffer.length - 1] != 1) {
+                throw new IllegalStateException("Invalid message: " + message);
+            }
+            Integer.valueOf(elements[elements.length - 1]);
+        }
+        long[] priorityCounts = new long[WindowSummary.PRIORITIES];
+        byte[] batch = new byte[1000 * (messageGenerator.maxMessageLength() + 1)];
+        for (int i = 0; i < 1000; i++) {
+            int end = messageGenerator.generateMessages(1000, batch, 0);
+            for (int j = 0; j < end; j++) {
+                if (batch[j] == '\n') {
+                    priorityCounts[batch[j - 1] - '0']++;
+                }
+            }
+        }
+        if (!AliasTable.matches(priorityCounts, PROBABILITIES)) {
+            throw new IllegalStateException("Incorrect priority distribution: " + Arrays.toString(priorityCounts));
+        }
+        List<String> largeDictionary = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            largeDictionary.add("w" + i);
+        }
+        double[] uniform = {1, 1, 1, 1, 1, 1, 1, 1, 1, 1};
+        MessageGenerator zipf = new MessageGenerator(1, 1, Dictionary.of(largeDictionary, new int[largeDictionary.size()]), 1.07,
+                                                     uniform);
+        long[] wordCounts = new long[largeDictionary.size()];
+        for (int i = 0; i < 1_000_000; i++) {
+            String message = zipf.generateMessage();
+            wordCounts[Integer.parseInt(message.substring(1, message.indexOf(' ')))]++;
+        }
+        if (!AliasTable.matches(wordCounts, AliasTable.zipfWeights(largeDictionary.size(), 1.07))) {
+            throw new IllegalStateException("Incorrect word distribution");
+        }
     }
 }
@@ -0,0 +1,209 @@
+package org.test.news;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Parses the raw UTF-8 bytes of a "headline priority" message received from a {@link Feed}, scoring the headline words with a
+ * {@link PhraseScorer} directly on the bytes. Malformed messages are rejected without throwing and a {@link NewsItem} (along
+ * with its headline string) is only created for positive messages, so the rejected messages don't allocate anything.
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+public class MessageParser {
+
+    private static final Logger LOGGER = new Logger(MessageParser.class);
+
+    private final int feed;
+    private final PhraseScorer scorer;
+    private final AnalyzerMetrics.FeedMetrics metrics;
+    private final HeadlineFilter duplicates;
+    private long receivedNanos;
+
+    protected MessageParser(String feedId, PhraseScorer scorer) {
+        this(FeedRegistry.INSTANCE.intern(feedId), scorer, new AnalyzerMetrics.FeedMetrics(feedId, null));
+    }
+
+    /**
+     * Creates a parser for the messages of a feed
+     *
+     * @param feed the id of the feed in the {@link FeedRegistry#INSTANCE}
+     * @param scorer the scorer of the headlines, never {@code null}
+     * @param metrics the counters of the feed, never {@code null}
+     */
+    protected MessageParser(int feed, PhraseScorer scorer, AnalyzerMetrics.FeedMetrics metrics) {
+        this(feed, scorer, metrics, null);
+    }
+
+    /**
+     * Creates a parser for the messages of a feed which drops the headlines already received during the current window
+     *
+     * @param feed the id of the feed in the {@link FeedRegistry#INSTANCE}
+     * @param scorer the scorer of the headlines, never {@code null}
+     * @param metrics the counters of the feed, never {@code null}
+     * @param duplicates the filter of the headlines received from all the feeds or {@code null} if duplicates are accepted
+     */
+    protected MessageParser(int feed, PhraseScorer scorer, AnalyzerMetrics.FeedMetrics metrics, HeadlineFilter duplicates) {
+        this.feed = feed;
+        this.scorer = scorer;
+        this.metrics = metrics;
+        this.duplicates = duplicates;
+    }
+
+    /**
+     * Sets the time when the data about to be parsed was read, which is stored in the items created from it
+     *
+     * @param receivedNanos the {@link System#nanoTime()} of the read
+     */
+    protected void receivedAt(long receivedNanos) {
+        this.receivedNanos = receivedNanos;
+    }
+
+    protected AnalyzerMetrics.FeedMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Parses a message, taking the priority as the last character of the message
+     *
+     * @param data the buffer holding the message; never {@code null}
+     * @param from the index of the first byte of the message (inclusive)
+     * @param to the index of the last byte of the message (exclusive), excluding any line terminator
+     * @return a {@link NewsItem} if the message is well formed and positive, {@code null} otherwise
+     */
+    protected NewsItem parse(byte[] data, int from, int to) {
+        int priorityIdx = to - 1;
+        if (priorityIdx <= from || data[priorityIdx] < '0' || data[priorityIdx] > '9') {
+            metrics.received();
+            metrics.dropped(AnalyzerMetrics.DropReason.MALFORMED);
+            LOGGER.log(Logger.Level.DEBUG, "discarding message %s because it is not correctly formed; expected <headline> <prio>",
+                       data, from, to);
+            return null;
+        }
+        return parse((byte) (data[priorityIdx] - '0'), data, from, priorityIdx);
+    }
+
+    /**
+     * Parses a message whose priority was received separately from the headline, as done by the {@link BinaryProtocol}
+     *
+     * @param priority the priority of the message
+     * @param data the buffer holding the UTF-8 encoded headline; never {@code null}
+     * @param from the index of the first byte of the headline (inclusive)
+     * @param to the index of the last byte of the headline (exclusive)
+     * @return a {@link NewsItem} if the message is well formed and positive, {@code null} otherwise
+     */
+    protected NewsItem parse(byte priority, byte[] data, int from, int to) {
+        metrics.received();
+        if (priority < 0 || priority > 9 || !NewsItem.hasHeadline(data, from, to)) {
+            metrics.dropped(AnalyzerMetrics.DropReason.MALFORMED);
+            LOGGER.log(Logger.Level.DEBUG, "discarding headline %s because it is not correctly formed", data, from, to);
+            return null;
+        }
+        if (scorer.scoreMessage(data, from, to) <= 0) {
+            metrics.dropped(AnalyzerMetrics.DropReason.NOT_POSITIVE);
+            LOGGER.log(Logger.Level.DEBUG, "dropping %s because it's not positive", data, from, to);
+            return null;
+        }
+        if (isDuplicate(data, from, to)) {
+            LOGGER.log(Logger.Level.DEBUG, "dropping %s because it was already received", data, from, to);
+            return null;
+        }
+        metrics.accepted();
+        // the bytes are copied as they are, the headline is only decoded if it's displayed
+        return new NewsItem(priority, Arrays.copyOfRange(data, from, to), feed, receivedNanos);
+    }
+
+    /**
+     * Parses a message whose headline was received as the indexes of its words in the {@link Dictionary} of the scorer. The
+     * score is the sum of the word weights, so the headline is only rebuilt (as the words followed by a space each, the
+     * same as the text messages of a {@link Feed}) for positive messages.
+     *
+     * @param priority the priority of the message
+     * @param wordIds the word indexes; never {@code null}
+     * @param count the number of words
+     * @return a {@link NewsItem} if the message is well formed and positive, {@code null} otherwise
+     */
+    protected NewsItem parse(byte priority, int[] wordIds, int count) {
+        metrics.received();
+        Dictionary dictionary = scorer.dictionary();
+        int wordCount = dictionary.allWords().size();
+        int score = 0;
+        for (int i = 0; i < count; i++) {
+            int wordId = wordIds[i];
+            if (wordId < 0 || wordId >= wordCount) {
+                metrics.dropped(AnalyzerMetrics.DropReason.MALFORMED);
+                if (LOGGER.isEnabled()) {
+                    LOGGER.log("discarding message because of unknown word id %d", wordId);
+                }
+                return null;
+            }
+            score += dictionary.weight(wordId);
+        }
+        if (priority < 0 || priority > 9) {
+            metrics.dropped(AnalyzerMetrics.DropReason.MALFORMED);
+            return null;
+        }
+        if (score <= 0) {
+            metrics.dropped(AnalyzerMetrics.DropReason.NOT_POSITIVE);
+            return null;
+        }
+        StringBuilder headline = new StringBuilder(count * 8);
+        for (int i = 0; i < count; i++) {
+            headline.append(dictionary.allWords().get(wordIds[i])).append(' ');
+        }
+        byte[] message = headline.toString().getBytes(StandardCharsets.UTF_8);
+        if (!NewsItem.hasHeadline(message, 0, message.length)) {
+            metrics.dropped(AnalyzerMetrics.DropReason.MALFORMED);
+            return null;
+        }
+        if (isDuplicate(message, 0, message.length)) {
+            return null;
+        }
+        metrics.accepted();
+        return new NewsItem(priority, message, feed, receivedNanos);
+    }
+
+    private boolean isDuplicate(byte[] data, int from, int to) {
+        if (duplicates == null || duplicates.firstSighting(data, from, to)) {
+            return false;
+        }
+        metrics.dropped(AnalyzerMetrics.DropReason.DUPLICATE);
+        return true;
+    }
+
+    protected Dictionary dictionary() {
+        return scorer.dictionary();
+    }
+
+    public static void main(String[] args) {
+        //junit...sigh
+        MessageParser parser = new MessageParser("feed", PhraseScorer.INSTANCE);
+        NewsItem expected = new NewsItem((byte) 7, "up über down rise ", "feed");
+        if (!expected.equals(parse(parser, "up über down rise 7"))) {
+            throw new IllegalStateException("incorrect");
+        }
+        for (String message : new String[] {"down fall up 3", "up rise x", "", "5", " 5", "u5", "up rise ?"}) {
+            if (parse(parser, message) != null) {
+                throw new IllegalStateException("incorrect: " + message);
+            }
+        }
+        // up über down rise
+        if (!expected.equals(parser.parse((byte) 7, new int[] {0, 5, 6, 1}, 4))) {
+            throw new IllegalStateException("incorrect");
+        }
+        MessageParser deduplicating = new MessageParser(0, PhraseScorer.INSTANCE, parser.metrics(), new HeadlineFilter(64 * 1024, 1));
+        if (parse(deduplicating, "up über 7") == null || parse(deduplicating, "Up  über 3") != null ||
+            deduplicating.parse((byte) 7, new int[] {0, 5}, 2) != null) {
+            throw new IllegalStateException("incorrect duplicate detection");
+        }
+        if (parser.parse((byte) 7, new int[] {6, 7}, 2) != null || parser.parse((byte) 7, new int[] {0, 12}, 2) != null ||
+            parser.parse((byte) 10, new int[] {0}, 1) != null) {
+            throw new IllegalStateException("incorrect");
+        }
+    }
+
+    private static NewsItem parse(MessageParser parser, String message) {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        return parser.parse(bytes, 0, bytes.length);
+    }
+}
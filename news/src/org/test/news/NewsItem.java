@@ -1,56 +1,164 @@
 package org.test.news;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Objects;
 
 /**
  * Simple abstraction of a news item in the context of a {@link Analyzer} and {@link Feed}
- * This class intentionally implements reverse-comparable semantics so that the highest prio news items are placed at the 
+ * This class intentionally implements reverse-comparable semantics so that the highest prio news items are placed at the
  * beginning of a sorted collection
- * 
+ * <p>
+ * To keep the items small, the headline is stored as the UTF-8 bytes it was received as and the feed as the int id handed
+ * out by the {@link FeedRegistry}; the headline and feed strings are only created when they are displayed.
+ * </p>
+ *
  * @author Horia Chiorean (horia.chiorean@gmail.com)
  */
 public class NewsItem implements Comparable<NewsItem> {
-    
-    private final String message;
+
+    private final byte[] message;
     private final byte priority;
-    private final String feedId;
-    
+    private final int feed;
+    private final long receivedNanos;
+
     protected NewsItem(byte priority, String message, String feedId) {
+        this(priority, message, feedId, 0);
+    }
+
+    /**
+     * Creates a new item
+     *
+     * @param priority the priority, between 0 and 9
+     * @param message the headline, never {@code null}
+     * @param feedId the name of the feed which sent the item, never {@code null}
+     * @param receivedNanos the {@link System#nanoTime()} when the item was read from the feed or 0 if not known; this is
+     * not part of the identity of the item
+     */
+    protected NewsItem(byte priority, String message, String feedId, long receivedNanos) {
+        this(priority, Objects.requireNonNull(message, "message cannot be null").getBytes(StandardCharsets.UTF_8),
+             FeedRegistry.INSTANCE.intern(Objects.requireNonNull(feedId, "the feed cannot be null")), receivedNanos);
+    }
+
+    /**
+     * Creates a new item from its compact representation
+     *
+     * @param priority the priority, between 0 and 9
+     * @param message the UTF-8 bytes of the headline, which are not copied and must not be changed afterwards; never
+     * {@code null}
+     * @param feed the id of the feed in the {@link FeedRegistry#INSTANCE}
+     * @param receivedNanos the {@link System#nanoTime()} when the item was read from the feed or 0 if not known
+     */
+    protected NewsItem(byte priority, byte[] message, int feed, long receivedNanos) {
         this.priority = priority;
         this.message = message;
-        this.feedId = feedId;
+        this.feed = feed;
+        this.receivedNanos = receivedNanos;
         validate();
     }
-    
+
     private void validate() {
         Objects.requireNonNull(message, "message cannot be null");
-        if (message.trim().length() <= 1) {
+        if (!hasHeadline(message, 0, message.length)) {
             throw new IllegalArgumentException("message cannot be empty and must contain more than 1 char");
         }
         if (priority < 0 || priority > 9) {
             throw new IllegalArgumentException("priority must be between 0 and 9");
         }
-        Objects.requireNonNull(feedId, "the feed cannot be null");
     }
-   
+
+    /**
+     * Checks that UTF-8 encoded headline has more than one character once trimmed, without decoding it
+     *
+     * @param data the buffer holding the headline; never {@code null}
+     * @param from the index of the first byte (inclusive)
+     * @param to the index of the last byte (exclusive)
+     * @return {@code true} if the headline is valid
+     */
+    protected static boolean hasHeadline(byte[] data, int from, int to) {
+        while (from < to && (data[from] & 0xff) <= ' ') {
+            from++;
+        }
+        while (to > from && (data[to - 1] & 0xff) <= ' ') {
+            to--;
+        }
+        int chars = 0;
+        for (int i = from; i < to && chars <= 1; i++) {
+            int b = data[i] & 0xff;
+            if ((b & 0xc0) != 0x80) {
+                // the first byte of each UTF-8 sequence; 4 byte sequences are surrogate pairs in Java
+                chars += b >= 0xf0 ? 2 : 1;
+            }
+        }
+        return chars > 1;
+    }
+
+    protected long receivedNanos() {
+        return receivedNanos;
+    }
+
+    protected byte priority() {
+        return priority;
+    }
+
+    /**
+     * Returns the headline without the priority
+     *
+     * @return the message, never {@code null}
+     */
+    protected String message() {
+        return new String(message, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the UTF-8 bytes of the headline without the priority, which must not be changed
+     *
+     * @return the bytes, never {@code null}
+     */
+    protected byte[] messageBytes() {
+        return message;
+    }
+
+    /**
+     * Returns the id of the feed in the {@link FeedRegistry#INSTANCE}
+     *
+     * @return the id
+     */
+    protected int feed() {
+        return feed;
+    }
+
+    protected String feedId() {
+        return FeedRegistry.INSTANCE.name(feed);
+    }
+
     protected String headline() {
-        return message + " " + priority;
+        return new StringBuilder(message.length + 2).append(message()).append(' ').append(priority).toString();
     }
-    
+
     @Override
     public int compareTo(NewsItem other) {
        if (other.priority != priority) {
            return Integer.compare(other.priority, priority);
-       } else if (!other.message.equals(message)) {
-           // lexicographic is fine, we just need it to be stable
-           return other.message.compareTo(message);
-       } else if (!other.feedId.equals(feedId)) {
-           return other.feedId.compareTo(feedId);
        }
-       return 0;
+       // lexicographic on the UTF-8 bytes, which is the code point order; we just need it to be stable
+       int messageComparison = compareUnsigned(other.message, message);
+       if (messageComparison != 0) {
+           return messageComparison;
+       }
+       return Integer.compare(other.feed, feed);
+    }
+
+    private static int compareUnsigned(byte[] first, byte[] second) {
+        int length = Math.min(first.length, second.length);
+        for (int i = 0; i < length; i++) {
+            if (first[i] != second[i]) {
+                return Integer.compare(first[i] & 0xff, second[i] & 0xff);
+            }
+        }
+        return Integer.compare(first.length, second.length);
     }
-    
-    
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -61,19 +169,19 @@ public class NewsItem implements Comparable<NewsItem> {
         }
         NewsItem newsItem = (NewsItem) o;
         return priority == newsItem.priority &&
-               Objects.equals(message, newsItem.message) &&
-               Objects.equals(feedId, newsItem.feedId);
+               feed == newsItem.feed &&
+               Arrays.equals(message, newsItem.message);
     }
-    
+
     @Override
     public int hashCode() {
-        return Objects.hash(message, priority, feedId);
+        return 31 * (31 * Arrays.hashCode(message) + priority) + feed;
     }
-    
+
     @Override
     public String toString() {
         final StringBuffer sb = new StringBuffer("NewsItem[");
-        sb.append("message='").append(message).append('\'');
+        sb.append("message='").append(message()).append('\'');
         sb.append(", priority=").append(priority);
         sb.append(']');
         return sb.toString();
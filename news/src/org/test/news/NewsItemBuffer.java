@@ -0,0 +1,490 @@
+package org.test.news;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Bounded buffer between the feed readers and the aggregation of news items, which holds at most a fixed number of items
+ * regardless of how fast the feeds send data. What happens when the buffer is full is decided by an {@link OverloadPolicy}
+ * and the order in which the items are aggregated by a {@link Scheduling}.
+ * <p>
+ * The buffer also records how long the items wait in it, separately for each band of priorities of {@link FairLanes}.
+ * </p>
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+public class NewsItemBuffer implements Consumer<NewsItem> {
+
+    /**
+     * What to do with new items when the buffer is full
+     */
+    protected enum OverloadPolicy {
+        /**
+         * block the feed reader until there is space in the buffer, which in turn makes the feed block once the TCP buffers
+         * are full; not for readers shared by several feeds, such as the nio I/O loops, which would block all of them
+         */
+        BLOCK,
+        /**
+         * evict the oldest item with the lowest priority to make room for an item with a higher priority; the new item is
+         * dropped if it doesn't have a higher priority than everything in the buffer
+         */
+        DROP_LOWEST,
+        /**
+         * admit only a fraction of the items once the buffer is half full, which gets lower as the buffer fills up, and drop
+         * everything once it is full
+         */
+        SAMPLE;
+
+        protected static OverloadPolicy parse(String value) {
+            try {
+                return OverloadPolicy.valueOf(value.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown overload policy: " + value);
+            }
+        }
+    }
+
+    /**
+     * The order in which the buffered items are aggregated
+     */
+    protected enum Scheduling {
+        /**
+         * the highest priority first, so under sustained overload the lower priorities are only aggregated when there are no
+         * higher priority items at all
+         */
+        PRIORITY,
+        /**
+         * weighted-fair between the bands of priorities and round robin between the feeds of each band, see
+         * {@link FairLanes}; each band also gets an equal share of the capacity, so a flood of one band cannot fill the buffer
+         * for the others
+         */
+        FAIR;
+
+        protected static Scheduling parse(String value) {
+            try {
+                return Scheduling.valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown buffer scheduling: " + value);
+            }
+        }
+    }
+
+    private static final int DRAIN_BATCH_SIZE = 256;
+    // small enough that a high priority item doesn't wait behind a whole batch of a flooded band
+    private static final int FAIR_DRAIN_BATCH_SIZE = 16;
+
+    private final int capacity;
+    private final OverloadPolicy policy;
+    private final Scheduling scheduling;
+    private final int bandCapacity;
+    private final ReentrantLock lock;
+    private final Condition notFull;
+    private final Condition notEmpty;
+    private final ArrayDeque<NewsItem>[] itemsByPriority;
+    private final FairLanes lanes;
+    private final NewsItem[] drainBatch;
+    private final LongAdder blocked;
+    private final AtomicLongArray dropped;
+    private final LatencyHistogram[] waitByBand;
+    private int size;
+
+    protected NewsItemBuffer(int capacity, OverloadPolicy policy) {
+        this(capacity, policy, Scheduling.PRIORITY, null);
+    }
+
+    /**
+     * Creates a new buffer
+     *
+     * @param capacity the maximum number of items
+     * @param policy what to do with new items when the buffer is full; never {@code null}
+     * @param scheduling the order in which the items are aggregated; never {@code null}
+     * @param weights the weight of each band of priorities, from the lowest to the highest, for {@link Scheduling#FAIR}; may
+     * be {@code null} otherwise
+     * @throws IllegalArgumentException if the capacity is not positive or the weights are not valid
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    protected NewsItemBuffer(int capacity, OverloadPolicy policy, Scheduling scheduling, int[] weights) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The buffer capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.policy = policy;
+        this.scheduling = scheduling;
+        this.bandCapacity = Math.max(1, capacity / FairLanes.BANDS);
+        this.lanes = scheduling == Scheduling.FAIR ? new FairLanes(weights) : null;
+        this.lock = new ReentrantLock();
+        this.notFull = lock.newCondition();
+        this.notEmpty = lock.newCondition();
+        this.itemsByPriority = new ArrayDeque[WindowSummary.PRIORITIES];
+        for (int i = 0; i < itemsByPriority.length; i++) {
+            itemsByPriority[i] = new ArrayDeque<>();
+        }
+        this.drainBatch = new NewsItem[lanes != null ? FAIR_DRAIN_BATCH_SIZE : DRAIN_BATCH_SIZE];
+        this.blocked = new LongAdder();
+        this.dropped = new AtomicLongArray(WindowSummary.PRIORITIES);
+        this.waitByBand = new LatencyHistogram[FairLanes.BANDS];
+        Arrays.setAll(waitByBand, band -> new LatencyHistogram());
+    }
+
+    /**
+     * Adds an item to the buffer, applying the overload policy if the buffer is full
+     *
+     * @param item the item, never {@code null}
+     */
+    @Override
+    public void accept(NewsItem item) {
+        int priority = item.priority();
+        int band = FairLanes.band(priority);
+        if (policy == OverloadPolicy.SAMPLE && !sample(band)) {
+            dropped.incrementAndGet(priority);
+            return;
+        }
+        lock.lock();
+        try {
+            if (isFull(band) && !makeRoomFor(priority, band)) {
+                dropped.incrementAndGet(priority);
+                return;
+            }
+            if (lanes != null) {
+                lanes.add(item);
+            } else {
+                itemsByPriority[priority].addLast(item);
+            }
+            if (size++ == 0) {
+                notEmpty.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns whether there is no space for an item of a band: with fair scheduling each band has its own share of the
+     * capacity, otherwise the items share the whole capacity
+     */
+    private boolean isFull(int band) {
+        return lanes != null ? lanes.bandSize(band) == bandCapacity : size == capacity;
+    }
+
+    private boolean sample(int band) {
+        // not exact since it's read without the lock, but the capacity is still enforced when the item is added
+        int currentSize = lanes != null ? lanes.bandSize(band) : size;
+        int limit = lanes != null ? bandCapacity : capacity;
+        int threshold = limit / 2;
+        return currentSize < threshold || ThreadLocalRandom.current().nextInt(limit - threshold) >= currentSize - threshold;
+    }
+
+    private boolean makeRoomFor(int priority, int band) {
+        switch (policy) {
+            case BLOCK: {
+                blocked.increment();
+                try {
+                    while (isFull(band)) {
+                        notFull.await();
+                    }
+                    return true;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            case DROP_LOWEST: {
+                if (lanes != null) {
+                    // the band is full, so the chattiest feed with lower priority items in the band pays for it
+                    NewsItem evicted = lanes.evictFromLongestLane(band, priority);
+                    if (evicted == null) {
+                        return false;
+                    }
+                    dropped.incrementAndGet(evicted.priority());
+                    size--;
+                    return true;
+                }
+                for (int lower = 0; lower < priority; lower++) {
+                    if (!itemsByPriority[lower].isEmpty()) {
+                        itemsByPriority[lower].pollFirst();
+                        dropped.incrementAndGet(lower);
+                        size--;
+                        return true;
+                    }
+                }
+                return false;
+            }
+            default: {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Moves items from the buffer to a consumer, in the order of the scheduling, until the calling thread is interrupted
+     *
+     * @param consumer the consumer of the items, never {@code null}
+     */
+    protected void drainTo(Consumer<NewsItem> consumer) {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                int count = takeBatch();
+                long now = System.nanoTime();
+                for (int i = 0; i < count; i++) {
+                    NewsItem item = drainBatch[i];
+                    drainBatch[i] = null;
+                    if (item.receivedNanos() != 0) {
+                        waitByBand[FairLanes.band(item.priority())].record(now - item.receivedNanos());
+                    }
+                    consumer.accept(item);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private int takeBatch() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                notEmpty.await();
+            }
+            int count = 0;
+            if (lanes != null) {
+                NewsItem item;
+                while (count < drainBatch.length && (item = lanes.poll()) != null) {
+                    drainBatch[count++] = item;
+                }
+            }
+            for (int priority = itemsByPriority.length - 1; priority >= 0 && count < drainBatch.length; priority--) {
+                ArrayDeque<NewsItem> items = itemsByPriority[priority];
+                while (!items.isEmpty() && count < drainBatch.length) {
+                    drainBatch[count++] = items.pollFirst();
+                }
+            }
+            size -= count;
+            notFull.signalAll();
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of items currently in the buffer
+     *
+     * @return the number of items
+     */
+    protected int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    protected int capacity() {
+        return capacity;
+    }
+
+    protected OverloadPolicy policy() {
+        return policy;
+    }
+
+    protected Scheduling scheduling() {
+        return scheduling;
+    }
+
+    /**
+     * Returns how long the items of a band of priorities waited from being read until they were taken for aggregation
+     *
+     * @param band the index of the band, see {@link FairLanes#band(int)}
+     * @return the histogram of the waits; never {@code null}
+     */
+    protected LatencyHistogram waitLatency(int band) {
+        return waitByBand[band];
+    }
+
+    /**
+     * Returns the number of (band, feed) lanes which currently hold items, always 0 unless the scheduling is fair
+     *
+     * @return the number of lanes
+     */
+    protected int laneCount() {
+        if (lanes == null) {
+            return 0;
+        }
+        lock.lock();
+        try {
+            return lanes.laneCount();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns how many times a feed reader had to wait for space in the buffer
+     *
+     * @return the number of waits
+     */
+    protected long blockedCount() {
+        return blocked.sum();
+    }
+
+    /**
+     * Returns the number of items dropped so far for a given priority
+     *
+     * @param priority the priority, between 0 and 9
+     * @return the number of dropped items
+     */
+    protected long droppedCount(int priority) {
+        return dropped.get(priority);
+    }
+
+    /**
+     * Returns the total number of items dropped so far
+     *
+     * @return the number of dropped items
+     */
+    protected long droppedCount() {
+        long total = 0;
+        for (int i = 0; i < dropped.length(); i++) {
+            total += dropped.get(i);
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        long[] droppedByPriority = new long[dropped.length()];
+        Arrays.setAll(droppedByPriority, dropped::get);
+        return "NewsItemBuffer[policy=" + policy + ", scheduling=" + scheduling + ", capacity=" + capacity + ", blocked=" + blocked.sum() + ", dropped=" +
+               Arrays.toString(droppedByPriority) + ']';
+    }
+
+    public static void main(String[] args) throws Exception {
+        //junit...sigh
+        NewsItemBuffer dropLowest = new NewsItemBuffer(10, OverloadPolicy.DROP_LOWEST);
+        for (int i = 0; i < 100; i++) {
+            dropLowest.accept(new NewsItem((byte) (i % 10), "headline " + i, "feed"));
+        }
+        if (dropLowest.size() != 10 || dropLowest.droppedCount() != 90) {
+            throw new IllegalStateException("incorrect: " + dropLowest);
+        }
+        TopKAggregator aggregator = new TopKAggregator(10);
+        Thread drainer = new Thread(() -> dropLowest.drainTo(aggregator));
+        drainer.start();
+        while (dropLowest.size() > 0) {
+            Thread.sleep(10);
+        }
+        drainer.interrupt();
+        drainer.join();
+        // the highest priorities must have been kept
+        if (aggregator.drain().count(9) != 10) {
+            throw new IllegalStateException("incorrect: " + dropLowest);
+        }
+
+        NewsItemBuffer sample = new NewsItemBuffer(100, OverloadPolicy.SAMPLE);
+        for (int i = 0; i < 1000; i++) {
+            sample.accept(new NewsItem((byte) 1, "headline " + i, "feed"));
+        }
+        if (sample.size() > 100 || sample.size() < 50 || sample.droppedCount() != 1000 - sample.size()) {
+            throw new IllegalStateException("incorrect: " + sample);
+        }
+
+        NewsItemBuffer block = new NewsItemBuffer(1, OverloadPolicy.BLOCK);
+        block.accept(new NewsItem((byte) 1, "headline", "feed"));
+        Thread reader = new Thread(() -> block.accept(new NewsItem((byte) 2, "headline", "feed")));
+        reader.start();
+        reader.join(200);
+        if (!reader.isAlive() || block.blockedCount() != 1) {
+            throw new IllegalStateException("the reader should be blocked: " + block);
+        }
+        TopKAggregator blockAggregator = new TopKAggregator(1);
+        Thread blockDrainer = new Thread(() -> block.drainTo(blockAggregator));
+        blockDrainer.start();
+        reader.join();
+        blockDrainer.interrupt();
+        blockDrainer.join();
+
+        // a flood of low priority items from two feeds against a slow aggregation, with a high priority item every 2 ms
+        long priorityWait = flood(new NewsItemBuffer(300, OverloadPolicy.BLOCK, Scheduling.PRIORITY, null));
+        NewsItemBuffer fair = new NewsItemBuffer(300, OverloadPolicy.BLOCK, Scheduling.FAIR, new int[] {1, 4, 16});
+        long fairWait = flood(fair);
+        // with priority scheduling the high priority items wait for a whole batch and for space in the full buffer
+        if (fairWait >= priorityWait || fair.waitLatency(0).count() == 0) {
+            throw new IllegalStateException("incorrect fair scheduling: p99 " + fairWait + " ns fair, " + priorityWait +
+                                            " ns by priority, " + fair.waitLatency(0).count() + " low items aggregated");
+        }
+        NewsItemBuffer fairDropLowest = new NewsItemBuffer(6, OverloadPolicy.DROP_LOWEST, Scheduling.FAIR, new int[] {1, 1, 1});
+        for (int i = 0; i < 10; i++) {
+            fairDropLowest.accept(new NewsItem((byte) 0, "headline " + i, "chatty"));
+        }
+        // each band holds 2 items and the items of the same priority don't make room for each other
+        if (fairDropLowest.size() != 2 || fairDropLowest.droppedCount(0) != 8) {
+            throw new IllegalStateException("incorrect: " + fairDropLowest);
+        }
+        fairDropLowest.accept(new NewsItem((byte) 1, "headline", "quiet"));
+        fairDropLowest.accept(new NewsItem((byte) 1, "headline 2", "quiet"));
+        // the higher priority items of the quiet feed took the place of the items of the chatty feed
+        if (fairDropLowest.size() != 2 || fairDropLowest.droppedCount(0) != 10 || fairDropLowest.laneCount() != 1) {
+            throw new IllegalStateException("incorrect: " + fairDropLowest);
+        }
+        fairDropLowest.accept(new NewsItem((byte) 9, "headline", "chatty"));
+        fairDropLowest.accept(new NewsItem((byte) 9, "headline 2", "chatty"));
+        fairDropLowest.accept(new NewsItem((byte) 8, "headline", "other"));
+        // a lower priority item never evicts a higher one, even in a different lane of the same band
+        if (fairDropLowest.size() != 4 || fairDropLowest.droppedCount(8) != 1 || fairDropLowest.droppedCount(9) != 0 ||
+            fairDropLowest.laneCount() != 2) {
+            throw new IllegalStateException("incorrect: " + fairDropLowest);
+        }
+    }
+
+    /**
+     * Floods a buffer and returns the p99 wait of the high priority items
+     */
+    private static long flood(NewsItemBuffer buffer) throws InterruptedException {
+        Thread drainer = new Thread(() -> buffer.drainTo(item -> {
+            long until = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(20);
+            while (System.nanoTime() < until) {
+                // a slow aggregation
+            }
+        }));
+        drainer.start();
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Thread> feeds = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            String feed = "flood-" + i;
+            feeds.add(new Thread(() -> {
+                while (running.get()) {
+                    buffer.accept(new NewsItem((byte) 0, "headline", feed, System.nanoTime()));
+                }
+            }));
+        }
+        feeds.add(new Thread(() -> {
+            for (int i = 0; i < 150; i++) {
+                buffer.accept(new NewsItem((byte) 9, "headline", "urgent", System.nanoTime()));
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(2));
+            }
+        }));
+        feeds.forEach(Thread::start);
+        feeds.get(2).join();
+        running.set(false);
+        // lets the blocked feeds through
+        while (feeds.get(0).isAlive() || feeds.get(1).isAlive() || buffer.size() > 0) {
+            Thread.sleep(10);
+        }
+        drainer.interrupt();
+        drainer.join();
+        return buffer.waitLatency(2).percentile(99);
+    }
+}
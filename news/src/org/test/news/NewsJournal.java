@@ -0,0 +1,568 @@
+package org.test.news;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.ObjLongConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Durable, append-only journal of the accepted news items, so that the current window can be rebuilt after a restart and
+ * the reports of past windows can be computed again.
+ * <p>
+ * The items are handed over to the journal thread through a bounded queue, so the feed readers never wait for the disk
+ * unless the journal falls behind by more than the capacity of the queue. The journal thread appends each item as a
+ * record to a fixed size, memory-mapped segment file and forces the segment to disk at most once per sync interval, which
+ * commits all the records appended in the meantime together. A full segment is forced and a new one is started; the
+ * segments which were last written longer ago than the retention period are deleted at that point.
+ * </p>
+ * <p>
+ * If the journal thread stops because of an error, e.g. a full disk, the journal is marked as failed and the items queued
+ * from then on are dropped and counted as lost instead of waiting for room in the queue, so the aggregation is never held
+ * up by a dead journal.
+ * </p>
+ * <p>
+ * Each record is {@code [int length][int crc32][long time millis][byte priority][varint length][feed id]
+ * [varint length][headline]}, with the strings encoded as UTF-8 and the length and checksum covering everything after the
+ * checksum. A segment ends with the first zero length or with the first record whose checksum doesn't match, e.g. a record
+ * which was only partially written before a crash.
+ * </p>
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+public class NewsJournal implements Consumer<NewsItem>, Closeable {
+
+    protected static final int MIN_SEGMENT_SIZE = 64 * 1024;
+
+    private static final Logger LOGGER = new Logger(NewsJournal.class);
+    private static final String SEGMENT_PREFIX = "news-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final int RECORD_HEADER_LENGTH = 8;
+    private static final int WRITE_BATCH_SIZE = 1024;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    // how often an item waiting for room in the queue checks whether the journal failed
+    private static final long FULL_QUEUE_WAIT_MILLIS = 100;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long syncIntervalMillis;
+    private final long retentionMillis;
+    private final ArrayBlockingQueue<NewsItem> queue;
+    private final long baseMillis;
+    private final long baseNanos;
+    private final LongAdder blocked;
+    private final LongAdder lost;
+    private final AtomicLong journaled;
+    private final AtomicLong syncs;
+    private final Thread writerThread;
+    private final CRC32 crc;
+    private byte[] record;
+    private String lastFeedId;
+    private byte[] lastFeedIdBytes;
+    private long segmentSequence;
+    private FileChannel segmentChannel;
+    private MappedByteBuffer segment;
+    private volatile boolean running;
+    private volatile boolean failed;
+
+    /**
+     * Creates a new journal and starts its thread; the items are always appended to a new segment
+     *
+     * @param directory the directory of the segment files, which is created if it doesn't exist; never {@code null}
+     * @param segmentSize the size of each segment file, in bytes
+     * @param syncIntervalMillis the maximum time the records stay in memory before being forced to disk
+     * @param retentionMillis how long the segments are kept after they were last written or 0 to keep them forever
+     * @param queueCapacity the maximum number of items waiting to be appended
+     * @throws IOException if the first segment cannot be created
+     */
+    protected NewsJournal(Path directory, int segmentSize, long syncIntervalMillis, long retentionMillis, int queueCapacity)
+            throws IOException {
+        if (segmentSize < MIN_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("The journal segments must have at least " + MIN_SEGMENT_SIZE + " bytes");
+        }
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+        this.syncIntervalMillis = Math.max(1, syncIntervalMillis);
+        this.retentionMillis = retentionMillis;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        // the item timestamps are derived from the time they were read, without calling the clock for each of them
+        this.baseMillis = System.currentTimeMillis();
+        this.baseNanos = System.nanoTime();
+        this.blocked = new LongAdder();
+        this.lost = new LongAdder();
+        this.journaled = new AtomicLong();
+        this.syncs = new AtomicLong();
+        this.crc = new CRC32();
+        this.record = new byte[1024];
+        List<Path> segments = segments(directory);
+        this.segmentSequence = segments.isEmpty() ? 0 : sequence(segments.get(segments.size() - 1));
+        nextSegment();
+        this.running = true;
+        this.writerThread = new Thread(this::writeLoop, "journal-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Queues an item to be appended to the journal, waiting only if the queue is full; the item is dropped if the journal
+     * has failed
+     *
+     * @param item the item, never {@code null}
+     */
+    @Override
+    public void accept(NewsItem item) {
+        if (failed) {
+            lost.increment();
+            return;
+        }
+        if (!queue.offer(item)) {
+            blocked.increment();
+            try {
+                while (!queue.offer(item, FULL_QUEUE_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    if (failed) {
+                        lost.increment();
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        if (failed && queue.remove(item)) {
+            // queued after the journal thread dropped what was left in the queue
+            lost.increment();
+        }
+    }
+
+    /**
+     * Returns the number of items appended to the journal
+     *
+     * @return the number of items
+     */
+    protected long journaledCount() {
+        return journaled.get();
+    }
+
+    /**
+     * Returns the number of times the journal was forced to disk
+     *
+     * @return the number of times
+     */
+    protected long syncCount() {
+        return syncs.get();
+    }
+
+    /**
+     * Returns the number of items which had to wait for room in the queue
+     *
+     * @return the number of items
+     */
+    protected long blockedCount() {
+        return blocked.sum();
+    }
+
+    protected int queueSize() {
+        return queue.size();
+    }
+
+    /**
+     * Returns the number of items which were not journaled because the journal failed
+     *
+     * @return the number of items
+     */
+    protected long lostCount() {
+        return lost.sum();
+    }
+
+    /**
+     * Returns whether the journal thread stopped because of an error
+     *
+     * @return {@code true} if the journal failed
+     */
+    protected boolean failed() {
+        return failed;
+    }
+
+    private void writeLoop() {
+        List<NewsItem> batch = new ArrayList<>(WRITE_BATCH_SIZE);
+        long lastSyncMillis = System.currentTimeMillis();
+        boolean unsynced = false;
+        int appended = 0;
+        try {
+            while (running || !queue.isEmpty()) {
+                if (queue.drainTo(batch, WRITE_BATCH_SIZE) > 0) {
+                    for (NewsItem item : batch) {
+                        append(item);
+                        appended++;
+                    }
+                    batch.clear();
+                    appended = 0;
+                    unsynced = true;
+                } else {
+                    // not waiting on the queue itself, which would wake this thread up for each new item
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+                long now = System.currentTimeMillis();
+                if (unsynced && now - lastSyncMillis >= syncIntervalMillis) {
+                    // group commit: everything appended since the last sync
+                    sync();
+                    lastSyncMillis = now;
+                    unsynced = false;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            failed = true;
+            // the rest of the batch and whatever is queued, the items queued from now on are dropped by accept
+            lost.add(batch.size() - appended + queue.drainTo(new ArrayList<>()));
+            System.out.printf("The journal stopped because of an error, the items are no longer journaled: %s %n", e);
+            LOGGER.log(e);
+        } finally {
+            sync();
+        }
+    }
+
+    private void append(NewsItem item) throws IOException {
+        long millis = item.receivedNanos() != 0 ?
+                      baseMillis + TimeUnit.NANOSECONDS.toMillis(item.receivedNanos() - baseNanos) :
+                      System.currentTimeMillis();
+        // by name rather than by id, since the id of a disconnected feed is reused by a new feed
+        String feedId = item.feedId();
+        if (!feedId.equals(lastFeedId)) {
+            // consecutive items usually come from the same feed
+            this.lastFeedId = feedId;
+            this.lastFeedIdBytes = feedId.getBytes(StandardCharsets.UTF_8);
+        }
+        byte[] message = item.messageBytes();
+        int maxLength = 8 + 1 + 2 * 5 + lastFeedIdBytes.length + message.length;
+        if (RECORD_HEADER_LENGTH + maxLength > segmentSize) {
+            System.out.printf("Cannot journal an item of %d bytes, larger than a segment %n", maxLength);
+            return;
+        }
+        if (record.length < maxLength) {
+            this.record = new byte[Math.max(maxLength, 2 * record.length)];
+        }
+        ByteBuffer body = ByteBuffer.wrap(record);
+        body.putLong(millis);
+        body.put(item.priority());
+        body.position(BinaryProtocol.writeVarInt(record, body.position(), lastFeedIdBytes.length));
+        body.put(lastFeedIdBytes);
+        body.position(BinaryProtocol.writeVarInt(record, body.position(), message.length));
+        body.put(message);
+        int length = body.position();
+        if (segment.remaining() < RECORD_HEADER_LENGTH + length) {
+            nextSegment();
+        }
+        crc.reset();
+        crc.update(record, 0, length);
+        int start = segment.position();
+        segment.position(start + 4);
+        segment.putInt((int) crc.getValue());
+        segment.put(record, 0, length);
+        // the length is written last, so a reader never sees a length without its record
+        segment.putInt(start, length);
+        journaled.incrementAndGet();
+    }
+
+    private void sync() {
+        if (segment != null) {
+            segment.force();
+            syncs.incrementAndGet();
+        }
+    }
+
+    private void nextSegment() throws IOException {
+        if (segment != null) {
+            segment.force();
+            segmentChannel.close();
+        }
+        segmentSequence++;
+        Path file = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, segmentSequence, SEGMENT_SUFFIX));
+        this.segmentChannel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // the mapping extends the file to its full size, filled with zeros which mark the end of the records
+        this.segment = segmentChannel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        deleteExpiredSegments(file);
+    }
+
+    private void deleteExpiredSegments(Path current) throws IOException {
+        if (retentionMillis <= 0) {
+            return;
+        }
+        long oldestMillis = System.currentTimeMillis() - retentionMillis;
+        for (Path file : segments(directory)) {
+            if (!file.equals(current) && Files.getLastModifiedTime(file).toMillis() < oldestMillis) {
+                Files.deleteIfExists(file);
+                LOGGER.log(Logger.Level.INFO, "deleted expired journal segment %s", file);
+            }
+        }
+    }
+
+    /**
+     * Appends the items still in the queue, forces them to disk and stops the journal thread
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        segmentChannel.close();
+    }
+
+    /**
+     * Reads the items of a journal, oldest segment first
+     *
+     * @param directory the directory of the segment files; never {@code null}
+     * @param sinceMillis only the items journaled at or after this time are read; whole segments are skipped if the next
+     * segment starts before this time
+     * @param consumer receives each item along with the time it was read from its feed; never {@code null}
+     * @return the number of items read
+     * @throws IOException if the segments cannot be read
+     */
+    protected static long replay(Path directory, long sinceMillis, ObjLongConsumer<NewsItem> consumer) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return 0;
+        }
+        List<Path> segments = segments(directory);
+        long count = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            if (i + 1 < segments.size() && firstRecordMillis(segments.get(i + 1)) < sinceMillis) {
+                continue;
+            }
+            count += readSegment(segments.get(i), sinceMillis, consumer);
+        }
+        return count;
+    }
+
+    private static long firstRecordMillis(Path segment) throws IOException {
+        long[] first = {Long.MAX_VALUE};
+        readSegment(segment, Long.MIN_VALUE, (item, millis) -> {
+            if (first[0] == Long.MAX_VALUE) {
+                first[0] = millis;
+                throw new StopReading();
+            }
+        });
+        return first[0];
+    }
+
+    private static long readSegment(Path segment, long sinceMillis, ObjLongConsumer<NewsItem> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int feed = -1;
+            byte[] feedIdBytes = new byte[0];
+            CRC32 crc = new CRC32();
+            long count = 0;
+            while (data.remaining() >= RECORD_HEADER_LENGTH) {
+                int length = data.getInt();
+                int checksum = data.getInt();
+                if (length <= 0 || length > data.remaining()) {
+                    break;
+                }
+                byte[] body = new byte[length];
+                data.get(body);
+                crc.reset();
+                crc.update(body, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    LOGGER.log(Logger.Level.WARN, "corrupt record at the end of %s", segment);
+                    break;
+                }
+                ByteBuffer record = ByteBuffer.wrap(body);
+                long millis = record.getLong();
+                byte priority = record.get();
+                byte[] nextFeedId = readBytes(record);
+                if (feed < 0 || !Arrays.equals(feedIdBytes, nextFeedId)) {
+                    // consecutive items usually come from the same feed
+                    feedIdBytes = nextFeedId;
+                    feed = FeedRegistry.INSTANCE.intern(new String(nextFeedId, StandardCharsets.UTF_8));
+                }
+                byte[] message = readBytes(record);
+                if (millis >= sinceMillis) {
+                    consumer.accept(new NewsItem(priority, message, feed, 0), millis);
+                    count++;
+                }
+            }
+            return count;
+        } catch (StopReading e) {
+            return 0;
+        }
+    }
+
+    private static byte[] readBytes(ByteBuffer record) {
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = record.get();
+            length |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        byte[] bytes = new byte[length];
+        record.get(bytes);
+        return bytes;
+    }
+
+    private static List<Path> segments(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> {
+                String name = file.getFileName().toString();
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static long sequence(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * Stops reading a segment once the needed records were read
+     */
+    private static class StopReading extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private StopReading() {
+            super(null, null, false, false);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        //junit...sigh
+        Path directory = Files.createTempDirectory("news-journal");
+        try {
+            NewsJournal journal = new NewsJournal(directory, MIN_SEGMENT_SIZE, 5, TimeUnit.HOURS.toMillis(1), 100);
+            long start = System.nanoTime();
+            List<NewsItem> items = new ArrayList<>();
+            for (int i = 0; i < 5000; i++) {
+                NewsItem item = new NewsItem((byte) (i % 10), "über headline " + i, "feed-" + (i / 100),
+                                             start + TimeUnit.MILLISECONDS.toNanos(i));
+                items.add(item);
+                journal.accept(item);
+            }
+            journal.close();
+            List<Path> segments = segments(directory);
+            if (journal.journaledCount() != items.size() || segments.size() < 2 || journal.syncCount() == 0) {
+                throw new IllegalStateException("incorrect journal: " + journal.journaledCount() + " items in " + segments.size() +
+                                                " segments");
+            }
+            List<NewsItem> replayed = new ArrayList<>();
+            List<Long> times = new ArrayList<>();
+            replay(directory, 0, (item, millis) -> {
+                replayed.add(item);
+                times.add(millis);
+            });
+            if (!items.equals(replayed) || times.get(times.size() - 1) - times.get(0) < 4990) {
+                throw new IllegalStateException("incorrect replay: " + replayed.size() + " items");
+            }
+            long since = times.get(4000);
+            long[] recent = {0};
+            replay(directory, since, (item, millis) -> recent[0]++);
+            if (recent[0] < 1000 || recent[0] > 1010) {
+                throw new IllegalStateException("incorrect replay since " + since + ": " + recent[0] + " items");
+            }
+
+            // a partially written record at the end of the last segment is ignored
+            Path last = segments.get(segments.size() - 1);
+            try (FileChannel channel = FileChannel.open(last, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+                int end = 0;
+                while (data.getInt(end) != 0) {
+                    end += RECORD_HEADER_LENGTH + data.getInt(end);
+                }
+                data.putInt(end, 40);
+                data.putInt(end + 4, 12345);
+                data.put(end + RECORD_HEADER_LENGTH, (byte) 1);
+            }
+            if (replay(directory, 0, (item, millis) -> { }) != items.size()) {
+                throw new IllegalStateException("incorrect replay with a corrupt record");
+            }
+
+            // the segments older than the retention are deleted when a new segment is started
+            for (Path segment : segments) {
+                Files.setLastModifiedTime(segment, FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2)));
+            }
+            new NewsJournal(directory, MIN_SEGMENT_SIZE, 5, TimeUnit.HOURS.toMillis(1), 100).close();
+            if (segments(directory).size() != 1 || sequence(segments(directory).get(0)) != segments.size() + 1) {
+                throw new IllegalStateException("incorrect retention: " + segments(directory));
+            }
+
+            // the items of a feed which reused the id of a disconnected feed are journaled under the name of the new feed
+            Path reused = Files.createTempDirectory("news-journal-reused");
+            try {
+                NewsJournal reusedJournal = new NewsJournal(reused, MIN_SEGMENT_SIZE, 5, 0, 100);
+                int feed = FeedRegistry.INSTANCE.register("disconnected");
+                reusedJournal.accept(new NewsItem((byte) 1, "up".getBytes(StandardCharsets.UTF_8), feed, 0));
+                while (reusedJournal.journaledCount() == 0) {
+                    TimeUnit.MILLISECONDS.sleep(1);
+                }
+                FeedRegistry.INSTANCE.release(feed, 0);
+                if (FeedRegistry.INSTANCE.register("connected") != feed) {
+                    throw new IllegalStateException("the id was not reused");
+                }
+                reusedJournal.accept(new NewsItem((byte) 2, "rise".getBytes(StandardCharsets.UTF_8), feed, 0));
+                reusedJournal.close();
+                List<String> feeds = new ArrayList<>();
+                replay(reused, 0, (item, millis) -> feeds.add(item.message() + "@" + item.feedId()));
+                if (!feeds.equals(Arrays.asList("up@disconnected", "rise@connected"))) {
+                    throw new IllegalStateException("incorrect feeds after the id was reused: " + feeds);
+                }
+            } finally {
+                try (Stream<Path> files = Files.list(reused)) {
+                    for (Path file : files.collect(Collectors.toList())) {
+                        Files.delete(file);
+                    }
+                }
+                Files.delete(reused);
+            }
+
+            // a journal which cannot start a new segment fails and drops the items instead of blocking the callers
+            Path failing = Files.createTempDirectory("news-journal-failing");
+            NewsJournal failingJournal = new NewsJournal(failing, MIN_SEGMENT_SIZE, 5, 0, 100);
+            for (Path segment : segments(failing)) {
+                Files.delete(segment);
+            }
+            Files.delete(failing);
+            for (NewsItem item : items) {
+                failingJournal.accept(item);
+            }
+            failingJournal.close();
+            if (!failingJournal.failed() || failingJournal.lostCount() == 0 ||
+                failingJournal.journaledCount() + failingJournal.lostCount() != items.size()) {
+                throw new IllegalStateException("incorrect failed journal: " + failingJournal.journaledCount() + " journaled, " +
+                                                failingJournal.lostCount() + " lost");
+            }
+        } finally {
+            try (Stream<Path> files = Files.list(directory)) {
+                files.forEach(file -> {
+                    try {
+                        Files.delete(file);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+            Files.delete(directory);
+        }
+    }
+}
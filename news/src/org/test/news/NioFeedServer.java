@@ -0,0 +1,292 @@
+package org.test.news;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Non-blocking front-end for an {@link Analyzer} which multiplexes all the {@link Feed} connections over a fixed number of
+ * I/O loops. Each loop owns a {@link Selector} and a single read buffer which is reused for all its connections, so the
+ * number of threads stays the same regardless of how many feeds are connected.
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+public class NioFeedServer implements Closeable {
+
+    private static final Logger LOGGER = new Logger(NioFeedServer.class);
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_LINE_LENGTH = 8 * 1024;
+    private static final int ACCEPT_BACKLOG = 1024;
+
+    private final int port;
+    private final List<IoLoop> ioLoops;
+    private final Supplier<MessageParser> parserSupplier;
+    private final Consumer<NewsItem> sink;
+    private final ScoringPipeline pipeline;
+    private volatile Selector acceptSelector;
+    private volatile boolean running;
+    private volatile boolean accepting;
+    private volatile boolean draining;
+    private volatile long drainDeadlineNanos;
+
+    protected NioFeedServer(int port, int ioThreads, Supplier<MessageParser> parserSupplier,
+                            Consumer<NewsItem> sink, ScoringPipeline pipeline) throws IOException {
+        this.port = port;
+        this.parserSupplier = parserSupplier;
+        this.sink = sink;
+        this.pipeline = pipeline;
+        List<IoLoop> loops = new ArrayList<>(ioThreads);
+        for (int i = 0; i < ioThreads; i++) {
+            loops.add(new IoLoop(Selector.open()));
+        }
+        this.ioLoops = Collections.unmodifiableList(loops);
+        this.running = true;
+        this.accepting = true;
+    }
+
+    /**
+     * Returns the I/O loops which should be run by separate threads before calling {@link #acceptLoop()}
+     *
+     * @return a {@link List} of {@link Runnable}, never {@code null}
+     */
+    protected List<? extends Runnable> ioLoops() {
+        return ioLoops;
+    }
+
+    /**
+     * Accepts new connections, handing them off to the I/O loops in a round-robin fashion. This blocks the calling thread
+     * until it is interrupted, the server is closed or it {@link #stopAccepting() stops accepting}.
+     *
+     * @throws IOException if the server socket cannot be opened
+     */
+    protected void acceptLoop() throws IOException {
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open(); Selector selector = Selector.open()) {
+            this.acceptSelector = selector;
+            if (!accepting) {
+                // stopped before there was a selector to close
+                return;
+            }
+            serverChannel.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            int nextLoop = 0;
+            while (running && accepting && !Thread.currentThread().isInterrupted()) {
+                selector.select();
+                selector.selectedKeys().clear();
+                SocketChannel channel;
+                while ((channel = serverChannel.accept()) != null) {
+                    channel.configureBlocking(false);
+                    channel.socket().setKeepAlive(true);
+                    ioLoops.get(nextLoop).register(channel);
+                    nextLoop = (nextLoop + 1) % ioLoops.size();
+                }
+            }
+        } catch (ClosedSelectorException e) {
+            // closed via close()
+        }
+    }
+
+    /**
+     * Stops accepting new connections, which makes {@link #acceptLoop()} return; the connected feeds are still read
+     *
+     * @throws IOException if the server socket cannot be closed
+     */
+    protected void stopAccepting() throws IOException {
+        // checked by the accept loop once it has a selector, in case this is called before
+        accepting = false;
+        Selector selector = acceptSelector;
+        if (selector != null) {
+            selector.close();
+        }
+    }
+
+    /**
+     * Stops the I/O loops once they have read and decoded whatever the feeds have already sent, i.e. until a read returns no
+     * data, and disconnected the feeds. The connections which still have data at the deadline are disconnected without
+     * reading it.
+     *
+     * @param deadlineNanos the {@link System#nanoTime()} by which the loops should stop
+     */
+    protected void drain(long deadlineNanos) {
+        drainDeadlineNanos = deadlineNanos;
+        draining = true;
+        for (IoLoop ioLoop : ioLoops) {
+            ioLoop.selector.wakeup();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        stopAccepting();
+        for (IoLoop ioLoop : ioLoops) {
+            ioLoop.selector.wakeup();
+        }
+    }
+
+    /**
+     * A selector loop which reads data from a number of feed connections
+     */
+    private class IoLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<SocketChannel> pendingChannels;
+        private final ByteBuffer readBuffer;
+
+        private IoLoop(Selector selector) {
+            this.selector = selector;
+            this.pendingChannels = new ConcurrentLinkedQueue<>();
+            // a heap buffer so that the lines can be framed directly from the backing array
+            this.readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        }
+
+        private void register(SocketChannel channel) {
+            pendingChannels.offer(channel);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running && !draining && !Thread.currentThread().isInterrupted()) {
+                    selector.select();
+                    registerPendingChannels();
+                    Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+                    while (selectedKeys.hasNext()) {
+                        SelectionKey key = selectedKeys.next();
+                        selectedKeys.remove();
+                        if (key.isValid() && key.isReadable()) {
+                            read(key);
+                        }
+                    }
+                }
+                if (draining && running) {
+                    drainAll();
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                LOGGER.log(e);
+            } finally {
+                closeAll();
+            }
+        }
+
+        private void drainAll() {
+            // including the connections accepted just before the server stopped accepting
+            registerPendingChannels();
+            for (SelectionKey key : selector.keys()) {
+                FeedConnection connection = (FeedConnection) key.attachment();
+                try {
+                    while (System.nanoTime() - drainDeadlineNanos < 0 && readAvailable(connection) > 0) {
+                        // until the data sent so far is read
+                    }
+                } catch (IOException e) {
+                    // the feed is disconnected anyway
+                }
+                // quietly, there may be thousands of them
+                release(key, connection);
+            }
+        }
+
+        private void registerPendingChannels() {
+            SocketChannel channel;
+            while ((channel = pendingChannels.poll()) != null) {
+                try {
+                    FeedConnection connection = new FeedConnection(channel, parserSupplier.get());
+                    channel.register(selector, SelectionKey.OP_READ, connection);
+                    LOGGER.log(Logger.Level.INFO, "received client on %s", channel);
+                } catch (IOException e) {
+                    closeQuietly(channel);
+                }
+            }
+        }
+
+        private void read(SelectionKey key) {
+            FeedConnection connection = (FeedConnection) key.attachment();
+            try {
+                if (readAvailable(connection) < 0) {
+                    disconnect(key, connection);
+                    return;
+                }
+                int reply = connection.decoder.takeReply();
+                if (reply >= 0 && connection.channel.write(ByteBuffer.wrap(new byte[] {(byte) reply})) == 0) {
+                    // the socket buffer of a new connection can't be full, so something is wrong with the feed
+                    disconnect(key, connection);
+                }
+            } catch (IOException e) {
+                disconnect(key, connection);
+            }
+        }
+
+        /**
+         * Reads and decodes the data available on a connection, without waiting for more
+         *
+         * @return the number of bytes read, -1 if the feed closed the connection
+         */
+        private int readAvailable(FeedConnection connection) throws IOException {
+            readBuffer.clear();
+            int read = connection.channel.read(readBuffer);
+            if (read > 0) {
+                readBuffer.flip();
+                connection.decoder.decode(readBuffer.array(), readBuffer.position(), readBuffer.limit());
+            }
+            return read;
+        }
+
+        private void disconnect(SelectionKey key, FeedConnection connection) {
+            System.out.printf("client %s disconnected %n", connection.channel.toString());
+            release(key, connection);
+        }
+
+        private void release(SelectionKey key, FeedConnection connection) {
+            connection.decoder.close();
+            key.cancel();
+            closeQuietly(connection.channel);
+        }
+
+        private void closeAll() {
+            for (SelectionKey key : selector.keys()) {
+                // the cancelled ones were released already, while draining or when their feed disconnected
+                if (key.isValid()) {
+                    release(key, (FeedConnection) key.attachment());
+                }
+            }
+            closeQuietly(selector);
+            pendingChannels.forEach(NioFeedServer::closeQuietly);
+        }
+    }
+
+    /**
+     * The state of a single feed connection: decodes the incoming bytes into messages which are parsed straight from the
+     * read buffer.
+     */
+    private class FeedConnection {
+        private final SocketChannel channel;
+        private final FeedDecoder decoder;
+
+        private FeedConnection(SocketChannel channel, MessageParser parser) {
+            this.channel = channel;
+            this.decoder = new FeedDecoder(parser, sink, MAX_LINE_LENGTH, pipeline);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            LOGGER.log(e);
+        }
+    }
+}
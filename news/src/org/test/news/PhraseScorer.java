@@ -1,38 +1,64 @@
 package org.test.news;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Objects;
 
 /**
- * Scores a series of space-separated words, based on the number of positive and negative words.
- * 
+ * Scores a series of space-separated words, based on the weights of the positive and negative words of a {@link Dictionary}.
+ *
  * @author Horia Chiorean (horia.chiorean@gmail.com)
  * @see Dictionary
+ * @see WordTable
  */
 public class PhraseScorer {
-    
-    protected static final PhraseScorer INSTANCE = new PhraseScorer();
-    
-    private static final Map<String, Integer> SCORE_MAP;
-    
-    static {
-        SCORE_MAP = new HashMap<>(Dictionary.INSTANCE.allWords().size());
-        Dictionary.INSTANCE.goodWords().forEach(word -> SCORE_MAP.put(word, 1));
-        Dictionary.INSTANCE.badWords().forEach(word -> SCORE_MAP.put(word, -1));
+
+    protected static final PhraseScorer INSTANCE = new PhraseScorer(Dictionary.INSTANCE);
+
+    private final Dictionary dictionary;
+    private final WordTable words;
+
+    protected PhraseScorer(Dictionary dictionary) {
+        this.dictionary = dictionary;
+        this.words = WordTable.of(dictionary);
+    }
+
+    protected Dictionary dictionary() {
+        return dictionary;
     }
-    
-    private PhraseScorer() {
+
+    protected WordTable words() {
+        return words;
     }
-    
+
     protected int scoreMessage(String message) {
         Objects.requireNonNull(message);
-        return Arrays.stream(message.split(" "))
-                     .mapToInt(word -> SCORE_MAP.getOrDefault(word, 0))
-                     .sum();
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        return scoreMessage(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Scores a series of space-separated, UTF-8 encoded words without decoding them
+     *
+     * @param data the buffer holding the words; never {@code null}
+     * @param from the index of the first byte (inclusive)
+     * @param to the index of the last byte (exclusive)
+     * @return the sum of the weights of each word
+     */
+    protected int scoreMessage(byte[] data, int from, int to) {
+        int score = 0;
+        int wordStart = from;
+        for (int i = from; i <= to; i++) {
+            if (i == to || data[i] == ' ') {
+                if (i > wordStart) {
+                    score += words.weight(data, wordStart, i);
+                }
+                wordStart = i + 1;
+            }
+        }
+        return score;
     }
-    
+
     public static void main(String[] args) {
         //junit...sigh
         if (1 != INSTANCE.scoreMessage("up rise down")) {
@@ -43,6 +69,18 @@ public class PhraseScorer {
             throw new IllegalStateException("incorrect");
         } else if (-1 != INSTANCE.scoreMessage("über fall bad")) {
             throw new IllegalStateException("incorrect");
+        } else if (0 != INSTANCE.scoreMessage("  übe  unterr u ")) {
+            throw new IllegalStateException("incorrect");
+        }
+        PhraseScorer weighted = new PhraseScorer(Dictionary.of(Arrays.asList("up", "upper", "über", "u", "down", "up"),
+                                                               new int[] {1, 5, 3, 0, -2, 2}));
+        if (10 != weighted.scoreMessage("up upper über u upp")) {
+            throw new IllegalStateException("incorrect");
+        } else if (-4 != weighted.scoreMessage("down down")) {
+            throw new IllegalStateException("incorrect");
+        } else if (weighted.dictionary().weight(0) != 2 || weighted.dictionary().weight(5) != 2) {
+            // the word ids of a duplicate word must score like its text
+            throw new IllegalStateException("incorrect");
         }
     }
 }
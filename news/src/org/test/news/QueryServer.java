@@ -0,0 +1,346 @@
+package org.test.news;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Answers queries about the recent news items of an {@link Analyzer} from a {@link HeadlineIndex}, over a plain text
+ * protocol on a local port, e.g. with {@code nc localhost <port>}. Each request is a line and each response is a status
+ * line, {@code OK <window>ms <summary>} or {@code ERROR <reason>}, followed by tab separated result lines and an empty line:
+ * <ul>
+ *     <li>{@code top [k [window]]} - the counts and the top K items, one {@code <priority> <feed> <headline>} line each</li>
+ *     <li>{@code feeds [limit [window]]} - the busiest feeds, one {@code <feed> <total> <count of priority 0> ... <count
+ *     of priority 9>} line each</li>
+ *     <li>{@code search <word> [limit [window]]} - the most recent items containing a dictionary word, one
+ *     {@code <priority> <feed> <headline>} line each</li>
+ *     <li>{@code quit} - closes the connection</li>
+ * </ul>
+ * The windows are durations such as {@code 30s} or {@code 5m} and default to the window of the analyzer.
+ * <p>
+ * The port is only bound to the loopback address and there are only ever a few clients, so each one is served by its own
+ * thread.
+ * </p>
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+public class QueryServer implements Closeable {
+
+    private static final Logger LOGGER = new Logger(QueryServer.class);
+    private static final int DEFAULT_LIMIT = 10;
+    private static final int MAX_REQUEST_LENGTH = 1024;
+
+    private final ServerSocket serverSocket;
+    private final HeadlineIndex index;
+    private final long defaultWindowMillis;
+    private final Set<Socket> clients;
+    private final LatencyHistogram latency;
+    private volatile boolean closed;
+
+    /**
+     * Creates a new server listening for queries on the loopback address
+     *
+     * @param port the port, 0 meaning any free port
+     * @param index the index answering the queries; never {@code null}
+     * @param defaultWindowMillis the window of the queries which don't specify one
+     * @throws IOException if the port cannot be bound
+     */
+    protected QueryServer(int port, HeadlineIndex index, long defaultWindowMillis) throws IOException {
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        this.index = index;
+        this.defaultWindowMillis = defaultWindowMillis;
+        this.clients = ConcurrentHashMap.newKeySet();
+        this.latency = new LatencyHistogram();
+    }
+
+    /**
+     * Accepts clients until the server is closed, starting a thread for each one
+     */
+    protected void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                clients.add(socket);
+                Thread client = new Thread(() -> serve(socket), "query-client-" + socket.getPort());
+                client.setDaemon(true);
+                client.start();
+            } catch (IOException e) {
+                if (!closed) {
+                    LOGGER.log(e);
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)) {
+            StringBuilder line = new StringBuilder(64);
+            String request;
+            while (!closed && (request = readRequest(in, line)) != null) {
+                if ("quit".equalsIgnoreCase(request.trim())) {
+                    break;
+                }
+                out.write(answer(request));
+                out.flush();
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                LOGGER.log(Logger.Level.INFO, "query client %s failed: %s", socket, e.getMessage());
+            }
+        } finally {
+            clients.remove(socket);
+            close(socket);
+        }
+    }
+
+    /**
+     * Reads a request line without buffering more of it than needed to tell that it is too long, so that a client can't
+     * exhaust the memory with a line which never ends
+     *
+     * @param in the reader of the client
+     * @param line the buffer into which the request is read
+     * @return the request without its line terminator, truncated to {@code MAX_REQUEST_LENGTH + 1} characters if it is
+     * longer, or {@code null} if the client closed the connection
+     * @throws IOException if the request cannot be read
+     */
+    private static String readRequest(Reader in, StringBuilder line) throws IOException {
+        line.setLength(0);
+        boolean truncated = false;
+        int c;
+        while ((c = in.read()) != -1 && c != '\n') {
+            if (line.length() <= MAX_REQUEST_LENGTH) {
+                line.append((char) c);
+            } else {
+                // the rest of the line is skipped, the request being rejected anyway
+                truncated = true;
+            }
+        }
+        if (c == -1 && line.length() == 0) {
+            return null;
+        }
+        int length = line.length();
+        if (!truncated && length > 0 && line.charAt(length - 1) == '\r') {
+            line.setLength(length - 1);
+        }
+        return line.toString();
+    }
+
+    /**
+     * Answers a single request
+     *
+     * @param request the request line; never {@code null}
+     * @return the response, ending with an empty line; never {@code null}
+     */
+    protected String answer(String request) {
+        long start = System.nanoTime();
+        StringBuilder response = new StringBuilder(256);
+        try {
+            if (request.length() > MAX_REQUEST_LENGTH) {
+                throw new IllegalArgumentException("The request is too long");
+            }
+            String[] parts = request.trim().split("\\s+");
+            switch (parts[0].toLowerCase(Locale.ROOT)) {
+                case "top": {
+                    top(parts, response);
+                    break;
+                }
+                case "feeds": {
+                    feeds(parts, response);
+                    break;
+                }
+                case "search": {
+                    search(parts, response);
+                    break;
+                }
+                default: {
+                    throw new IllegalArgumentException("Unknown request '" + parts[0] + "'; expected top, feeds, search or quit");
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            response.setLength(0);
+            response.append("ERROR ").append(e.getMessage()).append('\n');
+        }
+        latency.record(System.nanoTime() - start);
+        return response.append('\n').toString();
+    }
+
+    private void top(String[] parts, StringBuilder response) {
+        int k = intArgument(parts, 1, DEFAULT_LIMIT);
+        long millis = windowArgument(parts, 2);
+        WindowSummary summary = index.top(k, millis);
+        status(response, millis).append(summary.total()).append(" positive items\n");
+        appendItems(summary.topItems(), response);
+    }
+
+    private void feeds(String[] parts, StringBuilder response) {
+        int limit = intArgument(parts, 1, DEFAULT_LIMIT);
+        long millis = windowArgument(parts, 2);
+        Map<String, long[]> feeds = index.feedCounts(millis);
+        status(response, millis).append(feeds.size()).append(" feeds\n");
+        feeds.entrySet().stream().limit(limit).forEach(entry -> {
+            long[] counts = entry.getValue();
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            response.append(entry.getKey()).append('\t').append(total);
+            for (long count : counts) {
+                response.append('\t').append(count);
+            }
+            response.append('\n');
+        });
+    }
+
+    private void search(String[] parts, StringBuilder response) {
+        if (parts.length < 2) {
+            throw new IllegalArgumentException("Missing word; expected search <word> [limit [window]]");
+        }
+        String word = parts[1];
+        if (!index.isIndexed(word)) {
+            throw new IllegalArgumentException("'" + word + "' is not a dictionary word");
+        }
+        int limit = intArgument(parts, 2, DEFAULT_LIMIT);
+        long millis = windowArgument(parts, 3);
+        List<NewsItem> items = index.search(word, limit, millis);
+        status(response, millis).append(items.size()).append(" items\n");
+        appendItems(items, response);
+    }
+
+    private StringBuilder status(StringBuilder response, long millis) {
+        return response.append("OK ").append(index.coveredMillis(millis)).append("ms ");
+    }
+
+    private static void appendItems(List<NewsItem> items, StringBuilder response) {
+        for (NewsItem item : items) {
+            response.append(item.priority()).append('\t').append(item.feedId()).append('\t').append(item.message()).append('\n');
+        }
+    }
+
+    private static int intArgument(String[] parts, int position, int defaultValue) {
+        if (parts.length <= position) {
+            return defaultValue;
+        }
+        try {
+            int value = Integer.parseInt(parts[position]);
+            if (value <= 0) {
+                throw new IllegalArgumentException("The limit must be positive: " + parts[position]);
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid limit: " + parts[position]);
+        }
+    }
+
+    private long windowArgument(String[] parts, int position) {
+        if (parts.length <= position) {
+            return defaultWindowMillis;
+        }
+        long millis = AnalyzerConfig.parseMillis(parts[position]);
+        if (millis <= 0) {
+            throw new IllegalArgumentException("The window must be positive: " + parts[position]);
+        }
+        return millis;
+    }
+
+    /**
+     * Returns the port the clients connect to
+     *
+     * @return the port
+     */
+    protected int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Returns how long the requests took to answer, excluding the network
+     *
+     * @return the histogram of the latencies; never {@code null}
+     */
+    protected LatencyHistogram latency() {
+        return latency;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        clients.forEach(QueryServer::close);
+    }
+
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        //junit...sigh
+        HeadlineIndex index = new HeadlineIndex(PhraseScorer.INSTANCE.words(), 10, 1000, 10_000);
+        for (int i = 0; i < 1000; i++) {
+            index.accept(new NewsItem((byte) (i % 10), "up rise " + i, "feed-" + (i % 3)));
+        }
+        index.slide();
+        index.accept(new NewsItem((byte) 2, "über high", "quiet"));
+        try (QueryServer server = new QueryServer(0, index, 5000)) {
+            Thread acceptThread = new Thread(server::acceptLoop);
+            acceptThread.setDaemon(true);
+            acceptThread.start();
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.port());
+                 BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                 Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)) {
+                out.write("top 2\nfeeds 1 1s\r\nsearch high\nsearch nothing\nbottom\ntop 0\n");
+                // much longer than a request can be, followed by a request which must still be answered
+                char[] tooLong = new char[1_000_000];
+                Arrays.fill(tooLong, 'x');
+                out.write(tooLong);
+                out.write("\ntop 1\n");
+                out.flush();
+                String[][] expected = {
+                        {"OK 2000ms 1001 positive items", "9\tfeed-0\tup rise 999", "9\tfeed-0\tup rise 99"},
+                        {"OK 1000ms 1 feeds", "quiet\t1\t0\t0\t1\t0\t0\t0\t0\t0\t0\t0"},
+                        {"OK 2000ms 1 items", "2\tquiet\tüber high"},
+                        {"ERROR 'nothing' is not a dictionary word"},
+                        {"ERROR Unknown request 'bottom'; expected top, feeds, search or quit"},
+                        {"ERROR The limit must be positive: 0"},
+                        {"ERROR The request is too long"},
+                        {"OK 2000ms 1001 positive items", "9\tfeed-0\tup rise 999"}};
+                for (String[] response : expected) {
+                    for (String line : response) {
+                        String actual = in.readLine();
+                        if (!line.equals(actual)) {
+                            throw new IllegalStateException("expected '" + line + "' but got '" + actual + "'");
+                        }
+                    }
+                    if (!in.readLine().isEmpty()) {
+                        throw new IllegalStateException("the response does not end with an empty line");
+                    }
+                }
+                out.write("quit\n");
+                out.flush();
+                if (in.readLine() != null) {
+                    throw new IllegalStateException("the connection was not closed");
+                }
+            }
+            if (server.latency().count() != 8) {
+                throw new IllegalStateException("incorrect: " + server.latency());
+            }
+        }
+    }
+}
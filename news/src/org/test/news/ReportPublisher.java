@@ -0,0 +1,418 @@
+package org.test.news;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Pushes the report of each window of an {@link Analyzer} to any number of subscribers, e.g. dashboards, connected over
+ * TCP. Each report is a status line, {@code REPORT <sequence> <window>ms <total>}, followed by a line with the tab separated
+ * counts of the priorities 0 to 9, one {@code <priority> <feed> <headline>} line for each top item and an empty line, so
+ * {@code nc <host> <port>} is enough to follow the reports. Whatever the subscribers send is ignored.
+ * <p>
+ * Each report is serialized only once, into a read-only direct buffer shared by all the subscribers, each one only having
+ * its own position in it. The reporting thread only serializes the report and hands it off to the single thread of the
+ * publisher, which writes it to the subscribers with non-blocking writes, gathering the report which was partially written
+ * to a subscriber and the latest one. So a slow subscriber never holds up the reporting or the other subscribers: since
+ * each report replaces the previous one, the reports it isn't ready for are skipped, it only ever gets the latest one, and
+ * it is disconnected after skipping {@link #MAX_SKIPPED_REPORTS} reports in a row.
+ * </p>
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+public class ReportPublisher implements Closeable, Runnable {
+
+    private static final Logger LOGGER = new Logger(ReportPublisher.class);
+    protected static final int MAX_SKIPPED_REPORTS = 16;
+    private static final int ACCEPT_BACKLOG = 256;
+    private static final int READ_BUFFER_SIZE = 1024;
+
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final long windowMillis;
+    private final AtomicReference<Report> published;
+    private final ByteBuffer readBuffer;
+    private Report latest;
+    private long sequence;
+    private volatile int subscriberCount;
+    private volatile long skippedReports;
+    private volatile long droppedSubscribers;
+    private volatile boolean closed;
+
+    /**
+     * Creates a new publisher listening for subscribers on all the interfaces
+     *
+     * @param port the port, 0 meaning any free port
+     * @param windowMillis the length of the reported windows
+     * @throws IOException if the port cannot be bound
+     */
+    protected ReportPublisher(int port, long windowMillis) throws IOException {
+        this.windowMillis = windowMillis;
+        this.published = new AtomicReference<>();
+        this.readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            serverChannel.close();
+            selector.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Serializes the report of a window and hands it off to the thread of the publisher; this never blocks on the subscribers
+     *
+     * @param summary the summary of the window; never {@code null}
+     */
+    protected void publish(WindowSummary summary) {
+        if (closed) {
+            return;
+        }
+        // an older report the publisher hasn't even seen yet is simply replaced
+        sequence++;
+        published.set(new Report(sequence, encode(sequence, windowMillis, summary)));
+        selector.wakeup();
+    }
+
+    /**
+     * Serializes a report
+     *
+     * @param sequence the number of the report
+     * @param windowMillis the length of the window
+     * @param summary the summary of the window; never {@code null}
+     * @return a read-only direct buffer, ready to be written; never {@code null}
+     */
+    protected static ByteBuffer encode(long sequence, long windowMillis, WindowSummary summary) {
+        StringBuilder report = new StringBuilder(64 + summary.topItems().size() * 64);
+        report.append("REPORT ").append(sequence).append(' ').append(windowMillis).append("ms ").append(summary.total()).append('\n');
+        for (int priority = 0; priority < WindowSummary.PRIORITIES; priority++) {
+            report.append(priority > 0 ? "\t" : "").append(summary.count(priority));
+        }
+        report.append('\n');
+        for (NewsItem item : summary.topItems()) {
+            report.append(item.priority()).append('\t').append(item.feedId()).append('\t').append(item.message()).append('\n');
+        }
+        byte[] bytes = report.append('\n').toString().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * Accepts the subscribers and writes the reports to them until the publisher is closed
+     */
+    @Override
+    public void run() {
+        try {
+            while (!closed) {
+                selector.select();
+                Report report = published.getAndSet(null);
+                if (report != null) {
+                    latest = report;
+                    for (SelectionKey key : new ArrayList<>(selector.keys())) {
+                        if (key.isValid() && key.attachment() != null) {
+                            offer(key, report);
+                        }
+                    }
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        if (key.isReadable()) {
+                            discardInput(key);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            write(key);
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                LOGGER.log(e);
+            }
+        } finally {
+            flushLast();
+            closeAll();
+        }
+    }
+
+    /**
+     * Makes a single attempt to write the report published right before closing, e.g. the last window on shutdown
+     */
+    private void flushLast() {
+        Report report = published.getAndSet(null);
+        if (report == null || !selector.isOpen()) {
+            return;
+        }
+        for (SelectionKey key : new ArrayList<>(selector.keys())) {
+            if (key.isValid() && key.attachment() != null) {
+                offer(key, report);
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ, new Subscriber());
+            subscriberCount++;
+            LOGGER.log(Logger.Level.INFO, "subscriber %s connected", channel);
+            if (latest != null) {
+                // so a new dashboard doesn't have to wait for the next window
+                offer(key, latest);
+            }
+        }
+    }
+
+    private void offer(SelectionKey key, Report report) {
+        Subscriber subscriber = (Subscriber) key.attachment();
+        if (subscriber.reports[1] != null) {
+            // the replaced report and any report the publisher itself never got to
+            long skipped = report.sequence - subscriber.lastSequence;
+            subscriber.skipped += skipped;
+            skippedReports += skipped;
+            if (subscriber.skipped > MAX_SKIPPED_REPORTS) {
+                droppedSubscribers++;
+                LOGGER.log(Logger.Level.INFO, "dropping subscriber %s after %d skipped reports", key.channel(), subscriber.skipped);
+                disconnect(key);
+                return;
+            }
+        }
+        // only a position and a limit of its own, the content is shared
+        subscriber.reports[subscriber.reports[0] == null ? 0 : 1] = report.buffer.duplicate();
+        subscriber.lastSequence = report.sequence;
+        write(key);
+    }
+
+    private void write(SelectionKey key) {
+        Subscriber subscriber = (Subscriber) key.attachment();
+        try {
+            int count = subscriber.reports[1] != null ? 2 : 1;
+            ((SocketChannel) key.channel()).write(subscriber.reports, 0, count);
+        } catch (IOException e) {
+            disconnect(key);
+            return;
+        }
+        if (subscriber.reports[0].hasRemaining()) {
+            // wait until the subscriber reads the rest
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            return;
+        }
+        subscriber.skipped = 0;
+        subscriber.reports[0] = subscriber.reports[1];
+        subscriber.reports[1] = null;
+        if (subscriber.reports[0] != null && subscriber.reports[0].hasRemaining()) {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        } else {
+            subscriber.reports[0] = null;
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    private void discardInput(SelectionKey key) {
+        try {
+            int read;
+            do {
+                readBuffer.clear();
+                read = ((SocketChannel) key.channel()).read(readBuffer);
+            } while (read > 0);
+            if (read == -1) {
+                disconnect(key);
+            }
+        } catch (IOException e) {
+            disconnect(key);
+        }
+    }
+
+    private void disconnect(SelectionKey key) {
+        key.cancel();
+        subscriberCount--;
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    private void closeAll() {
+        for (SelectionKey key : selector.keys()) {
+            try {
+                key.channel().close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+        subscriberCount = 0;
+        try {
+            selector.close();
+        } catch (IOException e) {
+            LOGGER.log(e);
+        }
+    }
+
+    /**
+     * Returns the port the subscribers connect to
+     *
+     * @return the port
+     */
+    protected int port() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    protected int subscriberCount() {
+        return subscriberCount;
+    }
+
+    /**
+     * Returns the number of reports which were not sent to a subscriber because it was still reading an older one
+     *
+     * @return the number of reports, summed over all the subscribers
+     */
+    protected long skippedReports() {
+        return skippedReports;
+    }
+
+    protected long droppedSubscribers() {
+        return droppedSubscribers;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        // the thread of the publisher closes the channels
+        selector.wakeup();
+    }
+
+    /**
+     * The reports a subscriber hasn't fully read yet: the one being written and the latest one
+     */
+    private static final class Subscriber {
+        private final ByteBuffer[] reports = new ByteBuffer[2];
+        private long lastSequence;
+        private long skipped;
+    }
+
+    private static final class Report {
+        private final long sequence;
+        private final ByteBuffer buffer;
+
+        private Report(long sequence, ByteBuffer buffer) {
+            this.sequence = sequence;
+            this.buffer = buffer;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        //junit...sigh
+        ReportPublisher publisher = new ReportPublisher(0, 5000);
+        Thread thread = new Thread(publisher, "report-publisher");
+        thread.setDaemon(true);
+        thread.start();
+        long[] counts = new long[WindowSummary.PRIORITIES];
+        counts[9] = 2;
+        counts[1] = 1;
+        List<NewsItem> items = new ArrayList<>();
+        items.add(new NewsItem((byte) 9, "up rise", "feed-1"));
+        items.add(new NewsItem((byte) 9, "über high", "feed-2"));
+        WindowSummary summary = new WindowSummary(counts, items);
+        int readers = 100;
+        List<Socket> sockets = new ArrayList<>();
+        Socket stalled = new Socket(InetAddress.getLoopbackAddress(), publisher.port());
+        // a dashboard which never reads, so its buffers fill up
+        stalled.setReceiveBufferSize(1024);
+        for (int i = 0; i < readers; i++) {
+            sockets.add(new Socket(InetAddress.getLoopbackAddress(), publisher.port()));
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (publisher.subscriberCount() < readers + 1) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("the subscribers were not accepted: " + publisher.subscriberCount());
+            }
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        publisher.publish(summary);
+        String[] expected = {"REPORT 1 5000ms 3", "0\t1\t0\t0\t0\t0\t0\t0\t0\t2", "9\tfeed-1\tup rise", "9\tfeed-2\tüber high", ""};
+        for (Socket socket : sockets) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            for (String line : expected) {
+                String actual = in.readLine();
+                if (!line.equals(actual)) {
+                    throw new IllegalStateException("expected '" + line + "' but got '" + actual + "'");
+                }
+            }
+            Thread reader = new Thread(() -> {
+                try {
+                    char[] buffer = new char[64 * 1024];
+                    while (in.read(buffer) != -1) {
+                        // keep up with the reports
+                    }
+                } catch (IOException e) {
+                    // closed
+                }
+            });
+            reader.setDaemon(true);
+            reader.start();
+        }
+        // large reports, which the stalled subscriber cannot keep up with
+        for (int i = 0; i < 20_000; i++) {
+            items.add(new NewsItem((byte) 1, "up " + i, "feed-3"));
+        }
+        WindowSummary large = new WindowSummary(counts, items);
+        long maxPublishNanos = 0;
+        deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+        // until the buffers of the stalled subscriber are full and it skipped enough reports
+        while (publisher.droppedSubscribers() == 0) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("the stalled subscriber was not dropped, skipped " + publisher.skippedReports());
+            }
+            long start = System.nanoTime();
+            publisher.publish(large);
+            maxPublishNanos = Math.max(maxPublishNanos, System.nanoTime() - start);
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        if (TimeUnit.NANOSECONDS.toMillis(maxPublishNanos) > 500) {
+            throw new IllegalStateException("the publishing was held up by the subscribers");
+        }
+        if (publisher.droppedSubscribers() != 1 || publisher.subscriberCount() != readers) {
+            throw new IllegalStateException("incorrect: " + publisher.droppedSubscribers() + " dropped, " +
+                                            publisher.subscriberCount() + " subscribers");
+        }
+        publisher.close();
+        thread.join(5000);
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        stalled.close();
+        if (thread.isAlive() || publisher.subscriberCount() != 0) {
+            throw new IllegalStateException("the publisher did not stop");
+        }
+    }
+}
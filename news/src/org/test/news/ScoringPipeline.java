@@ -0,0 +1,569 @@
+package org.test.news;
+
+import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Parses and scores the text messages of the feeds on a fixed set of worker threads instead of the threads reading the feeds,
+ * so the scoring scales with the number of cores regardless of how many feeds are connected. The work is split in three
+ * stages connected by {@link SpscQueue}s:
+ * <ol>
+ * <li>the reader of each feed only frames its messages, copying the messages of each read into a batch which is queued to
+ * the {@link Lane} of the feed</li>
+ * <li>each worker parses and scores the batches of the lanes it was given; a worker without any work steals the lanes of
+ * the other workers, a lane at a time, so the messages of a feed are still parsed in order by a single thread at a time</li>
+ * <li>a single sink thread hands over the positive items queued by the workers to the aggregation</li>
+ * </ol>
+ * <p>
+ * The batches go back to their lane once scored and are reused, so the pipeline itself doesn't create any objects. When a
+ * queue is full the stage feeding it waits, so a slow aggregation slows down the readers and in turn the feeds, like the
+ * {@code BLOCK} policy of the {@link NewsItemBuffer}.
+ * </p>
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+public class ScoringPipeline implements Closeable {
+
+    private static final Logger LOGGER = new Logger(ScoringPipeline.class);
+    private static final int BATCH_MESSAGES = 256;
+    private static final int BATCH_BYTES = 16 * 1024;
+    // how many batches a worker scores from a lane before moving to the next one
+    private static final int LANE_TURN_BATCHES = 4;
+    private static final int SINK_QUEUE_CAPACITY = 8 * 1024;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long BACK_OFF_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final Worker[] workers;
+    private final Thread sinkThread;
+    private final Consumer<NewsItem> sink;
+    private final int laneCapacity;
+    private final LongAdder framed;
+    private final LongAdder scored;
+    private final LongAdder published;
+    private volatile boolean sinkIdle;
+    private volatile boolean running;
+
+    /**
+     * Creates a new pipeline, which must be started with {@link #start()}
+     *
+     * @param workerCount the number of threads scoring the messages, positive
+     * @param laneCapacity the number of batches which can be queued for each feed, positive
+     * @param sink receives the positive items, from the single sink thread; never {@code null}
+     */
+    protected ScoringPipeline(int workerCount, int laneCapacity, Consumer<NewsItem> sink) {
+        if (workerCount <= 0 || laneCapacity <= 0) {
+            throw new IllegalArgumentException("The number of scoring threads and the lane capacity must be positive");
+        }
+        this.workers = new Worker[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Worker("news-scoring-" + i);
+        }
+        this.sinkThread = new Thread(this::publishLoop, "news-scoring-sink");
+        sinkThread.setDaemon(true);
+        this.sink = sink;
+        this.laneCapacity = laneCapacity;
+        this.framed = new LongAdder();
+        this.scored = new LongAdder();
+        this.published = new LongAdder();
+    }
+
+    protected void start() {
+        running = true;
+        for (Worker worker : workers) {
+            worker.thread.start();
+        }
+        sinkThread.start();
+    }
+
+    /**
+     * Creates the lane of a new feed, which is given to the worker with the fewest lanes
+     *
+     * @param parser the parser of the feed, which is only used by the workers from now on; never {@code null}
+     * @return a new lane which must be used by a single reader thread at a time and closed once the feed disconnects
+     */
+    protected Lane lane(MessageParser parser) {
+        Worker owner = workers[0];
+        for (Worker worker : workers) {
+            if (worker.lanes.size() < owner.lanes.size()) {
+                owner = worker;
+            }
+        }
+        Lane lane = new Lane(parser, owner);
+        owner.lanes.add(lane);
+        return lane;
+    }
+
+    private void wake(Worker owner) {
+        if (owner.idle) {
+            LockSupport.unpark(owner.thread);
+            return;
+        }
+        // the owner is busy, so any idle worker can steal the lane
+        for (Worker worker : workers) {
+            if (worker.idle) {
+                LockSupport.unpark(worker.thread);
+                return;
+            }
+        }
+    }
+
+    private void publishLoop() {
+        while (running) {
+            if (publish()) {
+                continue;
+            }
+            sinkIdle = true;
+            // an item queued while becoming idle is still published, at worst after the park times out
+            if (!publish()) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+            sinkIdle = false;
+        }
+    }
+
+    private boolean publish() {
+        long count = 0;
+        for (Worker worker : workers) {
+            // at most a queue worth of items from each worker, so none of them waits for the others for too long
+            for (int i = 0; i < SINK_QUEUE_CAPACITY; i++) {
+                NewsItem item = worker.items.poll();
+                if (item == null) {
+                    break;
+                }
+                try {
+                    sink.accept(item);
+                } catch (RuntimeException e) {
+                    LOGGER.log(e);
+                }
+                count++;
+            }
+        }
+        published.add(count);
+        return count > 0;
+    }
+
+    private static void backOff(int attempt) {
+        if (attempt < 16) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(BACK_OFF_NANOS);
+        }
+    }
+
+    /**
+     * Returns the number of messages framed by the readers and queued for scoring
+     *
+     * @return the number of messages
+     */
+    protected long framedCount() {
+        return framed.sum();
+    }
+
+    /**
+     * Returns the number of messages parsed and scored by the workers
+     *
+     * @return the number of messages
+     */
+    protected long scoredCount() {
+        return scored.sum();
+    }
+
+    /**
+     * Returns the number of positive items handed over to the aggregation by the sink thread
+     *
+     * @return the number of items
+     */
+    protected long publishedCount() {
+        return published.sum();
+    }
+
+    /**
+     * Returns the number of batches of messages waiting to be scored, from all the feeds
+     *
+     * @return the number of batches
+     */
+    protected int queuedBatches() {
+        int queued = 0;
+        for (Worker worker : workers) {
+            for (Lane lane : worker.lanes) {
+                queued += lane.queue.size();
+            }
+        }
+        return queued;
+    }
+
+    /**
+     * Returns the number of positive items waiting for the sink thread
+     *
+     * @return the number of items
+     */
+    protected int queuedItems() {
+        int queued = 0;
+        for (Worker worker : workers) {
+            queued += worker.items.size();
+        }
+        return queued;
+    }
+
+    /**
+     * Returns the number of lanes, i.e. of the text feeds still connected or whose messages are still being scored
+     *
+     * @return the number of lanes
+     */
+    protected int laneCount() {
+        int lanes = 0;
+        for (Worker worker : workers) {
+            lanes += worker.lanes.size();
+        }
+        return lanes;
+    }
+
+    /**
+     * Waits until the messages of all the lanes were scored and the positive items handed over to the sink; the lanes must
+     * have been closed, e.g. because the feeds were disconnected
+     *
+     * @param deadlineNanos the {@link System#nanoTime()} until which to wait
+     * @return {@code true} if everything was handed over, {@code false} if the deadline passed first
+     * @throws InterruptedException if the calling thread is interrupted while waiting
+     */
+    protected boolean awaitDrained(long deadlineNanos) throws InterruptedException {
+        while (laneCount() > 0 || publishedCount() < offeredItems()) {
+            if (System.nanoTime() - deadlineNanos >= 0) {
+                return false;
+            }
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+        return true;
+    }
+
+    private long offeredItems() {
+        long offered = 0;
+        for (Worker worker : workers) {
+            offered += worker.items.offeredCount();
+        }
+        return offered;
+    }
+
+    protected int workerCount() {
+        return workers.length;
+    }
+
+    /**
+     * Stops the workers and the sink thread; the messages which were not scored yet are lost
+     */
+    @Override
+    public void close() {
+        running = false;
+        for (Worker worker : workers) {
+            worker.thread.interrupt();
+        }
+        sinkThread.interrupt();
+    }
+
+    /**
+     * The messages of a feed waiting to be scored. The reader of the feed appends the messages of each read to the current
+     * batch and {@link #flush()}es it once the read is framed; the batch is also queued as soon as it is full.
+     */
+    protected final class Lane {
+        private final MessageParser parser;
+        private final Worker owner;
+        private final SpscQueue<Batch> queue;
+        private final SpscQueue<Batch> free;
+        private final AtomicBoolean claimed;
+        private Batch batch;
+        private long receivedNanos;
+        private volatile boolean closed;
+
+        private Lane(MessageParser parser, Worker owner) {
+            this.parser = parser;
+            this.owner = owner;
+            this.queue = new SpscQueue<>(laneCapacity);
+            // the current batch, the queued ones and the one being scored all fit in
+            this.free = new SpscQueue<>(queue.capacity() + 2);
+            this.claimed = new AtomicBoolean();
+        }
+
+        /**
+         * Sets the time when the messages about to be added were read
+         *
+         * @param receivedNanos the {@link System#nanoTime()} of the read
+         */
+        protected void receivedAt(long receivedNanos) {
+            this.receivedNanos = receivedNanos;
+        }
+
+        /**
+         * Adds a message to the current batch, queueing it first if it is full
+         *
+         * @param data the buffer holding the message; never {@code null}
+         * @param from the index of the first byte of the message (inclusive)
+         * @param to the index of the last byte of the message (exclusive), excluding any line terminator
+         */
+        protected void add(byte[] data, int from, int to) {
+            if (batch == null) {
+                batch = nextBatch();
+            } else if (!batch.fits(to - from)) {
+                flush();
+                batch = nextBatch();
+            }
+            batch.add(data, from, to);
+        }
+
+        private Batch nextBatch() {
+            Batch next = free.poll();
+            if (next == null) {
+                next = new Batch();
+            }
+            next.receivedNanos = receivedNanos;
+            return next;
+        }
+
+        /**
+         * Queues the current batch for scoring, waiting while the lane is full
+         */
+        protected void flush() {
+            if (batch == null) {
+                return;
+            }
+            framed.add(batch.count);
+            for (int attempt = 0; !queue.offer(batch); attempt++) {
+                wake(owner);
+                backOff(attempt);
+            }
+            batch = null;
+            wake(owner);
+        }
+
+        /**
+         * Queues the last batch of the feed; the metrics of the feed are closed once all its messages were scored
+         */
+        protected void close() {
+            flush();
+            closed = true;
+            wake(owner);
+        }
+
+        private boolean hasWork() {
+            return closed || !queue.isEmpty();
+        }
+    }
+
+    /**
+     * The messages of a single read, copied back to back
+     */
+    private static final class Batch {
+        private final int[] ends;
+        private byte[] data;
+        private int length;
+        private int count;
+        private long receivedNanos;
+
+        private Batch() {
+            this.ends = new int[BATCH_MESSAGES];
+            this.data = new byte[BATCH_BYTES];
+        }
+
+        private boolean fits(int messageLength) {
+            return count < ends.length && length + messageLength <= data.length;
+        }
+
+        private void add(byte[] message, int from, int to) {
+            int messageLength = to - from;
+            if (length + messageLength > data.length) {
+                // a message longer than an empty batch
+                data = Arrays.copyOf(data, length + messageLength);
+            }
+            System.arraycopy(message, from, data, length, messageLength);
+            length += messageLength;
+            ends[count++] = length;
+        }
+
+        private void clear() {
+            length = 0;
+            count = 0;
+        }
+    }
+
+    /**
+     * Scores the batches of its own lanes, stealing the lanes of the other workers when it has nothing to do, and queues the
+     * positive items for the sink thread
+     */
+    private final class Worker implements Runnable {
+        private final Thread thread;
+        private final List<Lane> lanes;
+        private final SpscQueue<NewsItem> items;
+        private volatile boolean idle;
+
+        private Worker(String name) {
+            this.thread = new Thread(this, name);
+            thread.setDaemon(true);
+            this.lanes = new CopyOnWriteArrayList<>();
+            this.items = new SpscQueue<>(SINK_QUEUE_CAPACITY);
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                if (scan()) {
+                    continue;
+                }
+                idle = true;
+                // a batch queued while becoming idle is still scored, at worst after the park times out
+                if (!scan()) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                idle = false;
+            }
+        }
+
+        private boolean scan() {
+            boolean scoredAny = false;
+            for (Lane lane : lanes) {
+                scoredAny |= score(lane);
+            }
+            if (scoredAny) {
+                return true;
+            }
+            for (Worker other : workers) {
+                if (other != this) {
+                    for (Lane lane : other.lanes) {
+                        scoredAny |= score(lane);
+                    }
+                }
+            }
+            return scoredAny;
+        }
+
+        private boolean score(Lane lane) {
+            // the claim makes this worker the only consumer of the lane, until it's released
+            if (!lane.hasWork() || !lane.claimed.compareAndSet(false, true)) {
+                return false;
+            }
+            try {
+                int batches = 0;
+                Batch batch;
+                while (batches < LANE_TURN_BATCHES && (batch = lane.queue.poll()) != null) {
+                    score(lane.parser, batch);
+                    batch.clear();
+                    lane.free.offer(batch);
+                    batches++;
+                }
+                // the close happens after the last batch was queued, so nothing can be left behind
+                if (lane.closed && lane.queue.isEmpty() && lane.owner.lanes.remove(lane)) {
+                    lane.parser.metrics().close();
+                    return true;
+                }
+                return batches > 0;
+            } finally {
+                lane.claimed.set(false);
+            }
+        }
+
+        private void score(MessageParser parser, Batch batch) {
+            parser.receivedAt(batch.receivedNanos);
+            int from = 0;
+            for (int i = 0; i < batch.count; i++) {
+                int to = batch.ends[i];
+                NewsItem item = parser.parse(batch.data, from, to);
+                if (item != null) {
+                    publish(item);
+                }
+                from = to;
+            }
+            scored.add(batch.count);
+        }
+
+        private void publish(NewsItem item) {
+            for (int attempt = 0; !items.offer(item); attempt++) {
+                LockSupport.unpark(sinkThread);
+                backOff(attempt);
+            }
+            if (sinkIdle) {
+                LockSupport.unpark(sinkThread);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        //junit...sigh
+        MessageGenerator generator = new MessageGenerator(1, 5);
+        List<String> messages = new ArrayList<>();
+        generator.generateMessages(20_000, messages::add);
+        byte[] text = (String.join("\n", messages) + "\n").getBytes(StandardCharsets.UTF_8);
+
+        MessageParser referenceParser = new MessageParser("feed", PhraseScorer.INSTANCE);
+        List<NewsItem> expected = new ArrayList<>();
+        for (String message : messages) {
+            byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+            NewsItem item = referenceParser.parse(bytes, 0, bytes.length);
+            if (item != null) {
+                expected.add(item);
+            }
+        }
+
+        int feeds = 6;
+        ConcurrentLinkedQueue<NewsItem> received = new ConcurrentLinkedQueue<>();
+        ScoringPipeline pipeline = new ScoringPipeline(3, 2, received::add);
+        pipeline.start();
+        AnalyzerMetrics metrics = new AnalyzerMetrics(null, null, null, null, pipeline);
+        List<Thread> readers = new ArrayList<>();
+        for (int feed = 0; feed < feeds; feed++) {
+            // all the feeds share the same id, so their items can be compared with the reference ones
+            MessageParser parser = new MessageParser(FeedRegistry.INSTANCE.intern("feed"), PhraseScorer.INSTANCE,
+                                                     metrics.feedConnected("feed-" + feed));
+            FeedDecoder decoder = new FeedDecoder(parser, item -> {
+                throw new IllegalStateException("text items must go through the pipeline");
+            }, 1024, pipeline);
+            int chunk = 1 + feed * 97;
+            Thread reader = new Thread(() -> {
+                try {
+                    for (int i = 0; i < text.length; i += chunk) {
+                        decoder.decode(text, i, Math.min(text.length, i + chunk));
+                    }
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                } finally {
+                    decoder.close();
+                }
+            });
+            readers.add(reader);
+            reader.start();
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        // the readers closed their lanes, so everything they queued must be handed over
+        if (!pipeline.awaitDrained(System.nanoTime() + TimeUnit.SECONDS.toNanos(10)) ||
+            pipeline.publishedCount() != (long) feeds * expected.size()) {
+            throw new IllegalStateException("the pipeline was not drained: " + pipeline.publishedCount() + " items published");
+        }
+        pipeline.close();
+
+        List<NewsItem> actual = new ArrayList<>(received);
+        List<NewsItem> allExpected = new ArrayList<>();
+        for (int feed = 0; feed < feeds; feed++) {
+            allExpected.addAll(expected);
+        }
+        Collections.sort(actual);
+        Collections.sort(allExpected);
+        if (!allExpected.equals(actual)) {
+            throw new IllegalStateException("incorrect items: " + actual.size() + " instead of " + allExpected.size());
+        }
+        long total = (long) feeds * messages.size();
+        if (pipeline.framedCount() != total || pipeline.scoredCount() != total || metrics.getReceivedMessages() != total ||
+            metrics.getConnectedFeeds() != 0 || pipeline.queuedBatches() != 0 || pipeline.queuedItems() != 0) {
+            throw new IllegalStateException("incorrect: " + metrics.snapshot());
+        }
+    }
+}
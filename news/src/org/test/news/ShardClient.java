@@ -0,0 +1,75 @@
+package org.test.news;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The shard side of a sharded {@link Analyzer}, which sends the partial summary of each slice of the window of the shard to
+ * the {@link ShardCoordinator}. The connection is opened when the first summary is sent and opened again after a failure,
+ * so a shard can be started before its coordinator.
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+public class ShardClient implements Closeable {
+
+    private static final Logger LOGGER = new Logger(ShardClient.class);
+    private static final int CONNECT_TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(1);
+
+    private final InetSocketAddress coordinator;
+    private Socket socket;
+
+    /**
+     * Creates a new client
+     *
+     * @param coordinator the address the coordinator accepts shards on; never {@code null}
+     */
+    protected ShardClient(InetSocketAddress coordinator) {
+        this.coordinator = coordinator;
+    }
+
+    /**
+     * Sends a partial summary to the coordinator; this should be called by a single thread
+     *
+     * @param summary the summary of a slice of the window of this shard; never {@code null}
+     * @return {@code true} if the summary was sent, {@code false} if it was dropped because the coordinator cannot be reached
+     */
+    protected boolean send(WindowSummary summary) {
+        byte[] frame = ShardProtocol.encode(summary);
+        try {
+            if (socket == null) {
+                Socket socket = new Socket();
+                // resolved on each connection, so the coordinator can move
+                socket.connect(new InetSocketAddress(coordinator.getHostString(), coordinator.getPort()), CONNECT_TIMEOUT_MILLIS);
+                socket.setTcpNoDelay(true);
+                this.socket = socket;
+                LOGGER.log(Logger.Level.INFO, "connected to coordinator %s", coordinator);
+            }
+            OutputStream out = socket.getOutputStream();
+            out.write(frame);
+            out.flush();
+            return true;
+        } catch (IOException e) {
+            LOGGER.log(Logger.Level.WARN, "cannot send summary to coordinator %s: %s", coordinator, e.getMessage());
+            close();
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (socket == null) {
+            return;
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // ignore
+        } finally {
+            socket = null;
+        }
+    }
+}
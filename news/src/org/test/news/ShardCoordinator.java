@@ -0,0 +1,217 @@
+package org.test.news;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * The coordinator side of a sharded {@link Analyzer}: several shard analyzers each ingest a subset of the feeds (picked by
+ * the feeds via a {@link ShardRing}) and send the partial summary of each slice of their window, via a {@link ShardClient},
+ * to the coordinator, which merges the partial summaries into its own window with {@link TopKAggregator#merge}.
+ * <p>
+ * Since the shards see disjoint sets of items and each partial summary holds the exact counts and the top K items of its
+ * shard, the merged window has the same counts and top K items as a single analyzer receiving all the items. A slice of a
+ * shard is merged in the slice of the coordinator during which it arrives, i.e. the report of the coordinator lags the
+ * shards by at most one slide.
+ * </p>
+ * <p>
+ * There are only ever a few shards, so each one is read by its own thread.
+ * </p>
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+public class ShardCoordinator implements Closeable {
+
+    private static final Logger LOGGER = new Logger(ShardCoordinator.class);
+
+    private final ServerSocket serverSocket;
+    private final Consumer<WindowSummary> sink;
+    private final Set<Socket> shards;
+    private final AtomicLong summaries;
+    private volatile boolean closed;
+
+    /**
+     * Creates a new coordinator listening for shards
+     *
+     * @param port the port the shards connect to, 0 meaning any free port
+     * @param sink receives the partial summaries sent by the shards, from the threads reading the shards; never {@code null}
+     * @throws IOException if the port cannot be bound
+     */
+    protected ShardCoordinator(int port, Consumer<WindowSummary> sink) throws IOException {
+        this.serverSocket = new ServerSocket(port);
+        this.sink = sink;
+        this.shards = ConcurrentHashMap.newKeySet();
+        this.summaries = new AtomicLong();
+    }
+
+    /**
+     * Accepts shards until the coordinator is closed, starting a thread for each one
+     */
+    protected void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                shards.add(socket);
+                Thread reader = new Thread(() -> read(socket), "shard-reader-" + socket.getPort());
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                if (!closed) {
+                    LOGGER.log(e);
+                }
+            }
+        }
+    }
+
+    private void read(Socket socket) {
+        System.out.printf("shard %s connected %n", socket.getRemoteSocketAddress());
+        try (DataInputStream in = new DataInputStream(socket.getInputStream())) {
+            byte[] body = new byte[1024];
+            while (!closed) {
+                int length = in.readInt();
+                if (length < 0 || length > ShardProtocol.MAX_FRAME_LENGTH) {
+                    throw new IOException("Invalid summary length: " + length);
+                }
+                if (body.length < length) {
+                    body = new byte[Math.max(length, 2 * body.length)];
+                }
+                in.readFully(body, 0, length);
+                sink.accept(ShardProtocol.decode(body, 0, length));
+                summaries.incrementAndGet();
+            }
+        } catch (EOFException e) {
+            // the shard closed the connection
+        } catch (IOException e) {
+            if (!closed) {
+                System.out.printf("shard %s failed: %s %n", socket.getRemoteSocketAddress(), e.getMessage());
+            }
+        } finally {
+            shards.remove(socket);
+            close(socket);
+            System.out.printf("shard %s disconnected %n", socket.getRemoteSocketAddress());
+        }
+    }
+
+    /**
+     * Returns the port the shards connect to
+     *
+     * @return the port
+     */
+    protected int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Returns the number of shards currently connected
+     *
+     * @return the number of shards
+     */
+    protected int shardCount() {
+        return shards.size();
+    }
+
+    /**
+     * Returns the number of partial summaries received from all the shards so far
+     *
+     * @return the number of summaries
+     */
+    protected long summaryCount() {
+        return summaries.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        shards.forEach(ShardCoordinator::close);
+    }
+
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        //junit...sigh
+        int k = 5;
+        TopKAggregator merged = new TopKAggregator(k);
+        try (ShardCoordinator coordinator = new ShardCoordinator(0, merged::merge)) {
+            Thread acceptThread = new Thread(coordinator::acceptLoop);
+            acceptThread.setDaemon(true);
+            acceptThread.start();
+            InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), coordinator.port());
+            TopKAggregator[] shards = new TopKAggregator[3];
+            ShardClient[] clients = new ShardClient[shards.length];
+            for (int i = 0; i < shards.length; i++) {
+                shards[i] = new TopKAggregator(k);
+                clients[i] = new ShardClient(address);
+            }
+            // the single analyzer which sees all the items
+            TopKAggregator single = new TopKAggregator(k);
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int slice = 0; slice < 4; slice++) {
+                for (int i = 0; i < 10_000; i++) {
+                    int shard = random.nextInt(shards.length);
+                    NewsItem item = new NewsItem((byte) random.nextInt(10), "über headline " + random.nextInt(5000),
+                                                 "feed-" + shard + "-" + random.nextInt(3));
+                    shards[shard].accept(item);
+                    single.accept(item);
+                }
+                for (int i = 0; i < shards.length; i++) {
+                    if (!clients[i].send(shards[i].drain())) {
+                        throw new IllegalStateException("the summary was not sent");
+                    }
+                }
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (coordinator.summaryCount() < 4 * shards.length && System.nanoTime() < deadline) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+            WindowSummary expected = single.drain();
+            WindowSummary actual = merged.drain();
+            if (!expected.topItems().equals(actual.topItems()) || expected.total() != actual.total() ||
+                expected.count(9) != actual.count(9) || coordinator.shardCount() != shards.length) {
+                throw new IllegalStateException("incorrect merge: " + actual + " instead of " + expected);
+            }
+            for (ShardClient client : clients) {
+                client.close();
+            }
+        }
+
+        List<NewsItem> items = new ArrayList<>();
+        items.add(new NewsItem((byte) 9, "über up", "feed-ü"));
+        items.add(new NewsItem((byte) 0, "down down", "feed"));
+        WindowSummary summary = new WindowSummary(new long[] {300, 0, 0, 0, 0, 0, 0, 0, 0, Long.MAX_VALUE}, items);
+        byte[] frame = ShardProtocol.encode(summary);
+        WindowSummary decoded = ShardProtocol.decode(frame, BinaryProtocol.LENGTH_BYTES, frame.length);
+        if (!decoded.topItems().equals(items) || decoded.count(0) != 300 || decoded.count(9) != Long.MAX_VALUE ||
+            BinaryProtocol.readInt(frame, 0) != frame.length - BinaryProtocol.LENGTH_BYTES) {
+            throw new IllegalStateException("incorrect: " + decoded);
+        }
+        for (int length = BinaryProtocol.LENGTH_BYTES; length < frame.length; length++) {
+            try {
+                ShardProtocol.decode(frame, BinaryProtocol.LENGTH_BYTES, length);
+                throw new IllegalStateException("truncated summary not detected");
+            } catch (ProtocolException e) {
+                // expected
+            }
+        }
+    }
+}
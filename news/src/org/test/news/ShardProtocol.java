@@ -0,0 +1,157 @@
+package org.test.news;
+
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The protocol a shard {@link Analyzer} uses to send the partial summary of each slice of its window to the coordinator
+ * {@link Analyzer}, see {@link ShardCoordinator}.
+ * <p>
+ * Each summary is sent as a frame made of a big endian int length followed by that many bytes: the count of each of the
+ * {@link WindowSummary#PRIORITIES} priorities, the number of top items and then for each item its priority byte, the
+ * length and the UTF-8 bytes of its feed id and the length and the UTF-8 bytes of its headline. All the counts and lengths
+ * are unsigned varints, so a summary of a quiet slice only takes a few bytes.
+ * </p>
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+public final class ShardProtocol {
+
+    protected static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+    private ShardProtocol() {
+    }
+
+    /**
+     * Encodes a summary as a frame
+     *
+     * @param summary the summary; never {@code null}
+     * @return the bytes of the frame, including its length, never {@code null}
+     */
+    protected static byte[] encode(WindowSummary summary) {
+        List<NewsItem> items = summary.topItems();
+        byte[][] feedIds = new byte[items.size()][];
+        // the counts, the number of items and for each item the priority and the two lengths
+        int maxLength = BinaryProtocol.LENGTH_BYTES + WindowSummary.PRIORITIES * 10 + 5;
+        for (int i = 0; i < items.size(); i++) {
+            feedIds[i] = items.get(i).feedId().getBytes(StandardCharsets.UTF_8);
+            maxLength += 1 + 5 + feedIds[i].length + 5 + items.get(i).messageBytes().length;
+        }
+        byte[] frame = new byte[maxLength];
+        int position = BinaryProtocol.LENGTH_BYTES;
+        for (int priority = 0; priority < WindowSummary.PRIORITIES; priority++) {
+            position = writeVarLong(frame, position, summary.count(priority));
+        }
+        position = BinaryProtocol.writeVarInt(frame, position, items.size());
+        for (int i = 0; i < items.size(); i++) {
+            NewsItem item = items.get(i);
+            frame[position++] = item.priority();
+            position = writeBytes(frame, position, feedIds[i]);
+            position = writeBytes(frame, position, item.messageBytes());
+        }
+        BinaryProtocol.writeInt(frame, 0, position - BinaryProtocol.LENGTH_BYTES);
+        byte[] encoded = new byte[position];
+        System.arraycopy(frame, 0, encoded, 0, position);
+        return encoded;
+    }
+
+    /**
+     * Decodes the body of a frame, i.e. the bytes after its length
+     *
+     * @param data the buffer holding the body; never {@code null}
+     * @param from the index of the first byte of the body
+     * @param to the index after the last byte of the body
+     * @return the summary, never {@code null}
+     * @throws ProtocolException if the bytes are not a valid summary
+     */
+    protected static WindowSummary decode(byte[] data, int from, int to) throws ProtocolException {
+        Reader reader = new Reader(data, from, to);
+        long[] counts = new long[WindowSummary.PRIORITIES];
+        for (int priority = 0; priority < counts.length; priority++) {
+            counts[priority] = reader.varLong();
+        }
+        int itemCount = (int) reader.varLong();
+        List<NewsItem> items = new ArrayList<>(Math.min(itemCount, to - from));
+        for (int i = 0; i < itemCount; i++) {
+            byte priority = reader.priority();
+            String feedId = new String(reader.bytes(), StandardCharsets.UTF_8);
+            byte[] message = reader.bytes();
+            if (!NewsItem.hasHeadline(message, 0, message.length)) {
+                throw new ProtocolException("Invalid headline in summary");
+            }
+            items.add(new NewsItem(priority, message, FeedRegistry.INSTANCE.intern(feedId), 0));
+        }
+        if (reader.position != to) {
+            throw new ProtocolException("Unexpected bytes after summary");
+        }
+        return new WindowSummary(counts, items);
+    }
+
+    private static int writeBytes(byte[] data, int offset, byte[] bytes) {
+        offset = BinaryProtocol.writeVarInt(data, offset, bytes.length);
+        System.arraycopy(bytes, 0, data, offset, bytes.length);
+        return offset + bytes.length;
+    }
+
+    private static int writeVarLong(byte[] data, int offset, long value) {
+        while ((value & ~0x7fL) != 0) {
+            data[offset++] = (byte) (value & 0x7f | 0x80);
+            value >>>= 7;
+        }
+        data[offset++] = (byte) value;
+        return offset;
+    }
+
+    /**
+     * Reads the fields of a summary, checking the bounds of the frame
+     */
+    private static class Reader {
+        private final byte[] data;
+        private final int to;
+        private int position;
+
+        private Reader(byte[] data, int from, int to) {
+            this.data = data;
+            this.position = from;
+            this.to = to;
+        }
+
+        private long varLong() throws ProtocolException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position == to) {
+                    throw new ProtocolException("Truncated summary");
+                }
+                byte b = data[position++];
+                value |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    if (value < 0) {
+                        throw new ProtocolException("Invalid count in summary");
+                    }
+                    return value;
+                }
+            }
+            throw new ProtocolException("Invalid varint in summary");
+        }
+
+        private byte priority() throws ProtocolException {
+            if (position == to || data[position] < 0 || data[position] >= WindowSummary.PRIORITIES) {
+                throw new ProtocolException("Invalid priority in summary");
+            }
+            return data[position++];
+        }
+
+        private byte[] bytes() throws ProtocolException {
+            long length = varLong();
+            if (length > to - position) {
+                throw new ProtocolException("Truncated summary");
+            }
+            byte[] bytes = new byte[(int) length];
+            System.arraycopy(data, position, bytes, 0, bytes.length);
+            position += bytes.length;
+            return bytes;
+        }
+    }
+}
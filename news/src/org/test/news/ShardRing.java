@@ -0,0 +1,173 @@
+package org.test.news;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Picks the shard {@link Analyzer} a {@link Feed} connects to by consistent hashing of the feed id: each shard is placed on a
+ * ring of 64 bit hashes at {@link #VIRTUAL_NODES} points and a feed goes to the first shard point following the hash of
+ * its id. The feeds are spread evenly over the shards and adding or removing a shard only moves the feeds of that shard.
+ * <p>
+ * The points of the ring are kept in a sorted array, so a lookup is a binary search.
+ * </p>
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+public final class ShardRing {
+
+    private static final int VIRTUAL_NODES = 512;
+
+    private final List<InetSocketAddress> shards;
+    private final long[] points;
+    private final int[] owners;
+
+    /**
+     * Creates a new ring
+     *
+     * @param shards the addresses of the shards; never {@code null} or empty
+     */
+    protected ShardRing(List<InetSocketAddress> shards) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("there must be at least one shard");
+        }
+        this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+        int size = shards.size() * VIRTUAL_NODES;
+        long[] unsortedPoints = new long[size];
+        Map<Long, Integer> pointOwners = new HashMap<>(size);
+        for (int shard = 0; shard < shards.size(); shard++) {
+            // the point of a shard only depends on its own address, not on the other shards
+            String name = shards.get(shard).getHostString() + ":" + shards.get(shard).getPort();
+            for (int node = 0; node < VIRTUAL_NODES; node++) {
+                long point = hash(name + "#" + node);
+                unsortedPoints[shard * VIRTUAL_NODES + node] = point;
+                pointOwners.putIfAbsent(point, shard);
+            }
+        }
+        Arrays.sort(unsortedPoints);
+        this.points = unsortedPoints;
+        this.owners = new int[size];
+        for (int i = 0; i < size; i++) {
+            owners[i] = pointOwners.get(points[i]);
+        }
+    }
+
+    /**
+     * Parses a comma separated list of shards, e.g. {@code "localhost:8913,localhost:8914"}
+     *
+     * @param value the list; never {@code null}
+     * @return a new ring, never {@code null}
+     * @throws IllegalArgumentException if the list is not valid
+     */
+    protected static ShardRing parse(String value) {
+        List<InetSocketAddress> shards = new ArrayList<>();
+        for (String shard : value.split(",")) {
+            if (!shard.trim().isEmpty()) {
+                shards.add(address(shard));
+            }
+        }
+        return new ShardRing(shards);
+    }
+
+    /**
+     * Parses a {@code host:port} address, without resolving the host
+     *
+     * @param value the address; never {@code null}
+     * @return the address, never {@code null}
+     * @throws IllegalArgumentException if the address is not valid
+     */
+    protected static InetSocketAddress address(String value) {
+        String address = value.trim();
+        int separator = address.lastIndexOf(':');
+        if (separator <= 0) {
+            throw new IllegalArgumentException("Invalid address: " + value + "; expected <host>:<port>");
+        }
+        try {
+            return InetSocketAddress.createUnresolved(address.substring(0, separator),
+                                                      Integer.parseInt(address.substring(separator + 1)));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid address: " + value + "; expected <host>:<port>");
+        }
+    }
+
+    /**
+     * Returns the shard a feed should connect to
+     *
+     * @param feedId the id of the feed; never {@code null}
+     * @return the address of the shard, never {@code null}
+     */
+    protected InetSocketAddress shardFor(String feedId) {
+        int index = Arrays.binarySearch(points, hash(feedId));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        // the ring wraps around
+        return shards.get(owners[index == points.length ? 0 : index]);
+    }
+
+    protected List<InetSocketAddress> shards() {
+        return shards;
+    }
+
+    /**
+     * FNV-1a over the UTF-8 bytes followed by the MurmurHash3 finalizer, which spreads similar ids over the whole ring
+     */
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    public static void main(String[] args) {
+        //junit...sigh
+        ShardRing ring = parse("localhost:8913, localhost:8914,localhost:8915");
+        ShardRing larger = parse("localhost:8913,localhost:8914,localhost:8915,localhost:8916");
+        int feeds = 100_000;
+        Map<InetSocketAddress, Integer> counts = new HashMap<>();
+        int moved = 0;
+        for (int i = 0; i < feeds; i++) {
+            String feedId = "feed-" + i;
+            InetSocketAddress shard = ring.shardFor(feedId);
+            counts.merge(shard, 1, Integer::sum);
+            if (!shard.equals(ring.shardFor(feedId))) {
+                throw new IllegalStateException("the shard of a feed is not stable");
+            }
+            InetSocketAddress newShard = larger.shardFor(feedId);
+            if (!newShard.equals(shard)) {
+                moved++;
+                if (newShard.getPort() != 8916) {
+                    throw new IllegalStateException("a feed moved between the old shards");
+                }
+            }
+        }
+        for (int count : counts.values()) {
+            if (Math.abs(count - feeds / 3) > feeds / 3 / 5) {
+                throw new IllegalStateException("unbalanced shards: " + counts);
+            }
+        }
+        if (counts.size() != 3 || Math.abs(moved - feeds / 4) > feeds / 4 / 5) {
+            throw new IllegalStateException("incorrect number of moved feeds: " + moved);
+        }
+        for (String invalid : new String[] {"", "localhost", ":80", "localhost:x", "localhost:70000"}) {
+            try {
+                parse(invalid);
+                throw new IllegalStateException("invalid shards accepted: " + invalid);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package org.test.news;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded lock-free queue between a single producer thread and a single consumer thread, backed by a ring whose size is a
+ * power of 2. The producer only writes the tail and the consumer only writes the head, each with an ordered store instead of
+ * a full fence, and each side keeps the last position of the other side it read, so the positions shared between the two
+ * threads are only read again when the queue looks full or empty.
+ * <p>
+ * Several threads can take turns at being the producer (or the consumer) as long as each hand-over is ordered by some other
+ * synchronization, e.g. a lock or a CAS.
+ * </p>
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+public class SpscQueue<T> {
+
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    private final Object[] elements;
+    private final int mask;
+    // separate objects, so the producer and the consumer don't keep invalidating each other's cache line
+    private final AtomicLong head;
+    private final AtomicLong tail;
+    private long cachedHead;
+    private long cachedTail;
+
+    /**
+     * Creates a new queue
+     *
+     * @param capacity the minimum number of elements the queue can hold, rounded up to a power of 2
+     * @throws IllegalArgumentException if the capacity is not positive or too large
+     */
+    protected SpscQueue(int capacity) {
+        if (capacity <= 0 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("The capacity must be between 1 and " + MAX_CAPACITY);
+        }
+        int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.elements = new Object[size];
+        this.mask = size - 1;
+        this.head = new AtomicLong();
+        this.tail = new AtomicLong();
+    }
+
+    /**
+     * Adds an element at the end of the queue; must only be called by the producer
+     *
+     * @param element the element; never {@code null}
+     * @return {@code true} if the element was added, {@code false} if the queue is full
+     */
+    protected boolean offer(T element) {
+        long position = tail.get();
+        if (position - cachedHead >= elements.length) {
+            cachedHead = head.get();
+            if (position - cachedHead >= elements.length) {
+                return false;
+            }
+        }
+        elements[(int) position & mask] = element;
+        // publishes the element
+        tail.lazySet(position + 1);
+        return true;
+    }
+
+    /**
+     * Removes the element at the head of the queue; must only be called by the consumer
+     *
+     * @return the element or {@code null} if the queue is empty
+     */
+    @SuppressWarnings("unchecked")
+    protected T poll() {
+        long position = head.get();
+        if (position >= cachedTail) {
+            cachedTail = tail.get();
+            if (position >= cachedTail) {
+                return null;
+            }
+        }
+        int index = (int) position & mask;
+        T element = (T) elements[index];
+        elements[index] = null;
+        // frees the slot for the producer
+        head.lazySet(position + 1);
+        return element;
+    }
+
+    /**
+     * Returns whether the queue is empty; from any thread other than the producer and the consumer this is only an estimate
+     *
+     * @return {@code true} if there are no elements
+     */
+    protected boolean isEmpty() {
+        return head.get() >= tail.get();
+    }
+
+    /**
+     * Returns the number of elements in the queue, which is only an estimate if the queue is being used concurrently
+     *
+     * @return the number of elements, between 0 and the capacity
+     */
+    protected int size() {
+        // the head first, so that the difference is never negative
+        long first = head.get();
+        long size = tail.get() - first;
+        return (int) Math.max(0, Math.min(size, elements.length));
+    }
+
+    /**
+     * Returns the number of elements added to the queue so far, e.g. to check whether everything added was also handed
+     * over by the consumer
+     *
+     * @return the number of elements
+     */
+    protected long offeredCount() {
+        return tail.get();
+    }
+
+    protected int capacity() {
+        return elements.length;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        //junit...sigh
+        SpscQueue<Integer> small = new SpscQueue<>(3);
+        if (small.capacity() != 4 || new SpscQueue<>(1).capacity() != 1 || new SpscQueue<>(1024).capacity() != 1024) {
+            throw new IllegalStateException("incorrect capacity");
+        }
+        for (int i = 0; i < 4; i++) {
+            if (!small.offer(i)) {
+                throw new IllegalStateException("the queue is full too early");
+            }
+        }
+        if (small.offer(4) || small.size() != 4 || small.poll() != 0 || !small.offer(4) || small.size() != 4) {
+            throw new IllegalStateException("incorrect offer when full");
+        }
+        for (int i = 1; i <= 4; i++) {
+            if (small.poll() != i) {
+                throw new IllegalStateException("incorrect order");
+            }
+        }
+        if (small.poll() != null || !small.isEmpty()) {
+            throw new IllegalStateException("the queue is not empty");
+        }
+
+        int count = 5_000_000;
+        SpscQueue<Integer> queue = new SpscQueue<>(256);
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < count; i++) {
+                while (!queue.offer(i)) {
+                    Thread.yield();
+                }
+            }
+        });
+        producer.start();
+        for (int expected = 0; expected < count; ) {
+            Integer element = queue.poll();
+            if (element == null) {
+                Thread.yield();
+            } else if (element != expected++) {
+                throw new IllegalStateException("expected " + (expected - 1) + " but got " + element);
+            }
+        }
+        producer.join();
+        if (!queue.isEmpty()) {
+            throw new IllegalStateException("the queue is not empty");
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package org.test.news;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Aggregates the news items of a window as they arrive, keeping only what is needed to report the top K items. Since the
+ * priority is only 0-9, the items are kept in one bounded bucket per priority holding at most K items, ranked by their
+ * natural (reverse) ordering. Once the bucket of a priority is full, no item with a lower priority can make it to the top,
+ * so those items are only counted.
+ * <p>
+ * This means the memory used is constant regardless of the number of items received and closing a window via
+ * {@link #drain()} is O(K).
+ * </p>
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+public class TopKAggregator implements Consumer<NewsItem> {
+
+    private final int k;
+    private final AtomicLongArray counts;
+    private final Bucket[] buckets;
+
+    protected TopKAggregator(int k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("the number of top items must be positive");
+        }
+        this.k = k;
+        this.counts = new AtomicLongArray(WindowSummary.PRIORITIES);
+        this.buckets = new Bucket[WindowSummary.PRIORITIES];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new Bucket(k);
+        }
+    }
+
+    /**
+     * Adds a new item to the current window; can be called concurrently from any number of threads
+     *
+     * @param item the item, never {@code null}
+     */
+    @Override
+    public void accept(NewsItem item) {
+        counts.incrementAndGet(item.priority());
+        offer(item);
+    }
+
+    /**
+     * Adds the summary of a disjoint set of items to the current window, e.g. the partial summary of another
+     * {@link Analyzer}; since the summary holds its own top K items, the top K items of the window are the same as if all
+     * the items had been added one by one. Can be called concurrently from any number of threads.
+     *
+     * @param summary the summary, never {@code null}
+     */
+    protected void merge(WindowSummary summary) {
+        for (int priority = 0; priority < WindowSummary.PRIORITIES; priority++) {
+            long count = summary.count(priority);
+            if (count != 0) {
+                counts.addAndGet(priority, count);
+            }
+        }
+        for (NewsItem item : summary.topItems()) {
+            offer(item);
+        }
+    }
+
+    private void offer(NewsItem item) {
+        int priority = item.priority();
+        for (int higher = buckets.length - 1; higher > priority; higher--) {
+            if (buckets[higher].full) {
+                return;
+            }
+        }
+        buckets[priority].add(item);
+    }
+
+    /**
+     * Closes the current window, returning its summary and starting a new window
+     *
+     * @return a {@link WindowSummary} instance, never {@code null}
+     */
+    protected WindowSummary drain() {
+        long[] windowCounts = new long[WindowSummary.PRIORITIES];
+        for (int i = 0; i < windowCounts.length; i++) {
+            windowCounts[i] = counts.getAndSet(i, 0);
+        }
+        List<NewsItem> topItems = new ArrayList<>(k);
+        for (int priority = buckets.length - 1; priority >= 0; priority--) {
+            buckets[priority].drainTo(topItems, k);
+        }
+        return new WindowSummary(windowCounts, topItems);
+    }
+
+    /**
+     * Returns the summary of the current window so far, without closing it; the counts and the top items are read one
+     * priority at a time, so they may be slightly out of step if items are added concurrently
+     *
+     * @return a {@link WindowSummary} instance, never {@code null}
+     */
+    protected WindowSummary snapshot() {
+        long[] windowCounts = new long[WindowSummary.PRIORITIES];
+        for (int i = 0; i < windowCounts.length; i++) {
+            windowCounts[i] = counts.get(i);
+        }
+        List<NewsItem> topItems = new ArrayList<>(k);
+        for (int priority = buckets.length - 1; priority >= 0; priority--) {
+            buckets[priority].copyTo(topItems, k);
+        }
+        return new WindowSummary(windowCounts, topItems);
+    }
+
+    /**
+     * The top items of a single priority, sorted highest first
+     */
+    private static class Bucket {
+        private final NewsItem[] items;
+        private int size;
+        private volatile boolean full;
+
+        private Bucket(int k) {
+            this.items = new NewsItem[k];
+        }
+
+        private synchronized void add(NewsItem item) {
+            int position = Arrays.binarySearch(items, 0, size, item);
+            if (position >= 0) {
+                // same as a sorted set, identical items are only kept once
+                return;
+            }
+            position = -position - 1;
+            if (position == items.length) {
+                return;
+            }
+            int toMove = Math.min(size, items.length - 1) - position;
+            System.arraycopy(items, position, items, position + 1, toMove);
+            items[position] = item;
+            if (size < items.length) {
+                size++;
+                full = size == items.length;
+            }
+        }
+
+        private synchronized void copyTo(List<NewsItem> topItems, int k) {
+            for (int i = 0; i < size && topItems.size() < k; i++) {
+                topItems.add(items[i]);
+            }
+        }
+
+        private synchronized void drainTo(List<NewsItem> topItems, int k) {
+            copyTo(topItems, k);
+            Arrays.fill(items, 0, size, null);
+            size = 0;
+            full = false;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        //junit...sigh
+        int k = 3;
+        TopKAggregator aggregator = new TopKAggregator(k);
+        TreeSet<NewsItem> expected = new TreeSet<>();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < 10_000; i++) {
+            NewsItem item = new NewsItem((byte) random.nextInt(10), "headline " + random.nextInt(1000), "feed" + random.nextInt(3));
+            aggregator.accept(item);
+            expected.add(item);
+        }
+        WindowSummary snapshot = aggregator.snapshot();
+        WindowSummary summary = aggregator.drain();
+        List<NewsItem> expectedTop = expected.stream().limit(k).collect(Collectors.toList());
+        if (!expectedTop.equals(summary.topItems()) || summary.total() != 10_000 || !expectedTop.equals(snapshot.topItems()) ||
+            snapshot.total() != 10_000) {
+            throw new IllegalStateException("incorrect: " + summary);
+        }
+        if (aggregator.snapshot().total() != 0 || aggregator.drain().total() != 0) {
+            throw new IllegalStateException("the window was not reset");
+        }
+
+        TopKAggregator[] partials = {new TopKAggregator(k), new TopKAggregator(k)};
+        for (NewsItem item : expected) {
+            partials[random.nextInt(partials.length)].accept(item);
+        }
+        for (TopKAggregator partial : partials) {
+            aggregator.merge(partial.drain());
+        }
+        summary = aggregator.drain();
+        if (!expectedTop.equals(summary.topItems()) || summary.total() != expected.size()) {
+            throw new IllegalStateException("incorrect merge: " + summary);
+        }
+
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            String feedId = "feed" + i;
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 100_000; j++) {
+                    aggregator.accept(new NewsItem((byte) (j % 10), "headline " + j, feedId));
+                }
+            });
+            threads[i].start();
+        }
+        long total = 0;
+        while (Arrays.stream(threads).anyMatch(Thread::isAlive)) {
+            total += aggregator.drain().total();
+        }
+        total += aggregator.drain().total();
+        if (total != 400_000) {
+            throw new IllegalStateException("incorrect count: " + total);
+        }
+    }
+}
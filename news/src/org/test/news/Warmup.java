@@ -0,0 +1,117 @@
+package org.test.news;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs generated messages through the same code an {@link Analyzer} runs for the messages of its feeds, i.e. the decoding of
+ * both protocols, the parsing, the scoring, the duplicate detection and the aggregation, before the analyzer accepts any
+ * feed. This loads and initializes all the classes involved and gives the JIT enough calls to compile the hot paths, so
+ * the first feeds don't run in the interpreter.
+ * <p>
+ * Everything the messages go through is created just for the warm-up and thrown away afterwards, so the state and the
+ * metrics of the analyzer are left untouched.
+ * </p>
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+public class Warmup {
+
+    private static final int ROUND_MESSAGES = 10_000;
+    // the same as the reads of the feeds, so the messages which span several reads are carried over
+    private static final int READ_SIZE = 8 * 1024;
+    private static final int MAX_LINE_LENGTH = 8 * 1024;
+    private static final long DUPLICATE_FILTER_SIZE = 64 * 1024;
+
+    private final PhraseScorer scorer;
+    private final int topK;
+    private final boolean deduplicate;
+
+    /**
+     * Creates a new warm-up
+     *
+     * @param scorer the scorer used by the analyzer; never {@code null}
+     * @param topK the number of top items of the analyzer
+     * @param deduplicate whether the analyzer drops duplicate headlines
+     */
+    protected Warmup(PhraseScorer scorer, int topK, boolean deduplicate) {
+        this.scorer = scorer;
+        this.topK = topK;
+        this.deduplicate = deduplicate;
+    }
+
+    /**
+     * Runs the messages through the analysis, in rounds alternating the text and the binary protocols
+     *
+     * @param messages the number of messages
+     * @return the number of positive items aggregated
+     */
+    protected long run(int messages) {
+        Dictionary dictionary = scorer.dictionary();
+        MessageGenerator generator = new MessageGenerator(1, 5, dictionary, 1, new double[] {1, 1, 1, 1, 1, 1, 1, 1, 1, 1});
+        List<String> round = new ArrayList<>(ROUND_MESSAGES);
+        generator.generateMessages(ROUND_MESSAGES, round::add);
+        byte[][] feeds = {text(round), binary(round, 0, dictionary), binary(round, BinaryProtocol.FLAG_WORD_IDS, dictionary)};
+        TopKAggregator aggregator = new TopKAggregator(topK);
+        HeadlineFilter duplicates = deduplicate ? new HeadlineFilter(DUPLICATE_FILTER_SIZE, 1) : null;
+        long positive = 0;
+        for (int i = 0; (long) i * ROUND_MESSAGES < messages; i++) {
+            // mostly text, which is what most feeds send
+            byte[] feed = feeds[i % 4 < 2 ? 0 : i % 4 - 1];
+            MessageParser parser = new MessageParser(FeedRegistry.INSTANCE.intern("warmup"), scorer,
+                                                     new AnalyzerMetrics.FeedMetrics("warmup", null), duplicates);
+            FeedDecoder decoder = new FeedDecoder(parser, aggregator, MAX_LINE_LENGTH);
+            try {
+                for (int from = 0; from < feed.length; from += READ_SIZE) {
+                    decoder.decode(feed, from, Math.min(feed.length, from + READ_SIZE));
+                }
+            } catch (ProtocolException e) {
+                throw new IllegalStateException("Invalid warm-up messages", e);
+            }
+            positive += aggregator.drain().total();
+            if (duplicates != null) {
+                // the same messages are sent again by the next rounds
+                duplicates.slide();
+            }
+        }
+        return positive;
+    }
+
+    private static byte[] text(List<String> messages) {
+        StringBuilder text = new StringBuilder(messages.size() * 32);
+        for (String message : messages) {
+            text.append(message).append('\n');
+        }
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] binary(List<String> messages, int flags, Dictionary dictionary) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(messages.size() * 32);
+            out.write(BinaryProtocol.preamble(flags, dictionary));
+            BinaryFrameWriter writer = new BinaryFrameWriter(out, (flags & BinaryProtocol.FLAG_WORD_IDS) != 0 ? dictionary : null);
+            messages.forEach(writer::write);
+            writer.flush();
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static void main(String[] args) {
+        //junit...sigh
+        long positive = new Warmup(PhraseScorer.INSTANCE, 3, false).run(4 * ROUND_MESSAGES);
+        // each protocol gets the same messages, so each of the 4 rounds has the same positive items
+        if (positive == 0 || positive % 4 != 0 || positive > 4 * ROUND_MESSAGES) {
+            throw new IllegalStateException("incorrect number of positive items: " + positive);
+        }
+        if (new Warmup(PhraseScorer.INSTANCE, 3, true).run(2 * ROUND_MESSAGES) >= positive / 2) {
+            throw new IllegalStateException("the duplicates were not dropped");
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package org.test.news;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reports the top news items over sliding (or tumbling) windows. The items are aggregated into slices, each slice lasting
+ * for one slide of the window, and the summaries of the last slices are kept in a ring buffer. Each time the window slides,
+ * the current slice is closed and the slices in the ring are merged into the summary of the whole window. This means the
+ * memory used only depends on the number of slices and the number of top items, never on the number of items.
+ * <p>
+ * A window whose length is the same as its slide is a tumbling window.
+ * </p>
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+public class WindowEngine {
+
+    private final TopKAggregator aggregator;
+    private final long lengthMillis;
+    private final long slideMillis;
+    private final int k;
+    private final WindowSummary[] slices;
+    private int nextSlice;
+
+    protected WindowEngine(TopKAggregator aggregator, long lengthMillis, long slideMillis, int k) {
+        if (slideMillis <= 0 || lengthMillis < slideMillis || lengthMillis % slideMillis != 0) {
+            throw new IllegalArgumentException("The window length must be a positive multiple of the window slide");
+        }
+        this.aggregator = aggregator;
+        this.lengthMillis = lengthMillis;
+        this.slideMillis = slideMillis;
+        this.k = k;
+        this.slices = new WindowSummary[(int) (lengthMillis / slideMillis)];
+    }
+
+    /**
+     * Closes the current slice and returns the summary of the window ending with it. This should be called by a single
+     * thread, once every slide.
+     *
+     * @return a {@link WindowSummary} instance, never {@code null}
+     */
+    protected WindowSummary slide() {
+        slices[nextSlice] = aggregator.drain();
+        nextSlice = (nextSlice + 1) % slices.length;
+        if (slices.length == 1) {
+            return slices[0];
+        }
+        List<WindowSummary> windowSlices = new ArrayList<>(slices.length);
+        for (WindowSummary slice : slices) {
+            if (slice != null) {
+                windowSlices.add(slice);
+            }
+        }
+        return WindowSummary.merge(windowSlices, k);
+    }
+
+    /**
+     * Returns the summary of the slice closed by the last {@link #slide()}, i.e. only the items aggregated during the last
+     * slide of the window
+     *
+     * @return a {@link WindowSummary} instance or {@code null} if the window hasn't slid yet
+     */
+    protected WindowSummary lastSlice() {
+        return slices[(nextSlice + slices.length - 1) % slices.length];
+    }
+
+    /**
+     * Adds the summary of a slice which was closed earlier, e.g. one rebuilt from a {@link NewsJournal} after a restart, as if
+     * the window had slid at its end. The slices must be restored oldest first, before the window slides for the first time.
+     *
+     * @param slice the summary of the slice, never {@code null}
+     */
+    protected void restoreSlice(WindowSummary slice) {
+        slices[nextSlice] = slice;
+        nextSlice = (nextSlice + 1) % slices.length;
+    }
+
+    /**
+     * Returns the number of slices of the window
+     *
+     * @return the number of slices, 1 for tumbling windows
+     */
+    protected int sliceCount() {
+        return slices.length;
+    }
+
+    protected long lengthMillis() {
+        return lengthMillis;
+    }
+
+    protected long slideMillis() {
+        return slideMillis;
+    }
+
+    /**
+     * Returns a description of a duration using the largest time unit which can represent it exactly, e.g. "5 MINUTES"
+     *
+     * @param millis the duration in milliseconds
+     * @return the description, never {@code null}
+     */
+    protected static String describe(long millis) {
+        for (TimeUnit unit : new TimeUnit[] {TimeUnit.DAYS, TimeUnit.HOURS, TimeUnit.MINUTES, TimeUnit.SECONDS}) {
+            long unitMillis = unit.toMillis(1);
+            if (millis % unitMillis == 0) {
+                return (millis / unitMillis) + " " + unit;
+            }
+        }
+        return millis + " " + TimeUnit.MILLISECONDS;
+    }
+
+    public static void main(String[] args) {
+        //junit...sigh
+        TopKAggregator aggregator = new TopKAggregator(2);
+        WindowEngine engine = new WindowEngine(aggregator, 3000, 1000, 2);
+        for (int slice = 0; slice < 5; slice++) {
+            aggregator.accept(new NewsItem((byte) slice, "headline " + slice, "feed"));
+            aggregator.accept(new NewsItem((byte) 0, "other " + slice, "feed"));
+            WindowSummary summary = engine.slide();
+            long expectedTotal = 2L * Math.min(slice + 1, 3);
+            if (summary.total() != expectedTotal || summary.topItems().get(0).priority() != slice ||
+                engine.lastSlice().total() != 2) {
+                throw new IllegalStateException("incorrect: " + summary);
+            }
+        }
+        WindowEngine restored = new WindowEngine(aggregator, 3000, 1000, 2);
+        restored.restoreSlice(new WindowSummary(new long[] {0, 0, 0, 0, 0, 0, 0, 0, 0, 1},
+                                                Collections.singletonList(new NewsItem((byte) 9, "restored", "feed"))));
+        aggregator.accept(new NewsItem((byte) 1, "current", "feed"));
+        WindowSummary summary = restored.slide();
+        if (summary.total() != 2 || summary.topItems().get(0).priority() != 9) {
+            throw new IllegalStateException("incorrect: " + summary);
+        }
+        if (!"5 MINUTES".equals(describe(300_000)) || !"1500 MILLISECONDS".equals(describe(1500))) {
+            throw new IllegalStateException("incorrect");
+        }
+    }
+}
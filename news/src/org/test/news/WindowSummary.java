@@ -0,0 +1,84 @@
+package org.test.news;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+/**
+ * The result of aggregating the news items of a time window: the exact number of items received for each priority and the
+ * top items, ordered by their natural (reverse) ordering.
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+public class WindowSummary {
+
+    protected static final int PRIORITIES = 10;
+
+    private final long[] counts;
+    private final List<NewsItem> topItems;
+
+    protected WindowSummary(long[] counts, List<NewsItem> topItems) {
+        if (counts.length != PRIORITIES) {
+            throw new IllegalArgumentException("there must be a count for each of the " + PRIORITIES + " priorities");
+        }
+        this.counts = counts.clone();
+        this.topItems = Collections.unmodifiableList(topItems);
+    }
+
+    /**
+     * Merges the summaries of several (disjoint) windows into the summary of a larger window. Since each summary holds its
+     * own top K items, the top K items of the merged summary are the same as if all the items had been aggregated together.
+     *
+     * @param summaries the summaries to merge; never {@code null}
+     * @param k the number of top items to keep
+     * @return a {@link WindowSummary} instance, never {@code null}
+     */
+    protected static WindowSummary merge(Collection<WindowSummary> summaries, int k) {
+        long[] counts = new long[PRIORITIES];
+        TreeSet<NewsItem> topItems = new TreeSet<>();
+        for (WindowSummary summary : summaries) {
+            for (int i = 0; i < PRIORITIES; i++) {
+                counts[i] += summary.counts[i];
+            }
+            topItems.addAll(summary.topItems);
+        }
+        return new WindowSummary(counts, topItems.stream().limit(k).collect(Collectors.toList()));
+    }
+
+    /**
+     * Returns the number of items received with a given priority
+     *
+     * @param priority the priority, between 0 and 9
+     * @return the number of items
+     */
+    protected long count(int priority) {
+        return counts[priority];
+    }
+
+    /**
+     * Returns the total number of items received
+     *
+     * @return the number of items
+     */
+    protected long total() {
+        return LongStream.of(counts).sum();
+    }
+
+    /**
+     * Returns the top items, highest first
+     *
+     * @return an unmodifiable {@link List}, never {@code null}
+     */
+    protected List<NewsItem> topItems() {
+        return topItems;
+    }
+
+    @Override
+    public String toString() {
+        return "WindowSummary[counts=" + Arrays.toString(counts) + ", topItems=" + topItems + ']';
+    }
+}
@@ -0,0 +1,239 @@
+package org.test.news;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Compact, immutable lookup table of weighted words, used to look up the UTF-8 encoding of a word directly in a message
+ * buffer without creating any objects.
+ * <p>
+ * The table is a minimal perfect hash built with the "hash, displace and compress" algorithm: each word is hashed into a
+ * bucket and each bucket stores a displacement which, mixed into the hash of the word, yields a distinct slot for every
+ * word of the dictionary. A lookup hashes the word once, reads the displacement of its bucket and compares the bytes of the
+ * single candidate slot. All the words are stored back to back in one byte array, so apart from the word bytes the table
+ * uses about 9 bytes per word.
+ * </p>
+ *
+ * @author Horia Chiorean (horia.chiorean@gmail.com)
+ */
+public final class WordTable {
+
+    // the average number of words in a bucket
+    private static final int BUCKET_SIZE = 4;
+    private static final long DISPLACEMENT_SEED = 0x9e3779b97f4a7c15L;
+
+    private final int[] displacements;
+    private final int[] offsets;
+    private final int[] weights;
+    private final byte[] words;
+
+    private WordTable(int[] displacements, int[] offsets, int[] weights, byte[] words) {
+        this.displacements = displacements;
+        this.offsets = offsets;
+        this.weights = weights;
+        this.words = words;
+    }
+
+    /**
+     * Builds a table with all the words of a dictionary; if a word appears multiple times, the last weight wins
+     *
+     * @param dictionary the dictionary; never {@code null}
+     * @return a {@link WordTable} instance, never {@code null}
+     * @throws IllegalStateException if the table cannot be built (i.e. two words with the same 64 bit hash)
+     */
+    protected static WordTable of(Dictionary dictionary) {
+        int wordCount = dictionary.allWords().size();
+        byte[][] keys = new byte[wordCount][];
+        long[] hashes = new long[wordCount];
+        for (int i = 0; i < wordCount; i++) {
+            keys[i] = dictionary.allWords().get(i).getBytes(StandardCharsets.UTF_8);
+            hashes[i] = hash(keys[i], 0, keys[i].length);
+        }
+        int[] unique = uniqueWords(keys, hashes);
+        int size = unique.length;
+        int bucketCount = Math.max(1, size / BUCKET_SIZE);
+
+        // group the words by bucket and place the largest buckets first, while there are still many free slots
+        int[] bucketSizes = new int[bucketCount + 1];
+        for (int word : unique) {
+            bucketSizes[bucket(hashes[word], bucketCount) + 1]++;
+        }
+        for (int i = 0; i < bucketCount; i++) {
+            bucketSizes[i + 1] += bucketSizes[i];
+        }
+        int[] bucketStart = bucketSizes.clone();
+        int[] wordsByBucket = new int[size];
+        for (int word : unique) {
+            wordsByBucket[bucketStart[bucket(hashes[word], bucketCount)]++] = word;
+        }
+        Integer[] bucketOrder = new Integer[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            bucketOrder[i] = i;
+        }
+        Arrays.sort(bucketOrder, Comparator.comparingInt(bucket -> bucketSizes[bucket] - bucketSizes[bucket + 1]));
+
+        int[] displacements = new int[bucketCount];
+        int[] slotWords = new int[size];
+        boolean[] taken = new boolean[size];
+        int[] bucketSlots = new int[size];
+        for (int bucket : bucketOrder) {
+            int from = bucketSizes[bucket];
+            int to = bucketSizes[bucket + 1];
+            if (from == to) {
+                continue;
+            }
+            int displacement = 0;
+            while (!tryPlace(displacement, wordsByBucket, from, to, hashes, taken, bucketSlots)) {
+                if (++displacement < 0) {
+                    throw new IllegalStateException("Cannot build a perfect hash for the dictionary");
+                }
+            }
+            displacements[bucket] = displacement;
+            for (int i = from; i < to; i++) {
+                int slot = bucketSlots[i - from];
+                taken[slot] = true;
+                slotWords[slot] = wordsByBucket[i];
+            }
+        }
+
+        int[] offsets = new int[size + 1];
+        int[] weights = new int[size];
+        for (int slot = 0; slot < size; slot++) {
+            offsets[slot + 1] = offsets[slot] + keys[slotWords[slot]].length;
+            weights[slot] = dictionary.weight(slotWords[slot]);
+        }
+        byte[] words = new byte[offsets[size]];
+        for (int slot = 0; slot < size; slot++) {
+            byte[] key = keys[slotWords[slot]];
+            System.arraycopy(key, 0, words, offsets[slot], key.length);
+        }
+        return new WordTable(displacements, offsets, weights, words);
+    }
+
+    private static int[] uniqueWords(byte[][] keys, long[] hashes) {
+        // sort by hash, keeping the original order for equal hashes, so that the last duplicate can be kept
+        Integer[] order = new Integer[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong(i -> hashes[i]));
+        int[] unique = new int[keys.length];
+        int count = 0;
+        for (int i = 0; i < order.length; i++) {
+            int word = order[i];
+            if (i + 1 < order.length && hashes[order[i + 1]] == hashes[word]) {
+                if (Arrays.equals(keys[order[i + 1]], keys[word])) {
+                    // a later duplicate of the same word
+                    continue;
+                }
+                throw new IllegalStateException("Hash collision between words in the dictionary");
+            }
+            unique[count++] = word;
+        }
+        return Arrays.copyOf(unique, count);
+    }
+
+    private static boolean tryPlace(int displacement, int[] wordsByBucket, int from, int to, long[] hashes, boolean[] taken,
+                                    int[] bucketSlots) {
+        for (int i = from; i < to; i++) {
+            int slot = slot(hashes[wordsByBucket[i]], displacement, taken.length);
+            if (taken[slot]) {
+                return false;
+            }
+            for (int j = 0; j < i - from; j++) {
+                if (bucketSlots[j] == slot) {
+                    return false;
+                }
+            }
+            bucketSlots[i - from] = slot;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the weight of an UTF-8 encoded word
+     *
+     * @param data the buffer holding the word; never {@code null}
+     * @param from the index of the first byte of the word (inclusive)
+     * @param to the index of the last byte of the word (exclusive)
+     * @return the weight of the word or 0 if the word is not known
+     */
+    protected int weight(byte[] data, int from, int to) {
+        int slot = indexOf(data, from, to);
+        return slot >= 0 ? weights[slot] : 0;
+    }
+
+    /**
+     * Returns the slot of an UTF-8 encoded word, which is a distinct number for each word of the table
+     *
+     * @param data the buffer holding the word; never {@code null}
+     * @param from the index of the first byte of the word (inclusive)
+     * @param to the index of the last byte of the word (exclusive)
+     * @return the slot, between 0 and {@link #size()} (exclusive), or -1 if the word is not known
+     */
+    protected int indexOf(byte[] data, int from, int to) {
+        int size = weights.length;
+        if (size == 0) {
+            return -1;
+        }
+        long hash = hash(data, from, to);
+        int slot = slot(hash, displacements[bucket(hash, displacements.length)], size);
+        int offset = offsets[slot];
+        int length = to - from;
+        if (offsets[slot + 1] - offset != length) {
+            return -1;
+        }
+        for (int i = 0; i < length; i++) {
+            if (words[offset + i] != data[from + i]) {
+                return -1;
+            }
+        }
+        return slot;
+    }
+
+    /**
+     * Returns the number of distinct words in the table
+     *
+     * @return the number of words
+     */
+    protected int size() {
+        return weights.length;
+    }
+
+    /**
+     * Returns the approximate number of bytes used by this table
+     *
+     * @return the size in bytes
+     */
+    protected long sizeInBytes() {
+        return 4L * (displacements.length + offsets.length + weights.length) + words.length;
+    }
+
+    private static int bucket(long hash, int bucketCount) {
+        return (int) ((hash >>> 32) % bucketCount);
+    }
+
+    private static int slot(long hash, int displacement, int size) {
+        // each displacement value yields a different, independent hash of the word
+        return (int) ((mix(hash + displacement * DISPLACEMENT_SEED) >>> 1) % size);
+    }
+
+    private static long hash(byte[] data, int from, int to) {
+        // FNV-1a, followed by a final mix so that all the bits are usable
+        long hash = 0xcbf29ce484222325L;
+        for (int i = from; i < to; i++) {
+            hash ^= data[i];
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+}